@@ -27,6 +27,7 @@ import java.nio.charset.CharacterCodingException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -54,15 +55,110 @@ public class DefaultHttpRequest extends DefaultHttpMessage implements
     private URI requestUri;
     private Map<String, List<String>> parameters = new HashMap<String, List<String>>();
 
+    /**
+     * The <tt>Cookie</tt> header value set on this request, until it is
+     * parsed
+     */
+    private String cookieHeader;
+
     /**
      * Creates a new instance.
      */
     public DefaultHttpRequest() {
     }
 
+    /**
+     * Sets the cookies of this request from the specified <tt>Cookie</tt>
+     * header value. The header is not parsed until the cookies are first
+     * accessed: a malformed header results in an
+     * <tt>IllegalArgumentException</tt> at that point.
+     */
     public void setCookies(String headerValue) {
         clearCookies();
+        cookieHeader = headerValue;
+    }
 
+    /**
+     * Returns the value of the cookie with the specified name.
+     * If the cookies of this request have not been parsed yet, only the
+     * requested cookie is extracted from the <tt>Cookie</tt> header.
+     *
+     * @param name  the cookie name
+     * @return      the cookie value, or <tt>null</tt> if this request has
+     *              no such cookie
+     */
+    public String getCookieValue(String name) {
+        String header = cookieHeader;
+        if (header != null) {
+            return HttpCodecUtils.getCookieValue(header, name);
+        }
+        for (Cookie c : super.getCookies()) {
+            if (c.getName().equals(name)) {
+                return c.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Set<Cookie> getCookies() {
+        parseCookies();
+        return super.getCookies();
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        parseCookies();
+        super.addCookie(cookie);
+    }
+
+    @Override
+    public void removeCookie(String name) {
+        parseCookies();
+        super.removeCookie(name);
+    }
+
+    @Override
+    public boolean removeCookie(Cookie cookie) {
+        parseCookies();
+        return super.removeCookie(cookie);
+    }
+
+    @Override
+    public void setCookies(Collection<Cookie> cookies) {
+        cookieHeader = null;
+        super.setCookies(cookies);
+    }
+
+    @Override
+    public void clearCookies() {
+        cookieHeader = null;
+        super.clearCookies();
+    }
+
+    /**
+     * Parses the pending <tt>Cookie</tt> header, if any. A malformed header
+     * yields no cookies, as a request without the header would
+     */
+    private void parseCookies() {
+        String headerValue = cookieHeader;
+        if (headerValue == null) {
+            return;
+        }
+        cookieHeader = null;
+        try {
+            parseCookies(headerValue);
+        } catch (IllegalArgumentException e) {
+            super.clearCookies();
+        }
+    }
+
+    /**
+     * Parses the cookies of a <tt>Cookie</tt> header
+     *
+     * @throws IllegalArgumentException if the header is malformed
+     */
+    private void parseCookies(String headerValue) {
         int version = -1; // -1 means version is not parsed yet.
         int fieldIdx = 0;
         MutableCookie currentCookie = null;
@@ -134,7 +230,7 @@ public class DefaultHttpRequest extends DefaultHttpMessage implements
                     currentCookie = new DefaultCookie(key);
                     currentCookie.setVersion(version);
                     currentCookie.setValue(value);
-                    addCookie(currentCookie);
+                    super.addCookie(currentCookie);
                     fieldIdx++;
                 }
             }
@@ -19,21 +19,26 @@
  */
 package org.apache.asyncweb.common;
 
+import java.io.IOException;
+
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.FileRegion;
 
 
 /**
- * A default implementation of {@link MutableHttpResponse}.
+ * A default implementation of {@link MutableHttpResponse}, whose body may
+ * be a region of a file.
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
 public class DefaultHttpResponse extends DefaultHttpMessage implements
-        MutableHttpResponse {
+        FileContentResponse {
 
     private static final long serialVersionUID = -3733889080525034446L;
 
     private HttpResponseStatus status = HttpResponseStatus.OK;
     private String statusReasonPhrase = HttpResponseStatus.OK.getDescription();
+    private transient FileRegion fileContent;
 
     /**
      * Creates a new instance
@@ -75,18 +80,54 @@ public class DefaultHttpResponse extends DefaultHttpMessage implements
         this.statusReasonPhrase = statusReasonPhrase;
     }
 
+    public FileRegion getFileContent() {
+        return fileContent;
+    }
+
+    public void setFileContent(FileRegion fileContent) {
+        if (fileContent == null) {
+            throw new NullPointerException("fileContent");
+        }
+        super.setContent(IoBuffer.allocate(0));
+        closeFileContent();
+        this.fileContent = fileContent;
+    }
+
+    @Override
+    public void setContent(IoBuffer content) {
+        super.setContent(content);
+        closeFileContent();
+    }
+
+    /**
+     * Discards our file content - if any - closing its channel
+     */
+    private void closeFileContent() {
+        FileRegion region = fileContent;
+        fileContent = null;
+        if (region != null) {
+            try {
+                region.getFileChannel().close();
+            } catch (IOException e) {
+                // Nothing more can be done
+            }
+        }
+    }
+
     public void normalize(HttpRequest request) {
         updateConnectionHeader(request);
 
         setHeader(HttpHeaderConstants.KEY_DATE, HttpDateFormat
                 .getCurrentHttpDate());
 
-        int contentLength;
-        if (isBodyAllowed(request)) {
-            contentLength = getContent().remaining();
-        } else {
+        long contentLength;
+        if (!isBodyAllowed(request)) {
             setContent(IoBuffer.allocate(0));
             contentLength = 0;
+        } else if (fileContent != null) {
+            contentLength = fileContent.getRemainingBytes();
+        } else {
+            contentLength = getContent().remaining();
         }
 
         if (!containsHeader(HttpHeaderConstants.KEY_TRANSFER_CODING)) {
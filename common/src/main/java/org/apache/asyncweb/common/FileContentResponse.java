@@ -0,0 +1,50 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.common;
+
+import org.apache.mina.core.file.FileRegion;
+
+/**
+ * A <code>MutableHttpResponse</code> whose body may be a region of a file,
+ * rather than content held in memory. Encoders write the file region of
+ * responses implementing this interface to the connection without copying
+ * it into memory where the transport allows.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public interface FileContentResponse extends MutableHttpResponse {
+
+    /**
+     * Returns the region of a file which forms the body of this response,
+     * or <tt>null</tt> if the body is held in {@link #getContent()}.
+     */
+    FileRegion getFileContent();
+
+    /**
+     * Sets the body of this response to a region of a file, which is
+     * transferred to the connection without being copied into memory where
+     * the transport allows. Any content set previously is discarded, and
+     * setting content discards the file region.
+     * The file channel is closed once the response has been written.
+     *
+     * @param fileContent  the file region
+     */
+    void setFileContent(FileRegion fileContent);
+}
@@ -113,6 +113,81 @@ public class HttpHeaderConstants {
      */
     public static final String KEY_LOCATION = "Location";
 
+    /**
+     * The "retry-after" response header.
+     */
+    public static final String KEY_RETRY_AFTER = "Retry-After";
+
+    /**
+     * The "accept-encoding" request header.
+     */
+    public static final String KEY_ACCEPT_ENCODING = "Accept-Encoding";
+
+    /**
+     * The "content-encoding" header.
+     */
+    public static final String KEY_CONTENT_ENCODING = "Content-Encoding";
+
+    /**
+     * The "vary" response header.
+     */
+    public static final String KEY_VARY = "Vary";
+
+    /**
+     * The "etag" response header.
+     */
+    public static final String KEY_ETAG = "ETag";
+
+    /**
+     * The "range" request header.
+     */
+    public static final String KEY_RANGE = "Range";
+
+    /**
+     * The "if-range" request header.
+     */
+    public static final String KEY_IF_RANGE = "If-Range";
+
+    /**
+     * The "content-range" response header.
+     */
+    public static final String KEY_CONTENT_RANGE = "Content-Range";
+
+    /**
+     * The "accept-ranges" response header.
+     */
+    public static final String KEY_ACCEPT_RANGES = "Accept-Ranges";
+
+    /**
+     * The "if-none-match" request header.
+     */
+    public static final String KEY_IF_NONE_MATCH = "If-None-Match";
+
+    /**
+     * The "if-modified-since" request header.
+     */
+    public static final String KEY_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /**
+     * The "last-modified" response header.
+     */
+    public static final String KEY_LAST_MODIFIED = "Last-Modified";
+
+    /**
+     * The "cache-control" header.
+     */
+    public static final String KEY_CACHE_CONTROL = "Cache-Control";
+
+    /**
+     * The "bytes" range unit.
+     */
+    public static final String VALUE_BYTES = "bytes";
+
+    /**
+     * The "gzip" content coding.
+     */
+    public static final String VALUE_GZIP = "gzip";
+
     private HttpHeaderConstants() {
     }
 }
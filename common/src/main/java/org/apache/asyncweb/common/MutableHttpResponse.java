@@ -53,9 +53,9 @@ public interface MutableHttpResponse extends MutableHttpMessage, HttpResponse {
      *     determined from the specified <tt>request</tt> and the status of
      *     this response.</li>
      * <li>Adds '<tt>Date</tt>' header with current time.</li>
-     * <li>Removes body content if the {@link HttpMethod} of the specified
-     *     <tt>request</tt> doesn't allow body or the status of this response
-     *     doesn't allow body.</li>
+     * <li>Removes body content (including any file content) if the
+     *     {@link HttpMethod} of the specified <tt>request</tt> doesn't allow
+     *     body or the status of this response doesn't allow body.</li>
      * <li>Adds '<tt>Content-length</tt>' header if '<tt>Transfer-coding</tt>'
      *     header doesn't exist.</li>
      * </ol>
@@ -126,6 +126,82 @@ public class HttpCodecUtils {
         return HTTP_CONTROLS[b&0x00FF];
     }
 
+    /**
+     * Locates the value of a single cookie in a <code>Cookie</code> header
+     * value, without parsing any of the other cookies it contains.
+     * Attributes (names starting with <code>$</code>) are never matched.
+     *
+     * @param headerValue  the value of the <code>Cookie</code> header
+     * @param name         the cookie name
+     * @return             the value of the first cookie with the specified
+     *                     name, or <code>null</code> if there is none
+     */
+    public static String getCookieValue(String headerValue, String name) {
+        int length = headerValue.length();
+        int nameLength = name.length();
+        int start = 0;
+        while (start < length) {
+            char c = headerValue.charAt(start);
+            if (c == ' ' || c == '\t' || c == ';' || c == ',') {
+                ++start;
+                continue;
+            }
+            int end = start;
+            while (end < length && (c = headerValue.charAt(end)) != ';'
+                    && c != ',') {
+                ++end;
+            }
+            if (headerValue.charAt(start) != '$'
+                    && headerValue.regionMatches(start, name, 0, nameLength)) {
+                int i = start + nameLength;
+                while (i < end && ((c = headerValue.charAt(i)) == ' ' || c == '\t')) {
+                    ++i;
+                }
+                if (i == end) {
+                    return "";
+                }
+                if (headerValue.charAt(i) == '=') {
+                    return headerValue.substring(i + 1, end).trim();
+                }
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Checks the <code>$Version</code> attribute which may lead a
+     * <code>Cookie</code> header value. This is the only part of the header
+     * which can make it malformed, so it is checked when a request is
+     * decoded, while its cookies are not parsed until they are used.
+     *
+     * @param headerValue  the value of the <code>Cookie</code> header
+     * @return             <code>false</code> if the header specifies a
+     *                     version other than 0 or 1
+     */
+    public static boolean isCookieVersionValid(String headerValue) {
+        int end = 0;
+        char c;
+        while (end < headerValue.length()
+                && (c = headerValue.charAt(end)) != ';' && c != ',') {
+            ++end;
+        }
+        String pair = headerValue.substring(0, end);
+        int equalsPos = pair.indexOf('=');
+        String key = equalsPos >= 0 ? pair.substring(0, equalsPos) : pair;
+        if (!key.trim().equalsIgnoreCase("$Version")) {
+            return true;
+        }
+        String value = equalsPos >= 0 ? pair.substring(equalsPos + 1).trim()
+                : "";
+        try {
+            int version = Integer.parseInt(value);
+            return version == 0 || version == 1;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
     /**
      * Throws a {@link HttpRequestDecoderException} with a specified cause.
      * This method should be used when the request is badly formed.
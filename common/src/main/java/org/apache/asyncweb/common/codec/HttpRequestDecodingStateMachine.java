@@ -120,7 +120,12 @@ abstract class HttpRequestDecodingStateMachine extends DecodingStateMachine {
                                 + cookies.subList(1, cookies.size()));
                     }
                 }
-                request.setCookies(cookies.get(0));
+                String cookie = cookies.get(0);
+                if (!HttpCodecUtils.isCookieVersionValid(cookie)) {
+                    HttpCodecUtils.throwDecoderException(
+                            "Invalid cookie version: " + cookie);
+                }
+                request.setCookies(cookie);
             }
 
             // Set headers.
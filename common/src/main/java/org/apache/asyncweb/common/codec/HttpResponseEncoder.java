@@ -19,17 +19,32 @@
  */
 package org.apache.asyncweb.common.codec;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.CharsetEncoder;
 
+import org.apache.asyncweb.common.FileContentResponse;
 import org.apache.asyncweb.common.HttpResponse;
 import org.apache.asyncweb.common.HttpResponseStatus;
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.FileRegion;
 import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolEncoder;
 import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.apache.mina.filter.ssl.SslFilter;
 
 /**
+ * Encodes responses.
+ * <p>
+ * Responses with file content are written as their encoded head followed by
+ * the file region itself, which the transport sends to the socket without
+ * copying it through memory. Where the file region can not be passed down
+ * the chain (when an <code>SslFilter</code> is present), the region is read
+ * into the encoded response instead.
+ * </p>
  * 
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -46,12 +61,50 @@ public class HttpResponseEncoder implements ProtocolEncoder {
 
         encodeStatusLine(response, buffer);
         HttpCodecUtils.encodeHeaders(response, buffer, asciiEncoder);
-        HttpCodecUtils.encodeBody(response, buffer);
+
+        FileRegion fileContent = response instanceof FileContentResponse
+                ? ((FileContentResponse) response).getFileContent() : null;
+        if (fileContent == null) {
+            HttpCodecUtils.encodeBody(response, buffer);
+        } else if (session.getFilterChain().contains(SslFilter.class)) {
+            readRegion(fileContent, buffer);
+        } else {
+            buffer.flip();
+            out.write(buffer);
+            out.write(fileContent);
+            return;
+        }
 
         buffer.flip();
         out.write(buffer);
     }
 
+    /**
+     * Reads the remaining bytes of a file region into a buffer
+     */
+    private static void readRegion(FileRegion region, IoBuffer buffer)
+            throws IOException {
+        long remaining = region.getRemainingBytes();
+        if (remaining > Integer.MAX_VALUE - buffer.position()) {
+            throw new IOException("File content too large to buffer: "
+                    + remaining);
+        }
+        buffer.expand((int) remaining);
+        ByteBuffer buf = buffer.buf();
+        int limit = buf.limit();
+        buf.limit(buf.position() + (int) remaining);
+        FileChannel channel = region.getFileChannel();
+        long position = region.getPosition();
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                throw new EOFException("File region truncated");
+            }
+            position += n;
+        }
+        buf.limit(limit);
+    }
+
     public void dispose(IoSession session) throws Exception {
     }
 
@@ -38,5 +38,38 @@ public class DefaultHttpRequestTest extends TestCase {
         Assert.assertEquals(1, req.getParameters().size());
         Assert.assertEquals("\uf6fc", req.getParameter("\u00e4"));
     }
+
+    public void testGetCookieValueBeforeParsing() throws Exception {
+        DefaultHttpRequest req = new DefaultHttpRequest();
+        req.setCookies("$Version=1; a=1; $Path=/; session = xyz ;flag, b=2");
+
+        Assert.assertEquals("xyz", req.getCookieValue("session"));
+        Assert.assertEquals("", req.getCookieValue("flag"));
+        Assert.assertEquals("2", req.getCookieValue("b"));
+        Assert.assertNull(req.getCookieValue("sess"));
+        Assert.assertNull(req.getCookieValue("$Path"));
+        Assert.assertNull(req.getCookieValue("missing"));
+    }
+
+    public void testLazyCookieParsing() throws Exception {
+        DefaultHttpRequest req = new DefaultHttpRequest();
+        req.setCookies("$Version=2; a=1");
+        Assert.assertEquals("1", req.getCookieValue("a"));
+        // a malformed header yields no cookies
+        Assert.assertTrue(req.getCookies().isEmpty());
+        Assert.assertNull(req.getCookieValue("a"));
+
+        req.setCookies("a=1; $Path=/; b=2");
+        Assert.assertEquals(2, req.getCookies().size());
+        Assert.assertEquals("2", req.getCookieValue("b"));
+        req.removeCookie(req.getCookies().iterator().next());
+        Assert.assertEquals(1, req.getCookies().size());
+
+        req.setCookies("c=3");
+        req.addCookie(new DefaultCookie("d"));
+        Assert.assertEquals(2, req.getCookies().size());
+        req.clearCookies();
+        Assert.assertNull(req.getCookieValue("c"));
+    }
     
 }
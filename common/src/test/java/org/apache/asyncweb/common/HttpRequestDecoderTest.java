@@ -0,0 +1,57 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.common;
+
+import static org.junit.Assert.*;
+
+import org.apache.asyncweb.common.codec.HttpRequestDecoder;
+import org.apache.asyncweb.common.codec.HttpRequestDecoderException;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.junit.Test;
+
+public class HttpRequestDecoderTest {
+
+    @Test
+    public void testCookieHeader() throws Exception {
+        DefaultHttpRequest request = decode("a=1; b=2");
+        assertEquals("2", request.getCookieValue("b"));
+        assertEquals(2, request.getCookies().size());
+    }
+
+    @Test
+    public void testMalformedCookieHeader() throws Exception {
+        try {
+            decode("$Version=x; a=1");
+            fail("Expected HttpRequestDecoderException");
+        } catch (HttpRequestDecoderException e) {
+            assertEquals(HttpResponseStatus.BAD_REQUEST, e.getResponseStatus());
+        }
+    }
+
+    private static DefaultHttpRequest decode(String cookie) throws Exception {
+        HttpRequestDecoder decoder = new HttpRequestDecoder();
+        ProtocolCodecSession session = new ProtocolCodecSession();
+        decoder.decode(session, IoBuffer.wrap(("GET / HTTP/1.1\r\n"
+                + "Host: localhost\r\nCookie: " + cookie + "\r\n\r\n")
+                .getBytes("US-ASCII")), session.getDecoderOutput());
+        return (DefaultHttpRequest) session.getDecoderOutputQueue().poll();
+    }
+}
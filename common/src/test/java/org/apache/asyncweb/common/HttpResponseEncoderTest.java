@@ -0,0 +1,117 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.common;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.asyncweb.common.codec.HttpResponseEncoder;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.DefaultFileRegion;
+import org.apache.mina.core.file.FileRegion;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.ssl.SslFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpResponseEncoderTest {
+
+    private static final String BODY = "0123456789";
+
+    private File file;
+
+    private FileChannel channel;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("body", null);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(("xx" + BODY).getBytes("US-ASCII"));
+        out.close();
+        channel = new RandomAccessFile(file, "r").getChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        channel.close();
+        file.delete();
+    }
+
+    @Test
+    public void testFileContentWrittenAsRegion() throws Exception {
+        ProtocolCodecSession session = new ProtocolCodecSession();
+        FileContentResponse response = fileResponse();
+        new HttpResponseEncoder().encode(session, response, session
+                .getEncoderOutput());
+
+        IoBuffer head = (IoBuffer) session.getEncoderOutputQueue().poll();
+        String headers = head.getString(ascii());
+        assertTrue(headers.startsWith("HTTP/1.1 200 OK\r\n"));
+        assertTrue(headers.endsWith("\r\n\r\n"));
+        assertTrue(headers.indexOf("Content-Length: 10\r\n") != -1);
+        FileRegion region = (FileRegion) session.getEncoderOutputQueue().poll();
+        assertSame(response.getFileContent(), region);
+        assertTrue(session.getEncoderOutputQueue().isEmpty());
+    }
+
+    @Test
+    public void testFileContentReadWithSsl() throws Exception {
+        ProtocolCodecSession session = new ProtocolCodecSession();
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, null, null);
+        session.getFilterChain().addLast("ssl", new SslFilter(context));
+        new HttpResponseEncoder().encode(session, fileResponse(), session
+                .getEncoderOutput());
+
+        IoBuffer encoded = (IoBuffer) session.getEncoderOutputQueue().poll();
+        String message = encoded.getString(ascii());
+        assertTrue(message.endsWith("\r\n\r\n" + BODY));
+        assertTrue(session.getEncoderOutputQueue().isEmpty());
+    }
+
+    @Test
+    public void testSettingContentClosesFile() throws Exception {
+        FileContentResponse response = fileResponse();
+        response.setContent(IoBuffer.wrap(new byte[1]));
+        assertNull(response.getFileContent());
+        assertFalse(channel.isOpen());
+    }
+
+    private FileContentResponse fileResponse() throws Exception {
+        FileContentResponse response = new DefaultHttpResponse();
+        response.setFileContent(new DefaultFileRegion(channel, 2, BODY
+                .length()));
+        response.normalize(new DefaultHttpRequest());
+        return response;
+    }
+
+    private static CharsetDecoder ascii() {
+        return Charset.forName("US-ASCII").newDecoder();
+    }
+}
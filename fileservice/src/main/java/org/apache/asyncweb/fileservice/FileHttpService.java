@@ -20,30 +20,78 @@
 
 package org.apache.asyncweb.fileservice;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidParameterException;
+import java.util.List;
+import java.util.Random;
 import java.util.regex.Pattern;
 
 import org.apache.asyncweb.common.DefaultHttpResponse;
+import org.apache.asyncweb.common.FileContentResponse;
+import org.apache.asyncweb.common.HttpHeaderConstants;
+import org.apache.asyncweb.common.HttpMethod;
+import org.apache.asyncweb.common.HttpRequest;
 import org.apache.asyncweb.common.HttpResponseStatus;
-import org.apache.asyncweb.common.MutableHttpResponse;
+import org.apache.asyncweb.common.codec.DateParseException;
+import org.apache.asyncweb.common.codec.DateUtil;
 import org.apache.asyncweb.fileservice.cache.CachingPolicy;
 import org.apache.asyncweb.fileservice.cache.SimpleCachingPolicy;
 import org.apache.asyncweb.fileservice.fileloader.FileLoader;
 import org.apache.asyncweb.fileservice.fileloader.SimpleFileLoader;
-import org.apache.asyncweb.fileservice.index.DefaultDirectoryIndexGenerator;
+import org.apache.asyncweb.fileservice.index.CachingDirectoryIndexGenerator;
 import org.apache.asyncweb.fileservice.index.DirectoryIndexGenerator;
+import org.apache.asyncweb.fileservice.metadata.FileMetadataIndex;
 import org.apache.asyncweb.fileservice.mimetype.MimeMap;
+import org.apache.asyncweb.fileservice.range.ByteRange;
 import org.apache.asyncweb.server.HttpService;
 import org.apache.asyncweb.server.HttpServiceContext;
+import org.apache.asyncweb.server.filter.GZipFilter;
+import org.apache.asyncweb.server.util.SegmentedLruCache;
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.DefaultFileRegion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * An HTTP service, serving files from the filesystem.
+ * <p>
+ * Files are served with a strong entity tag derived from their length and
+ * modification time, so filters such as <code>GZipFilter</code> can
+ * recognise repeated content without examining it.
+ * </p>
+ * <p>
+ * If enabled, precompressed siblings of requested files (such as
+ * <code>app.js.gz</code> for <code>app.js</code>) are served to clients
+ * accepting gzip content, so static assets need no compression at request
+ * time. Siblings older than the file they accompany are ignored.
+ * </p>
+ * <p>
+ * Files of at least a threshold size are not loaded: they are sent as a
+ * file region which the transport transfers straight from the file to the
+ * connection, so serving them does not take memory in proportion to their
+ * size. File regions can not be compressed, so when a compression filter
+ * is set - the <code>GZipFilter</code> in the service chain - files of a
+ * type it compresses are still loaded (up to a limit) for clients accepting
+ * gzip, unless a precompressed sibling is served instead.
+ * </p>
+ * <p>
+ * <code>GET</code> requests may ask for byte ranges of a file, subject to an
+ * <code>If-Range</code> condition. A single range is served as a slice of
+ * the loaded content or as a file region, and several ranges are assembled
+ * into a <code>multipart/byteranges</code> body.
+ * </p>
+ * <p>
+ * With a <code>FileMetadataIndex</code>, the metadata of requested files is
+ * kept in memory, so requests for known files need not query the file
+ * system before their content is served.
+ * </p>
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -61,10 +109,71 @@ public class FileHttpService implements HttpService {
 
     private FilenameFilter indexFileFilter;
 
-    private DirectoryIndexGenerator indexGenerator = new DefaultDirectoryIndexGenerator();
+    private DirectoryIndexGenerator indexGenerator = new CachingDirectoryIndexGenerator();
     
     private FileLoader fileLoader = new SimpleFileLoader();
 
+    private boolean servePrecompressed;
+
+    private FileMetadataIndex metadataIndex;
+
+    /**
+     * Files of at least this size are sent as file regions by default - 64KB
+     */
+    private static final long DEFAULT_FILE_REGION_THRESHOLD = 64 * 1024;
+
+    private long fileRegionThreshold = DEFAULT_FILE_REGION_THRESHOLD;
+
+    /**
+     * Compressible files up to this size are loaded for clients accepting
+     * gzip by default - 4MB
+     */
+    private static final long DEFAULT_MAX_COMPRESSIBLE_SIZE = 4 * 1024 * 1024;
+
+    private long maxCompressibleSize = DEFAULT_MAX_COMPRESSIBLE_SIZE;
+
+    private GZipFilter compressionFilter;
+
+    /**
+     * The default maximum number of ranges accepted in a request
+     */
+    private static final int DEFAULT_MAX_RANGES = 16;
+
+    /**
+     * The default limit on the bytes served as a multi-range response - 1MB
+     */
+    private static final long DEFAULT_MAX_MULTIPART_BYTES = 1024 * 1024;
+
+    private static final String MULTIPART_BYTERANGES = "multipart/byteranges; boundary=";
+
+    private static final String CRLF = "\r\n";
+
+    private static final Random BOUNDARIES = new Random();
+
+    private int maxRanges = DEFAULT_MAX_RANGES;
+
+    private long maxMultipartBytes = DEFAULT_MAX_MULTIPART_BYTES;
+
+    private static final String GZIP_EXTENSION = ".gz";
+
+    private static final String GZIP_ETAG_SUFFIX = "-gzip";
+
+    /**
+     * The maximum number of directories whose index file is remembered
+     */
+    private static final int MAX_INDEX_FILE_ENTRIES = 1024;
+
+    /**
+     * The resolution assumed for directory modification times
+     */
+    private static final long MODIFICATION_RESOLUTION = 1000;
+
+    /**
+     * The index file found in each directory, keyed by directory path
+     */
+    private final SegmentedLruCache<String, IndexFile> indexFiles = new SegmentedLruCache<String, IndexFile>(
+            MAX_INDEX_FILE_ENTRIES);
+
     public FileHttpService(String baseUrl, String basePath,
             String directoryIndexPattern) {
         this.baseUrl = baseUrl;
@@ -101,10 +210,10 @@ public class FileHttpService implements HttpService {
             throw new InvalidParameterException("Wrong URL");
         }
 
-        MutableHttpResponse response = new DefaultHttpResponse();
+        FileContentResponse response = new DefaultHttpResponse();
 
         path = path.substring(baseUrl.length());
-        File f = new File(basePath + File.separator + path);
+        File f = resolve(new File(basePath + File.separator + path));
 
         if (f.isDirectory()) {
 
@@ -123,8 +232,8 @@ public class FileHttpService implements HttpService {
             }
 
             // search for index file
-            String[] indexes = f.list(indexFileFilter);
-            if (indexes.length == 0) {
+            String index = indexFileName(f);
+            if (index == null) {
 
                 LOG.info("Serving directory index for {}", f.getAbsolutePath());
 
@@ -140,7 +249,8 @@ public class FileHttpService implements HttpService {
                 }
             } else {
                 // just serve the index file (ex:index.html) 
-                f = new File(f.getAbsolutePath() + File.separator + indexes[0]);
+                f = resolve(new File(f.getAbsolutePath() + File.separator
+                        + index));
             }
 
         }
@@ -148,16 +258,6 @@ public class FileHttpService implements HttpService {
 
             LOG.info("Serving file {}",f.getAbsolutePath());
 
-            // caching processing
-            if (cachingPolicy == null
-                    || !cachingPolicy.isCacheable(f, context.getRequest())) {
-                response.setHeader("Pragma", "no-cache");
-                response.setHeader("Cache-Control", "no-cache");
-            } else {
-                cachingPolicy.testAndSetCacheHit(f, context.getRequest(),
-                        response);
-            }
-
             // setting mime-type based on the mime-map
 
             String contentType = mimeMap.getContentType(MimeMap.getExtension(f
@@ -166,12 +266,50 @@ public class FileHttpService implements HttpService {
             if (contentType != null)
                 response.setHeader("Content-Type", contentType);
 
-            response.setStatus(HttpResponseStatus.OK);
+            String etag = etag(f);
+            File served = f;
+            boolean acceptsGzip = GZipFilter.acceptsGzip(context.getRequest()
+                    .getHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING));
+            File precompressed = servePrecompressed ? precompressedSibling(f)
+                    : null;
+            if (precompressed != null) {
+                response.setHeader(HttpHeaderConstants.KEY_VARY,
+                        HttpHeaderConstants.KEY_ACCEPT_ENCODING);
+                if (acceptsGzip) {
+                    LOG.debug("Serving precompressed file {}", precompressed);
+                    served = precompressed;
+                    response.setHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING,
+                            HttpHeaderConstants.VALUE_GZIP);
+                    etag = etag.substring(0, etag.length() - 1)
+                            + GZIP_ETAG_SUFFIX + '"';
+                }
+            }
+
+            response.setHeader(HttpHeaderConstants.KEY_ETAG, etag);
+
+            // caching processing
+            if (cachingPolicy == null
+                    || !cachingPolicy.isCacheable(f, context.getRequest())) {
+                response.setHeader("Pragma", "no-cache");
+                response.setHeader(HttpHeaderConstants.KEY_CACHE_CONTROL,
+                        "no-cache");
+            } else if (cachingPolicy.testAndSetCacheHit(f, context
+                    .getRequest(), response)) {
+                // the client copy is still valid: no need to load the file
+                LOG.debug("Not modified: {}", f);
+                response.setStatus(HttpResponseStatus.NOT_MODIFIED);
+                context.commitResponse(response);
+                return;
+            }
+
+            response.setHeader(HttpHeaderConstants.KEY_ACCEPT_RANGES,
+                    HttpHeaderConstants.VALUE_BYTES);
+            boolean compressible = acceptsGzip && served == f
+                    && compressionFilter != null
+                    && compressionFilter.isCompressibleType(contentType);
+            serveContent(context.getRequest(), response, served, f
+                    .lastModified(), etag, contentType, compressible);
 
-            IoBuffer buffer=fileLoader.loadFile(f);
-            
-            response.setContent(buffer);
-            
         } else {
             // the file is not found, we send the famous 404 error
             response.setStatus(HttpResponseStatus.NOT_FOUND);
@@ -182,6 +320,234 @@ public class FileHttpService implements HttpService {
 
     }
 
+    /**
+     * Finds the index file of a directory.
+     * The file found is remembered while the modification time of the
+     * directory is unchanged, so the directory is not listed on every
+     * request. Directories modified within the last second are listed again,
+     * as a further change within the same second may not alter their
+     * modification time
+     *
+     * @return The name of the index file, or <code>null</code> if there is
+     *         none
+     */
+    private String indexFileName(File directory) {
+        String key = directory.getAbsolutePath();
+        long lastModified = directory.lastModified();
+        IndexFile cached = indexFiles.get(key);
+        if (cached != null && cached.lastModified == lastModified) {
+            return cached.name;
+        }
+
+        String[] indexes = directory.list(indexFileFilter);
+        String name = indexes == null || indexes.length == 0 ? null
+                : indexes[0];
+        if (System.currentTimeMillis() - lastModified < MODIFICATION_RESOLUTION) {
+            indexFiles.remove(key);
+        } else {
+            indexFiles.put(key, new IndexFile(name, lastModified));
+        }
+        return name;
+    }
+
+    /**
+     * Sets the content of a response to a file - or to the ranges of it
+     * requested by the client.
+     * Files smaller than our file region threshold are provided by our file
+     * loader, and ranges of them are served as slices of the loaded
+     * content. Larger files, and ranges of them, are sent as file regions -
+     * unless they are to be compressed for the client, and within our
+     * compressible size limit.
+     */
+    private void serveContent(HttpRequest request,
+            FileContentResponse response, File served, long lastModified,
+            String etag, String contentType, boolean compressible)
+            throws IOException {
+        FileChannel channel = null;
+        IoBuffer content = null;
+        long length;
+        long size = served.length();
+        if (fileRegionThreshold >= 0 && size >= fileRegionThreshold
+                && !(compressible && size <= maxCompressibleSize)) {
+            channel = new RandomAccessFile(served, "r").getChannel();
+        }
+        try {
+            if (channel != null) {
+                length = channel.size();
+            } else {
+                content = fileLoader.loadFile(served);
+                length = content.remaining();
+            }
+
+            List<ByteRange> ranges = requestedRanges(request, etag,
+                    lastModified, length);
+            if (ranges == null) {
+                response.setStatus(HttpResponseStatus.OK);
+                if (channel != null) {
+                    response.setFileContent(new DefaultFileRegion(channel, 0,
+                            length));
+                } else {
+                    response.setContent(content);
+                }
+            } else if (ranges.isEmpty()) {
+                LOG.debug("Unsatisfiable range requested for {}", served);
+                response.setStatus(HttpResponseStatus.REQUEST_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaderConstants.KEY_CONTENT_RANGE,
+                        "bytes */" + length);
+            } else if (ranges.size() == 1) {
+                ByteRange range = ranges.get(0);
+                response.setStatus(HttpResponseStatus.PARTIAL_CONTENT);
+                response.setHeader(HttpHeaderConstants.KEY_CONTENT_RANGE,
+                        range.toContentRange(length));
+                if (channel != null) {
+                    response.setFileContent(new DefaultFileRegion(channel,
+                            range.getFirst(), range.getLength()));
+                } else {
+                    response.setContent(slice(content, range));
+                }
+            } else {
+                String boundary = Long.toHexString(BOUNDARIES.nextLong());
+                response.setStatus(HttpResponseStatus.PARTIAL_CONTENT);
+                response.setHeader(HttpHeaderConstants.KEY_CONTENT_TYPE,
+                        MULTIPART_BYTERANGES + boundary);
+                response.setContent(multipart(ranges, length, contentType,
+                        boundary, channel, content));
+            }
+        } finally {
+            if (channel != null && response.getFileContent() == null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Determines the ranges of a file requested by a client
+     *
+     * @return The satisfiable ranges requested, which are empty if none are
+     *         satisfiable - or <code>null</code> if the whole file should be
+     *         served
+     */
+    private List<ByteRange> requestedRanges(HttpRequest request, String etag,
+            long lastModified, long length) {
+        String range = request.getHeader(HttpHeaderConstants.KEY_RANGE);
+        if (range == null || request.getMethod() != HttpMethod.GET) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaderConstants.KEY_IF_RANGE);
+        if (ifRange != null && !isIfRangeMatched(ifRange.trim(), etag,
+                lastModified)) {
+            return null;
+        }
+        List<ByteRange> ranges = ByteRange.parse(range, length, maxRanges);
+        if (ranges != null && ranges.size() > 1) {
+            long total = 0;
+            for (ByteRange r : ranges) {
+                total += r.getLength();
+            }
+            if (total > maxMultipartBytes) {
+                LOG.debug("Serving whole file in place of {} ranges", ranges
+                        .size());
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Determines whether an <code>If-Range</code> condition holds: it must
+     * be the current (strong) entity tag, or the current modification date
+     */
+    private static boolean isIfRangeMatched(String ifRange, String etag,
+            long lastModified) {
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        try {
+            return DateUtil.parseDate(ifRange).getTime() / 1000 == lastModified / 1000;
+        } catch (DateParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a view of a range of loaded content
+     */
+    private static IoBuffer slice(IoBuffer content, ByteRange range) {
+        IoBuffer slice = content.duplicate();
+        int start = content.position() + (int) range.getFirst();
+        slice.limit(start + (int) range.getLength());
+        slice.position(start);
+        return slice;
+    }
+
+    /**
+     * Creates a <code>multipart/byteranges</code> body holding ranges of a
+     * file - read either from its loaded content or from a channel
+     */
+    private static IoBuffer multipart(List<ByteRange> ranges, long length,
+            String contentType, String boundary, FileChannel channel,
+            IoBuffer content) throws IOException {
+        IoBuffer body = IoBuffer.allocate(1024).setAutoExpand(true);
+        for (ByteRange range : ranges) {
+            StringBuilder head = new StringBuilder();
+            head.append(CRLF).append("--").append(boundary).append(CRLF);
+            if (contentType != null) {
+                head.append(HttpHeaderConstants.KEY_CONTENT_TYPE).append(": ")
+                        .append(contentType).append(CRLF);
+            }
+            head.append(HttpHeaderConstants.KEY_CONTENT_RANGE).append(": ")
+                    .append(range.toContentRange(length)).append(CRLF)
+                    .append(CRLF);
+            body.put(head.toString().getBytes("US-ASCII"));
+            if (content != null) {
+                body.put(slice(content, range));
+            } else {
+                int count = (int) range.getLength();
+                body.expand(count);
+                ByteBuffer buf = body.buf();
+                int limit = buf.limit();
+                buf.limit(buf.position() + count);
+                long position = range.getFirst();
+                while (buf.hasRemaining()) {
+                    int n = channel.read(buf, position);
+                    if (n < 0) {
+                        throw new EOFException("File truncated");
+                    }
+                    position += n;
+                }
+                buf.limit(limit);
+            }
+        }
+        body.put((CRLF + "--" + boundary + "--" + CRLF).getBytes("US-ASCII"));
+        body.flip();
+        return body;
+    }
+
+    /**
+     * Locates the precompressed sibling of a file
+     *
+     * @return The sibling, or <code>null</code> if there is no sibling at
+     *         least as recent as the file
+     */
+    private File precompressedSibling(File f) {
+        File sibling = resolve(new File(f.getPath() + GZIP_EXTENSION));
+        if (sibling.isFile() && sibling.lastModified() >= f.lastModified()) {
+            return sibling;
+        }
+        return null;
+    }
+
+    /**
+     * Creates a strong entity tag for the current version of a file
+     */
+    private static String etag(File f) {
+        return "\"" + Long.toHexString(f.length()) + '-'
+                + Long.toHexString(f.lastModified()) + '"';
+    }
+
     public CachingPolicy getCachingPolicy() {
         return cachingPolicy;
     }
@@ -190,12 +556,39 @@ public class FileHttpService implements HttpService {
         this.cachingPolicy = cachingPolicy;
     }
 
+    /**
+     * Resolves a file against our metadata index, if any
+     */
+    private File resolve(File file) {
+        return metadataIndex == null ? file : metadataIndex.resolve(file);
+    }
+
     public void start() {
-        // nothing to do there
+        if (metadataIndex != null) {
+            metadataIndex.start();
+        }
     }
 
     public void stop() {
-        // nothing to do there
+        if (metadataIndex != null) {
+            metadataIndex.stop();
+        }
+    }
+
+    /**
+     * The index file found in a directory, and the modification time of the
+     * directory when it was listed
+     */
+    private static class IndexFile {
+
+        private final String name;
+
+        private final long lastModified;
+
+        IndexFile(String name, long lastModified) {
+            this.name = name;
+            this.lastModified = lastModified;
+        }
     }
 
     private class RegExpFilenameFilter implements FilenameFilter {
@@ -211,6 +604,100 @@ public class FileHttpService implements HttpService {
 
     }
 
+    public int getMaxRanges() {
+        return maxRanges;
+    }
+
+    /**
+     * Sets the maximum number of ranges a request may specify. Requests for
+     * more ranges are served the whole file. The default is 16
+     *
+     * @param maxRanges  The maximum number of ranges
+     */
+    public void setMaxRanges(int maxRanges) {
+        this.maxRanges = maxRanges;
+    }
+
+    public long getMaxMultipartBytes() {
+        return maxMultipartBytes;
+    }
+
+    /**
+     * Sets the maximum number of file bytes served in a
+     * <code>multipart/byteranges</code> response, which is assembled in
+     * memory. Requests for more are served the whole file. The default is
+     * 1MB
+     *
+     * @param maxMultipartBytes  The maximum number of bytes
+     */
+    public void setMaxMultipartBytes(long maxMultipartBytes) {
+        this.maxMultipartBytes = maxMultipartBytes;
+    }
+
+    public long getFileRegionThreshold() {
+        return fileRegionThreshold;
+    }
+
+    /**
+     * Sets the size from which files are sent as file regions rather than
+     * being loaded by our file loader. The default is 64KB
+     *
+     * @param fileRegionThreshold  The threshold (in bytes), or a negative
+     *                             value to always employ the file loader
+     */
+    public void setFileRegionThreshold(long fileRegionThreshold) {
+        this.fileRegionThreshold = fileRegionThreshold;
+    }
+
+    public long getMaxCompressibleSize() {
+        return maxCompressibleSize;
+    }
+
+    /**
+     * Sets the size of the largest file of a compressible type which is
+     * loaded, rather than sent as a file region, for clients accepting gzip.
+     * The default is 4MB
+     *
+     * @param maxCompressibleSize  The maximum size (in bytes)
+     */
+    public void setMaxCompressibleSize(long maxCompressibleSize) {
+        this.maxCompressibleSize = maxCompressibleSize;
+    }
+
+    public GZipFilter getCompressionFilter() {
+        return compressionFilter;
+    }
+
+    /**
+     * Sets the filter compressing our responses, whose content types are
+     * loaded rather than sent as file regions for clients accepting gzip.
+     * This should be the <code>GZipFilter</code> instance in the service
+     * chain, so that its content type allow-list is honoured here too.
+     * The default is <code>null</code>: no filter is consulted, and files
+     * beyond the file region threshold are always sent as file regions
+     *
+     * @param compressionFilter  The filter, or <code>null</code> to send
+     *                           all files beyond the file region threshold
+     *                           as file regions
+     */
+    public void setCompressionFilter(GZipFilter compressionFilter) {
+        this.compressionFilter = compressionFilter;
+    }
+
+    public boolean isServePrecompressed() {
+        return servePrecompressed;
+    }
+
+    /**
+     * Sets whether precompressed (<code>.gz</code>) siblings of requested
+     * files are served to clients accepting gzip. Disabled by default
+     *
+     * @param servePrecompressed  <code>true</code> to serve siblings
+     */
+    public void setServePrecompressed(boolean servePrecompressed) {
+        this.servePrecompressed = servePrecompressed;
+    }
+
     public FileLoader getFileLoader() {
         return fileLoader;
     }
@@ -218,4 +705,20 @@ public class FileHttpService implements HttpService {
     public void setFileLoader(FileLoader fileLoader) {
         this.fileLoader = fileLoader;
     }
+
+    public FileMetadataIndex getMetadataIndex() {
+        return metadataIndex;
+    }
+
+    /**
+     * Sets an index from which the existence, type, length and modification
+     * time of requested files are taken, rather than from the file system.
+     * The index is started and stopped with this service. By default, there
+     * is no index
+     *
+     * @param metadataIndex  The index, or <code>null</code>
+     */
+    public void setMetadataIndex(FileMetadataIndex metadataIndex) {
+        this.metadataIndex = metadataIndex;
+    }
 }
@@ -38,10 +38,15 @@ public interface CachingPolicy {
      */
     public boolean isCacheable(File requestedFile, HttpRequest request);
     /**
-     * Test if it's a cache hit from file infos and headers infos
+     * Test if it's a cache hit from file infos and headers infos, and set the
+     * caching headers of the response. Any entity tag of the file is set on
+     * the response before this is called.
+     * A hit is answered with <code>304 Not Modified</code>, without loading
+     * the file
      * @param requestedFile
      * @param request
-     * @return
+     * @param response
+     * @return <code>true</code> if the client holds a valid copy of the file
      */
     public boolean testAndSetCacheHit(File requestedFile, HttpRequest request, MutableHttpResponse response);
 }
@@ -21,26 +21,50 @@
 package org.apache.asyncweb.fileservice.cache;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
 
+import org.apache.asyncweb.common.HttpHeaderConstants;
+import org.apache.asyncweb.common.HttpMethod;
 import org.apache.asyncweb.common.HttpRequest;
 import org.apache.asyncweb.common.MutableHttpResponse;
+import org.apache.asyncweb.common.codec.DateParseException;
+import org.apache.asyncweb.common.codec.DateUtil;
 
 /**
- * Very simple caching based on last modification date
+ * Very simple caching based on last modification date and entity tag.
+ * <p>
+ * Responses are given a <code>Last-Modified</code> header and a fixed
+ * <code>max-age</code>. A <code>GET</code> or <code>HEAD</code> request is
+ * a cache hit when its <code>If-None-Match</code> header lists the entity
+ * tag already set on the response or, in the absence of that header, when
+ * the file has not been modified since its <code>If-Modified-Since</code>
+ * date.
+ * </p>
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
 public class SimpleCachingPolicy implements CachingPolicy {
 
-    /* formatter for strings like : "Last-Modified  Mon, 17 Dec 2007 00:12:30 GMT" */
-    private SimpleDateFormat sdf;
+    /**
+     * The default freshness lifetime - one hour
+     */
+    private static final int DEFAULT_MAX_AGE = 3600;
 
-    public SimpleCachingPolicy() {
-        sdf = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
-        sdf.setTimeZone(TimeZone.getTimeZone("GMT"));
+    private static final String WEAK_PREFIX = "W/";
+
+    private int maxAge = DEFAULT_MAX_AGE;
+
+    public int getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets the number of seconds for which clients may use a file without
+     * revalidating it. The default is one hour
+     *
+     * @param maxAge  The freshness lifetime in seconds
+     */
+    public void setMaxAge(int maxAge) {
+        this.maxAge = maxAge;
     }
 
     public boolean isCacheable(File requestedFile, HttpRequest request) {
@@ -51,10 +75,62 @@ public class SimpleCachingPolicy implements CachingPolicy {
             MutableHttpResponse response) {
 
         long last = requestedFile.lastModified();
-        long maxAge = System.currentTimeMillis() - last;
-        response.setHeader("Cache-Control", "max-age=" + maxAge);
-        response.setHeader("Last-Modified", sdf.format(new Date(last)));
-        return true;
+        response.setHeader(HttpHeaderConstants.KEY_CACHE_CONTROL, "max-age="
+                + maxAge);
+        response.setHeader(HttpHeaderConstants.KEY_LAST_MODIFIED, DateUtil
+                .formatDate(new Date(last)));
+
+        HttpMethod method = request.getMethod();
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return false;
+        }
+        String ifNoneMatch = request
+                .getHeader(HttpHeaderConstants.KEY_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return isMatched(ifNoneMatch, response
+                    .getHeader(HttpHeaderConstants.KEY_ETAG));
+        }
+        String ifModifiedSince = request
+                .getHeader(HttpHeaderConstants.KEY_IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            try {
+                // dates have a resolution of one second
+                return last / 1000 <= DateUtil.parseDate(ifModifiedSince)
+                        .getTime() / 1000;
+            } catch (DateParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether an <code>If-None-Match</code> header lists an entity
+     * tag. Tags are compared weakly, so a weak validator held by a client
+     * matches the same strong tag
+     *
+     * @param ifNoneMatch  The header value
+     * @param etag         The current entity tag, or <code>null</code>
+     */
+    private static boolean isMatched(String ifNoneMatch, String etag) {
+        if (ifNoneMatch.trim().equals("*")) {
+            return true;
+        }
+        if (etag == null) {
+            return false;
+        }
+        String opaque = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            if (stripWeak(candidate.trim()).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith(WEAK_PREFIX) ? etag.substring(WEAK_PREFIX
+                .length()) : etag;
     }
 
 }
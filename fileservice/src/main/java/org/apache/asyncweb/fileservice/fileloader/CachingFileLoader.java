@@ -0,0 +1,257 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.fileservice.fileloader;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.asyncweb.server.util.SegmentedLruCache;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A file loader which caches the content of files loaded by another loader
+ * in direct buffers.
+ * <p>
+ * Each cached file is held with the modification time and length it had
+ * when it was loaded, and is reloaded as soon as the <code>File</code> it
+ * is requested through reports a different modification time or length.
+ * Callers which derive validators (such as entity tags) from that
+ * <code>File</code> are therefore never handed content older than their
+ * validators. A caller which resolves files through a metadata index sees
+ * changes when the index does, without further file system access.
+ * </p>
+ * <p>
+ * Revalidation saves reading the file, but not the system calls made to
+ * stat it: without a metadata index, the caller stats a file and this
+ * loader stats it again on every hit. An optional revalidation interval
+ * trades freshness for fewer system calls - a file validated within the
+ * interval is served without being examined, so it may be served stale
+ * for up to the interval after it changes.
+ * </p>
+ * <p>
+ * The cache is bounded by a byte budget, split between a number of
+ * segments each of which evicts its least recently used files to stay within
+ * its share (see {@link SegmentedLruCache}). Files larger than a maximum
+ * size are never cached.
+ * </p>
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class CachingFileLoader implements FileLoader {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CachingFileLoader.class);
+
+    /**
+     * The default byte budget - 64MB
+     */
+    private static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * The default maximum size of a cached file - 1MB
+     */
+    private static final long DEFAULT_MAX_FILE_SIZE = 1024 * 1024;
+
+    private final FileLoader loader;
+
+    private final SegmentedLruCache<String, CachedFile> cache;
+
+    private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+
+    private volatile long revalidationInterval;
+
+    /**
+     * Constructs a cache of files loaded by a <code>SimpleFileLoader</code>
+     */
+    public CachingFileLoader() {
+        this(new SimpleFileLoader());
+    }
+
+    /**
+     * Constructs with the default byte budget
+     *
+     * @param loader  The loader of files which are not cached
+     */
+    public CachingFileLoader(FileLoader loader) {
+        this(loader, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Constructs with a specified byte budget
+     *
+     * @param loader    The loader of files which are not cached
+     * @param maxBytes  The maximum number of bytes of file content held
+     */
+    public CachingFileLoader(FileLoader loader, long maxBytes) {
+        this.loader = loader;
+        this.cache = new SegmentedLruCache<String, CachedFile>(maxBytes) {
+            @Override
+            protected long weigh(CachedFile file) {
+                return file.length;
+            }
+        };
+    }
+
+    /**
+     * Sets the size of the largest file which is cached.
+     * The default is 1MB
+     *
+     * @param maxFileSize  The maximum file size (in bytes)
+     */
+    public void setMaxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Sets the period for which a file, once validated, is served from the
+     * cache without examining it again. Changes made to a file within this
+     * period of its last validation may not be seen until it expires.
+     * The default is 0: files are validated on every load
+     *
+     * @param revalidationInterval  The interval (in milliseconds)
+     */
+    public void setRevalidationInterval(long revalidationInterval) {
+        this.revalidationInterval = revalidationInterval;
+    }
+
+    /**
+     * Provides the content of a file - from the cache if it holds the
+     * current content of the file
+     *
+     * @param file  The file to provide
+     * @return A buffer over the file content, which may be read
+     *         independently of other users
+     */
+    public IoBuffer loadFile(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        CachedFile cached = cache.peek(key);
+        if (cached != null && isValid(cached, file)) {
+            cache.recordHit();
+            return cached.content.duplicate();
+        }
+        cache.recordMiss();
+
+        // Snapshot before loading: a change during the load is seen later
+        long lastModified = file.lastModified();
+        long length = file.length();
+        IoBuffer content = loader.loadFile(file);
+        if (length > maxFileSize || content.remaining() != length) {
+            if (cached != null) {
+                cache.remove(key);
+            }
+            return content;
+        }
+
+        IoBuffer direct = IoBuffer.allocate(content.remaining(), true);
+        direct.put(content.duplicate());
+        direct.flip();
+        cache.put(key, new CachedFile(direct, lastModified, length,
+                System.currentTimeMillis()));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Cached file " + key + " (" + length + " bytes)");
+        }
+        return direct.duplicate();
+    }
+
+    /**
+     * Discards all cached files
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return The number of loads served from the cache
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return The number of loads which were not served from the cache
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * @return The number of bytes of file content currently held
+     */
+    public long getSize() {
+        return cache.getWeight();
+    }
+
+    /**
+     * Determines whether a cached file may be served: whether it was
+     * validated within our revalidation interval, or matches the state of
+     * the file reported by the caller
+     */
+    private boolean isValid(CachedFile cached, File file) {
+        long interval = revalidationInterval;
+        if (interval <= 0) {
+            return isCurrent(cached, file);
+        }
+        long now = System.currentTimeMillis();
+        if (now - cached.validated < interval) {
+            return true;
+        }
+        if (!isCurrent(cached, file)) {
+            return false;
+        }
+        cached.validated = now;
+        return true;
+    }
+
+    /**
+     * Determines whether a cached file matches the state of the file
+     * reported by the caller
+     */
+    private static boolean isCurrent(CachedFile cached, File file) {
+        return file.lastModified() == cached.lastModified
+                && file.length() == cached.length;
+    }
+
+    /**
+     * The content of a file, and the state of the file when it was loaded
+     */
+    private static class CachedFile {
+
+        private final IoBuffer content;
+
+        private final long lastModified;
+
+        private final long length;
+
+        /**
+         * When the file was last found to match this state
+         */
+        private volatile long validated;
+
+        CachedFile(IoBuffer content, long lastModified, long length,
+                long validated) {
+            this.content = content;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.validated = validated;
+        }
+    }
+}
@@ -24,28 +24,162 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A file loader, mammping files to memory, supposed to be efficient 
  * on relativly large files.
+ * <p>
+ * Each file is mapped once, and the mapping is shared: every load returns
+ * an independent view of it. The file is closed as soon as it has been
+ * mapped. A mapping is replaced as soon as the <code>File</code> it is
+ * requested through reports a different modification time or length, so
+ * callers never receive content older than the validators they derive
+ * from that <code>File</code>.
+ * </p>
+ * <p>
+ * The total size of retained mappings is capped: the least recently used
+ * mappings are dropped to make room for new ones, and files larger than the
+ * cap are mapped for a single use. Dropped mappings are unmapped once the
+ * views handed out for them have been garbage collected.
+ * </p>
  * 
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
 public class MmapFileLoader implements FileLoader {
-	
-	public IoBuffer loadFile(File file) throws IOException {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(MmapFileLoader.class);
+
+    /**
+     * The default cap on retained mappings - 512MB
+     */
+    private static final long DEFAULT_MAX_MAPPED_BYTES = 512 * 1024 * 1024;
+
+    private final Map<String, MappedFile> mappings = new LinkedHashMap<String, MappedFile>(
+            16, 0.75f, true);
+
+    private long maxMappedBytes = DEFAULT_MAX_MAPPED_BYTES;
+
+    private long mappedBytes;
+
+    /**
+     * Sets the cap on the total size of retained mappings.
+     * The default is 512MB
+     *
+     * @param maxMappedBytes  The cap (in bytes)
+     */
+    public synchronized void setMaxMappedBytes(long maxMappedBytes) {
+        this.maxMappedBytes = maxMappedBytes;
+        evict();
+    }
+
+    /**
+     * @return The total size of retained mappings (in bytes)
+     */
+    public synchronized long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    public IoBuffer loadFile(File file) throws IOException {
+        String key = file.getAbsolutePath();
+        MappedFile mapped;
+        synchronized (this) {
+            mapped = mappings.get(key);
+        }
+        if (mapped != null && isCurrent(mapped, file)) {
+            return IoBuffer.wrap(mapped.buffer.duplicate());
+        }
+
+        mapped = map(file);
+        synchronized (this) {
+            MappedFile replaced = mappings.remove(key);
+            if (replaced != null) {
+                mappedBytes -= replaced.length;
+            }
+            if (mapped.length <= maxMappedBytes) {
+                mappings.put(key, mapped);
+                mappedBytes += mapped.length;
+                evict();
+            }
+        }
+        return IoBuffer.wrap(mapped.buffer.duplicate());
+    }
+
+    /**
+     * Discards all retained mappings
+     */
+    public synchronized void clear() {
+        mappings.clear();
+        mappedBytes = 0;
+    }
+
+    /**
+     * Maps the whole of a file, closing it once mapped
+     */
+    private static MappedFile map(File file) throws IOException {
+        long lastModified = file.lastModified();
         RandomAccessFile raf = new RandomAccessFile(file, "r");
-        
-        FileChannel fc = raf.getChannel();
-        
-        MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
-        
-        // it's mmaped we can close the file descriptor
-        fc.close();
-        
-        // the mapped byte buffer will be garbage collected
-        return IoBuffer.wrap(buffer);
-	}
-}
\ No newline at end of file
+        try {
+            FileChannel fc = raf.getChannel();
+            long size = fc.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File " + file
+                        + " is too big to be mapped");
+            }
+            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY,
+                    0, size);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Mapped " + file + " (" + size + " bytes)");
+            }
+            return new MappedFile(buffer, lastModified, size);
+        } finally {
+            // the mapping remains valid once the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Determines whether a mapping matches the state of the file reported
+     * by the caller
+     */
+    private static boolean isCurrent(MappedFile mapped, File file) {
+        return file.lastModified() == mapped.lastModified
+                && file.length() == mapped.length;
+    }
+
+    /**
+     * Drops the least recently used mappings until we are within our cap
+     */
+    private void evict() {
+        Iterator<MappedFile> eldest = mappings.values().iterator();
+        while (mappedBytes > maxMappedBytes && eldest.hasNext()) {
+            mappedBytes -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * A mapping of a file, and the state of the file when it was mapped
+     */
+    private static class MappedFile {
+
+        private final MappedByteBuffer buffer;
+
+        private final long lastModified;
+
+        private final long length;
+
+        MappedFile(MappedByteBuffer buffer, long lastModified, long length) {
+            this.buffer = buffer;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.fileservice.index;
+
+import java.io.File;
+
+import org.apache.asyncweb.server.util.SegmentedLruCache;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A directory index generator which caches the pages rendered by another
+ * generator.
+ * <p>
+ * Each page is held with the modification time its directory had when the
+ * page was rendered. Adding, removing or renaming an entry changes this
+ * time, so a cached page is served only while the time is unchanged - which
+ * costs a single file system check per request. Changes to the size or
+ * modification time of existing entries do not affect their directory, so
+ * pages are also rendered again once they reach their time to live.
+ * </p>
+ * <p>
+ * As modification times may have a resolution as coarse as a second, pages
+ * of directories modified within the last second are not cached.
+ * </p>
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class CachingDirectoryIndexGenerator implements DirectoryIndexGenerator {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CachingDirectoryIndexGenerator.class);
+
+    /**
+     * The default maximum number of cached pages
+     */
+    private static final int DEFAULT_MAX_DIRECTORIES = 256;
+
+    /**
+     * The default time to live of a cached page - 10 seconds
+     */
+    private static final long DEFAULT_TIME_TO_LIVE = 10000;
+
+    /**
+     * The resolution assumed for directory modification times
+     */
+    private static final long MODIFICATION_RESOLUTION = 1000;
+
+    private final DirectoryIndexGenerator generator;
+
+    private final SegmentedLruCache<String, CachedIndex> pages;
+
+    private long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    /**
+     * Constructs a cache of pages rendered by a
+     * <code>DefaultDirectoryIndexGenerator</code>
+     */
+    public CachingDirectoryIndexGenerator() {
+        this(new DefaultDirectoryIndexGenerator());
+    }
+
+    /**
+     * Constructs with the default maximum number of pages
+     *
+     * @param generator  The generator of pages which are not cached
+     */
+    public CachingDirectoryIndexGenerator(DirectoryIndexGenerator generator) {
+        this(generator, DEFAULT_MAX_DIRECTORIES);
+    }
+
+    /**
+     * Constructs with a specified maximum number of pages
+     *
+     * @param generator       The generator of pages which are not cached
+     * @param maxDirectories  The maximum number of pages held. The least
+     *                        recently used pages are evicted beyond this
+     */
+    public CachingDirectoryIndexGenerator(DirectoryIndexGenerator generator,
+            int maxDirectories) {
+        this.generator = generator;
+        this.pages = new SegmentedLruCache<String, CachedIndex>(maxDirectories);
+    }
+
+    /**
+     * Sets the time after which a cached page is rendered again even though
+     * its directory is unchanged. The default is 10 seconds
+     *
+     * @param timeToLive  The time to live (in ms)
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Provides the index page of a directory - from the cache if its
+     * directory is unchanged.
+     * As with other generators, the page is written into the returned buffer,
+     * which must be flipped before it is read
+     */
+    public IoBuffer generateIndex(File directory) {
+        String key = directory.getAbsolutePath();
+        CachedIndex cached = pages.peek(key);
+        long now = System.currentTimeMillis();
+        long lastModified = directory.lastModified();
+        if (cached != null && cached.lastModified == lastModified
+                && now - cached.rendered < timeToLive) {
+            pages.recordHit();
+            IoBuffer page = cached.page.duplicate();
+            page.position(page.limit());
+            return page;
+        }
+        pages.recordMiss();
+
+        IoBuffer page = generator.generateIndex(directory);
+        if (now - lastModified < MODIFICATION_RESOLUTION) {
+            pages.remove(key);
+            return page;
+        }
+
+        IoBuffer copy = IoBuffer.allocate(page.position());
+        copy.put(page.duplicate().flip());
+        copy.flip();
+        pages.put(key, new CachedIndex(copy.asReadOnlyBuffer(), lastModified,
+                now));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Cached index of " + key);
+        }
+        return page;
+    }
+
+    /**
+     * Discards all cached pages
+     */
+    public void clear() {
+        pages.clear();
+    }
+
+    /**
+     * @return The number of pages served from the cache
+     */
+    public long getHitCount() {
+        return pages.getHitCount();
+    }
+
+    /**
+     * @return The number of pages which were not served from the cache
+     */
+    public long getMissCount() {
+        return pages.getMissCount();
+    }
+
+    /**
+     * A rendered page, and the state of its directory when it was rendered
+     */
+    private static class CachedIndex {
+
+        private final IoBuffer page;
+
+        private final long lastModified;
+
+        private final long rendered;
+
+        CachedIndex(IoBuffer page, long lastModified, long rendered) {
+            this.page = page;
+            this.lastModified = lastModified;
+            this.rendered = rendered;
+        }
+    }
+}
@@ -67,17 +67,18 @@ public class DefaultDirectoryIndexGenerator implements DirectoryIndexGenerator {
         html.append("</a></td><td>DIR</td><td></td><td></td></tr>\n");
 
         for (File file : files) {
+            boolean isDirectory = file.isDirectory();
             html.append("<tr><td><a href=\"").append(file.getName());
-            if (file.isDirectory()) {
+            if (isDirectory) {
                 html.append("/");
             }
             html.append("\">");
             html.append(file.getName());
-            if (file.isDirectory()) {
+            if (isDirectory) {
                 html.append("/");
             }
             html.append("</a></td><td>");
-            html.append(getType(file));
+            html.append(getType(file, isDirectory));
             html.append("</td><td>");
             html.append(file.length());
             html.append("</td><td>");
@@ -100,8 +101,8 @@ public class DefaultDirectoryIndexGenerator implements DirectoryIndexGenerator {
         return out;
     }
 
-    private String getType(File file) {
-        if (file.isDirectory()) {
+    private String getType(File file, boolean isDirectory) {
+        if (isDirectory) {
             return "DIR";
         }
         
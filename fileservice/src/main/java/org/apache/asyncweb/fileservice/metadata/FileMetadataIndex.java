@@ -0,0 +1,435 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.fileservice.metadata;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.asyncweb.server.util.SegmentedLruCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory index of file metadata - existence, type, length and
+ * modification time - which lets files be served without querying the
+ * file system on each request.
+ * <p>
+ * Files are added to the index as they are first resolved, and are
+ * presented as <code>File</code>s answering metadata queries from the
+ * index. While started, a background refresher checks every indexed
+ * existing file against the file system once per refresh interval, so
+ * changes are seen within about one interval. When the index is not
+ * started, an indexed file is checked again on access once it is older than
+ * the refresh interval.
+ * </p>
+ * <p>
+ * Each background refresh stats every indexed file, so its cost grows with
+ * the size of the index: with the defaults, up to 10,000 files are checked
+ * every 30 seconds. Larger indexes should use a longer refresh interval,
+ * unless changes must be seen promptly.
+ * </p>
+ * <p>
+ * Files which do not exist are recorded too, so repeated requests for them
+ * are answered from memory. They are held apart from existing files, under
+ * their own (smaller) bound, so requests for many missing files can not
+ * evict files which are being served. Missing files are not checked in the
+ * background: they are checked again on access once older than the refresh
+ * interval, and are discarded on each refresh.
+ * </p>
+ * <p>
+ * The index is bounded, and evicts its least recently used files beyond its
+ * maximum size (see {@link SegmentedLruCache}).
+ * </p>
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class FileMetadataIndex {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(FileMetadataIndex.class);
+
+    /**
+     * The default maximum number of indexed files
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * The share of the maximum number of indexed files which may be missing
+     * files, by default
+     */
+    private static final int MISSING_ENTRIES_DIVISOR = 10;
+
+    /**
+     * The default refresh interval - 30 seconds
+     */
+    private static final long DEFAULT_REFRESH_INTERVAL = 30000;
+
+    /**
+     * The smallest default maximum number of missing files
+     */
+    private static final int MIN_MISSING_ENTRIES = 16;
+
+    /**
+     * Existing files. Resolutions from the index are counted here
+     */
+    private final SegmentedLruCache<String, IndexEntry> files;
+
+    private final SegmentedLruCache<String, Metadata> missing;
+
+    private volatile long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    private final Object refresherLock = new Object();
+
+    private boolean isRefresherStopped = true;
+
+    /**
+     * Incremented each time we are started, so a refresher left over from an
+     * earlier start stops. Guarded by <code>refresherLock</code>
+     */
+    private int generation;
+
+    private volatile boolean isRefreshing;
+
+    /**
+     * Constructs with the default maximum number of indexed files
+     */
+    public FileMetadataIndex() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Constructs with a specified maximum number of indexed files, of which
+     * up to a tenth may be missing files
+     *
+     * @param maxEntries  The maximum number of existing files indexed
+     */
+    public FileMetadataIndex(int maxEntries) {
+        this(maxEntries, Math.max(MIN_MISSING_ENTRIES, maxEntries
+                / MISSING_ENTRIES_DIVISOR));
+    }
+
+    /**
+     * Constructs with specified maximum numbers of existing and missing
+     * files
+     *
+     * @param maxEntries         The maximum number of existing files indexed
+     * @param maxMissingEntries  The maximum number of missing files recorded
+     */
+    public FileMetadataIndex(int maxEntries, int maxMissingEntries) {
+        files = new SegmentedLruCache<String, IndexEntry>(maxEntries);
+        missing = new SegmentedLruCache<String, Metadata>(maxMissingEntries);
+    }
+
+    /**
+     * Sets the interval between checks of the indexed files. Each check of
+     * a started index stats every indexed file.
+     * The default is 30 seconds
+     *
+     * @param refreshInterval  The interval (in ms)
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * Starts refreshing the index in the background. Interrupting the
+     * refresher thread stops it, as {@link #stop()} does
+     */
+    public void start() {
+        int refresherGeneration;
+        synchronized (refresherLock) {
+            if (!isRefresherStopped) {
+                return;
+            }
+            isRefresherStopped = false;
+            isRefreshing = true;
+            refresherGeneration = ++generation;
+        }
+        Thread refresher = new Thread(new Refresher(refresherGeneration),
+                "FileMetadataIndex");
+        refresher.setDaemon(true);
+        refresher.start();
+    }
+
+    /**
+     * Stops refreshing the index in the background
+     */
+    public void stop() {
+        synchronized (refresherLock) {
+            isRefresherStopped = true;
+            isRefreshing = false;
+            refresherLock.notifyAll();
+        }
+    }
+
+    /**
+     * Resolves a file against the index
+     *
+     * @param file  The file
+     * @return A file at the same path, whose <code>exists</code>,
+     *         <code>isDirectory</code>, <code>isFile</code>,
+     *         <code>length</code> and <code>lastModified</code> methods are
+     *         answered from the index
+     */
+    public File resolve(File file) {
+        String key = file.getAbsolutePath();
+        IndexEntry entry = files.peek(key);
+        Metadata absent = entry == null ? missing.peek(key) : null;
+        long now = System.currentTimeMillis();
+        if (entry != null) {
+            Metadata metadata = entry.metadata;
+            if (isRefreshing || now - metadata.checked < refreshInterval) {
+                files.recordHit();
+                return new IndexedFile(key, metadata);
+            }
+        } else if (absent != null && now - absent.checked < refreshInterval) {
+            files.recordHit();
+            return new IndexedFile(key, absent);
+        }
+        files.recordMiss();
+
+        Metadata metadata = new Metadata(new File(key), now);
+        if (entry != null && metadata.exists) {
+            entry.metadata = metadata;
+        } else {
+            add(key, metadata);
+        }
+        return new IndexedFile(key, metadata);
+    }
+
+    /**
+     * Checks every indexed existing file against the file system, and
+     * discards the missing files recorded, so they are checked when next
+     * resolved.
+     * The file system is queried without holding any lock, so requests
+     * are not held up by slow file systems
+     */
+    public void refresh() {
+        int changed = 0;
+        missing.clear();
+        for (Map.Entry<String, IndexEntry> indexed : files.snapshot()
+                .entrySet()) {
+            String key = indexed.getKey();
+            IndexEntry entry = indexed.getValue();
+            Metadata metadata = new Metadata(new File(key), System
+                    .currentTimeMillis());
+            if (!metadata.isSameAs(entry.metadata)) {
+                ++changed;
+            }
+            if (metadata.exists) {
+                entry.metadata = metadata;
+            } else {
+                add(key, metadata);
+            }
+        }
+        if (changed > 0 && LOG.isDebugEnabled()) {
+            LOG.debug("Refreshed index: " + changed + " files changed");
+        }
+    }
+
+    /**
+     * Discards all indexed files
+     */
+    public void clear() {
+        files.clear();
+        missing.clear();
+    }
+
+    /**
+     * @return The number of files resolved from the index
+     */
+    public long getHitCount() {
+        return files.getHitCount();
+    }
+
+    /**
+     * @return The number of files resolved from the file system
+     */
+    public long getMissCount() {
+        return files.getMissCount();
+    }
+
+    /**
+     * @return The number of indexed files - existing or missing
+     */
+    public int getSize() {
+        return files.size() + missing.size();
+    }
+
+    /**
+     * @return The number of missing files recorded
+     */
+    public int getMissingSize() {
+        return missing.size();
+    }
+
+    /**
+     * Records freshly read metadata of a file, as an existing or a missing
+     * file
+     */
+    private void add(String key, Metadata metadata) {
+        if (metadata.exists) {
+            missing.remove(key);
+            files.put(key, new IndexEntry(metadata));
+        } else {
+            files.remove(key);
+            missing.put(key, metadata);
+        }
+    }
+
+    /**
+     * The metadata of a file, and when it was read
+     */
+    private static class Metadata {
+
+        private final boolean exists;
+
+        private final boolean directory;
+
+        private final long length;
+
+        private final long lastModified;
+
+        private final long checked;
+
+        Metadata(File file, long checked) {
+            this.lastModified = file.lastModified();
+            this.exists = lastModified != 0 || file.exists();
+            this.directory = exists && file.isDirectory();
+            this.length = exists && !directory ? file.length() : 0;
+            this.checked = checked;
+        }
+
+        boolean isSameAs(Metadata other) {
+            return exists == other.exists && directory == other.directory
+                    && length == other.length
+                    && lastModified == other.lastModified;
+        }
+    }
+
+    /**
+     * The current metadata of an indexed file
+     */
+    private static class IndexEntry {
+
+        private volatile Metadata metadata;
+
+        IndexEntry(Metadata metadata) {
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * A file whose metadata is taken from the index, as it was when the file
+     * was resolved
+     */
+    private static class IndexedFile extends File {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Metadata metadata;
+
+        IndexedFile(String path, Metadata metadata) {
+            super(path);
+            this.metadata = metadata;
+        }
+
+        @Override
+        public boolean exists() {
+            return metadata.exists;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return metadata.directory;
+        }
+
+        @Override
+        public boolean isFile() {
+            return metadata.exists && !metadata.directory;
+        }
+
+        @Override
+        public long length() {
+            return metadata.length;
+        }
+
+        @Override
+        public long lastModified() {
+            return metadata.lastModified;
+        }
+    }
+
+    /**
+     * Refreshes the index once per interval until stopped, or until we are
+     * started again
+     */
+    private class Refresher implements Runnable {
+
+        private final int refresherGeneration;
+
+        Refresher(int refresherGeneration) {
+            this.refresherGeneration = refresherGeneration;
+        }
+
+        public void run() {
+            while (awaitInterval()) {
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to refresh file metadata", e);
+                }
+            }
+            LOG.debug("Refresher stopped");
+        }
+
+        /**
+         * @return <code>false</code> if we are stopped while waiting
+         */
+        private boolean awaitInterval() {
+            synchronized (refresherLock) {
+                long deadline = System.currentTimeMillis() + refreshInterval;
+                long now = System.currentTimeMillis();
+                while (isCurrent() && now < deadline) {
+                    try {
+                        refresherLock.wait(deadline - now);
+                    } catch (InterruptedException e) {
+                        // Treated as a stop, so files are checked on access
+                        if (isCurrent()) {
+                            isRefresherStopped = true;
+                            isRefreshing = false;
+                        }
+                        return false;
+                    }
+                    now = System.currentTimeMillis();
+                }
+                return isCurrent();
+            }
+        }
+
+        /**
+         * @return <code>true</code> if we have not been stopped or
+         *         superseded. Must be invoked holding the refresher lock
+         */
+        private boolean isCurrent() {
+            return !isRefresherStopped && generation == refresherGeneration;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.fileservice.range;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An inclusive range of bytes within a file, as requested by a
+ * <code>Range</code> header.
+ *
+ * @author The Apache MINA Project (dev@mina.apache.org)
+ */
+public class ByteRange {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private static final Comparator<ByteRange> BY_FIRST = new Comparator<ByteRange>() {
+        public int compare(ByteRange a, ByteRange b) {
+            return a.first < b.first ? -1 : (a.first == b.first ? 0 : 1);
+        }
+    };
+
+    private final long first;
+
+    private final long last;
+
+    /**
+     * @param first  The offset of the first byte in the range
+     * @param last   The offset of the last byte in the range
+     */
+    public ByteRange(long first, long last) {
+        if (first < 0 || last < first) {
+            throw new IllegalArgumentException("Invalid range: " + first
+                    + "-" + last);
+        }
+        this.first = first;
+        this.last = last;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    /**
+     * @return The number of bytes in this range
+     */
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * Formats this range as the value of a <code>Content-Range</code> header
+     *
+     * @param length  The full length of the file
+     * @return The header value
+     */
+    public String toContentRange(long length) {
+        return "bytes " + first + "-" + last + "/" + length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof ByteRange)) {
+            return false;
+        }
+        ByteRange other = (ByteRange) o;
+        return first == other.first && last == other.last;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (first ^ (first >>> 32)) * 31
+                + (int) (last ^ (last >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return first + "-" + last;
+    }
+
+    /**
+     * Parses the value of a <code>Range</code> header against a file of a
+     * specified length.
+     * Ranges which can not be satisfied are dropped, the remainder are
+     * clipped to the file, and overlapping or adjacent ranges are coalesced.
+     *
+     * @param header     The header value
+     * @param length     The length of the file
+     * @param maxRanges  The maximum number of ranges accepted
+     * @return The satisfiable ranges, in order - which is empty if there
+     *         are none. <code>null</code> is returned if the header is
+     *         malformed, does not specify byte ranges, or specifies more than
+     *         the maximum number of ranges: it should then be ignored
+     */
+    public static List<ByteRange> parse(String header, long length,
+            int maxRanges) {
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<ByteRange>();
+        int specCount = 0;
+        for (String element : value.substring(BYTES_UNIT.length()).split(",")) {
+            String spec = element.trim();
+            if (spec.length() == 0) {
+                continue;
+            }
+            if (++specCount > maxRanges) {
+                return null;
+            }
+            int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+            long first = parseOffset(spec.substring(0, dash).trim());
+            long last = parseOffset(spec.substring(dash + 1).trim());
+            if (dash == 0) {
+                // A suffix: the final bytes of the file
+                if (last < 0) {
+                    return null;
+                }
+                if (last > 0 && length > 0) {
+                    ranges.add(new ByteRange(Math.max(0, length - last),
+                            length - 1));
+                }
+                continue;
+            }
+            if (first < 0 || (dash < spec.length() - 1 && last < first)) {
+                return null;
+            }
+            if (first < length) {
+                last = last < 0 ? length - 1 : Math.min(last, length - 1);
+                ranges.add(new ByteRange(first, last));
+            }
+        }
+        if (specCount == 0) {
+            return null;
+        }
+        return coalesce(ranges);
+    }
+
+    /**
+     * Merges overlapping and adjacent ranges
+     */
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) {
+            return ranges;
+        }
+        Collections.sort(ranges, BY_FIRST);
+        List<ByteRange> merged = new ArrayList<ByteRange>(ranges.size());
+        ByteRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); ++i) {
+            ByteRange next = ranges.get(i);
+            if (next.first <= current.last + 1) {
+                current = new ByteRange(current.first, Math.max(current.last,
+                        next.last));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+
+    /**
+     * Parses a decimal offset
+     *
+     * @return The offset, or <code>-1</code> if the value is empty or not
+     *         a decimal number
+     */
+    private static long parseOffset(String value) {
+        int length = value.length();
+        if (length == 0) {
+            return -1;
+        }
+        for (int i = 0; i < length; ++i) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+        }
+        // Offsets too large for a long are beyond any file
+        return length > 18 ? Long.MAX_VALUE : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.fileservice;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import org.apache.asyncweb.common.DefaultHttpRequest;
+import org.apache.asyncweb.common.DefaultHttpResponse;
+import org.apache.asyncweb.common.FileContentResponse;
+import org.apache.asyncweb.common.HttpHeaderConstants;
+import org.apache.asyncweb.common.HttpRequest;
+import org.apache.asyncweb.common.HttpResponse;
+import org.apache.asyncweb.common.HttpResponseStatus;
+import org.apache.asyncweb.common.MutableHttpRequest;
+import org.apache.asyncweb.common.MutableHttpResponse;
+import org.apache.asyncweb.common.codec.DateUtil;
+import org.apache.asyncweb.fileservice.metadata.FileMetadataIndex;
+import org.apache.asyncweb.server.HttpClientListener;
+import org.apache.asyncweb.server.HttpServiceContext;
+import org.apache.asyncweb.server.HttpServiceFilter.NextFilter;
+import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.filter.GZipFilter;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.FileRegion;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileHttpServiceTest {
+
+    private File root;
+
+    private FileHttpService service;
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("files", null);
+        root.delete();
+        root.mkdir();
+        service = new FileHttpService("/", root.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        delete(root);
+    }
+
+    @Test
+    public void testServeFile() throws Exception {
+        write("app.js", "plain");
+        HttpResponse response = get("/app.js", null);
+        assertEquals(HttpResponseStatus.OK, response.getStatus());
+        assertEquals("plain", content(response));
+        assertNotNull(response.getHeader(HttpHeaderConstants.KEY_ETAG));
+        assertNull(get("/missing.js", null).getHeader(
+                HttpHeaderConstants.KEY_ETAG));
+    }
+
+    @Test
+    public void testIndexFile() throws Exception {
+        File directory = new File(root, "docs");
+        directory.mkdir();
+        long past = System.currentTimeMillis() - 60000;
+        directory.setLastModified(past);
+        assertTrue(content(get("/docs/", null)).contains("<html>"));
+
+        write("docs/index.html", "index");
+        directory.setLastModified(past + 10000);
+        assertEquals("index", content(get("/docs/", null)));
+        assertEquals("index", content(get("/docs/", null)));
+
+        new File(directory, "index.html").delete();
+        directory.setLastModified(past + 20000);
+        assertTrue(content(get("/docs/", null)).contains("<html>"));
+    }
+
+    @Test
+    public void testMetadataIndex() throws Exception {
+        FileMetadataIndex index = new FileMetadataIndex();
+        index.setRefreshInterval(60000);
+        service.setMetadataIndex(index);
+        assertEquals(HttpResponseStatus.NOT_FOUND, get("/late.txt", null)
+                .getStatus());
+
+        // the index still records the file as missing
+        write("late.txt", "late");
+        assertEquals(HttpResponseStatus.NOT_FOUND, get("/late.txt", null)
+                .getStatus());
+
+        index.refresh();
+        assertEquals("late", content(get("/late.txt", null)));
+        assertTrue(index.getHitCount() > 0);
+    }
+
+    @Test
+    public void testFileRegion() throws Exception {
+        write("large.bin", "0123456789");
+        service.setFileRegionThreshold(10);
+        HttpResponse response = get("/large.bin", null);
+        FileRegion region = fileContent(response);
+        assertNotNull(region);
+        assertEquals(0, response.getContent().remaining());
+        assertEquals(10, region.getRemainingBytes());
+        ByteBuffer buf = ByteBuffer.allocate(10);
+        region.getFileChannel().read(buf, region.getPosition());
+        assertEquals("0123456789", new String(buf.array(), "US-ASCII"));
+        region.getFileChannel().close();
+
+        service.setFileRegionThreshold(11);
+        assertNull(fileContent(get("/large.bin", null)));
+    }
+
+    @Test
+    public void testCompressibleFileLoaded() throws Exception {
+        write("large.txt", "0123456789");
+        service.setFileRegionThreshold(10);
+        assertRegion(get("/large.txt", "gzip"));
+
+        service.setCompressionFilter(new GZipFilter());
+        HttpResponse response = get("/large.txt", "gzip");
+        assertNull(fileContent(response));
+        assertEquals("0123456789", content(response));
+
+        assertRegion(get("/large.txt", null));
+        service.setMaxCompressibleSize(9);
+        assertRegion(get("/large.txt", "gzip"));
+        service.setMaxCompressibleSize(10);
+        service.setCompressionFilter(null);
+        assertRegion(get("/large.txt", "gzip"));
+    }
+
+    @Test
+    public void testPrecompressedSibling() throws Exception {
+        write("app.js", "plain");
+        write("app.js.gz", "compressed");
+        assertEquals("plain", content(get("/app.js", "gzip")));
+
+        service.setServePrecompressed(true);
+        HttpResponse response = get("/app.js", "gzip, deflate");
+        assertEquals("compressed", content(response));
+        assertEquals("gzip", response
+                .getHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING));
+        assertEquals(HttpHeaderConstants.KEY_ACCEPT_ENCODING, response
+                .getHeader(HttpHeaderConstants.KEY_VARY));
+        assertTrue(response.getHeader(HttpHeaderConstants.KEY_ETAG).endsWith(
+                "-gzip\""));
+        assertEquals(get("/app.js", null).getContentType(), response
+                .getContentType());
+
+        response = get("/app.js", "gzip;q=0");
+        assertEquals("plain", content(response));
+        assertNull(response.getHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING));
+        assertEquals(HttpHeaderConstants.KEY_ACCEPT_ENCODING, response
+                .getHeader(HttpHeaderConstants.KEY_VARY));
+    }
+
+    @Test
+    public void testStalePrecompressedSibling() throws Exception {
+        service.setServePrecompressed(true);
+        File original = write("app.js", "plain");
+        File sibling = write("app.js.gz", "compressed");
+        sibling.setLastModified(original.lastModified() - 10000);
+        assertEquals("plain", content(get("/app.js", "gzip")));
+    }
+
+    @Test
+    public void testSingleRange() throws Exception {
+        write("data.txt", "0123456789");
+        HttpResponse response = range("/data.txt", "bytes=2-4", null);
+        assertEquals(HttpResponseStatus.PARTIAL_CONTENT, response.getStatus());
+        assertEquals("234", content(response));
+        assertEquals("bytes 2-4/10", response
+                .getHeader(HttpHeaderConstants.KEY_CONTENT_RANGE));
+        assertEquals("bytes", response
+                .getHeader(HttpHeaderConstants.KEY_ACCEPT_RANGES));
+
+        assertEquals("789", content(range("/data.txt", "bytes=-3", null)));
+        assertEquals("89", content(range("/data.txt", "bytes=8-", null)));
+        assertEquals("0123456789", content(range("/data.txt", "bytes=-30",
+                null)));
+    }
+
+    @Test
+    public void testRangeRegion() throws Exception {
+        write("data.txt", "0123456789");
+        service.setFileRegionThreshold(0);
+        HttpResponse response = range("/data.txt", "bytes=3-5", null);
+        assertEquals(HttpResponseStatus.PARTIAL_CONTENT, response.getStatus());
+        FileRegion region = fileContent(response);
+        assertEquals(3, region.getPosition());
+        assertEquals(3, region.getRemainingBytes());
+        region.getFileChannel().close();
+    }
+
+    @Test
+    public void testUnsatisfiableRange() throws Exception {
+        write("data.txt", "0123456789");
+        HttpResponse response = range("/data.txt", "bytes=10-20", null);
+        assertEquals(HttpResponseStatus.REQUEST_RANGE_NOT_SATISFIABLE,
+                response.getStatus());
+        assertEquals("bytes */10", response
+                .getHeader(HttpHeaderConstants.KEY_CONTENT_RANGE));
+        assertEquals(0, response.getContent().remaining());
+
+        // malformed ranges are ignored
+        response = range("/data.txt", "bytes=a-b", null);
+        assertEquals(HttpResponseStatus.OK, response.getStatus());
+        assertEquals("0123456789", content(response));
+    }
+
+    @Test
+    public void testIfRange() throws Exception {
+        write("data.txt", "0123456789");
+        String etag = get("/data.txt", null).getHeader(
+                HttpHeaderConstants.KEY_ETAG);
+        assertEquals("234", content(range("/data.txt", "bytes=2-4", etag)));
+        assertEquals("0123456789", content(range("/data.txt", "bytes=2-4",
+                "\"other\"")));
+        assertEquals("0123456789", content(range("/data.txt", "bytes=2-4",
+                "W/" + etag)));
+
+        long lastModified = new File(root, "data.txt").lastModified();
+        assertEquals("234", content(range("/data.txt", "bytes=2-4", DateUtil
+                .formatDate(new Date(lastModified)))));
+        assertEquals("0123456789", content(range("/data.txt", "bytes=2-4",
+                DateUtil.formatDate(new Date(lastModified - 10000)))));
+    }
+
+    @Test
+    public void testMultipleRanges() throws Exception {
+        write("data.txt", "0123456789");
+        HttpResponse response = range("/data.txt", "bytes=6-7,0-1", null);
+        assertEquals(HttpResponseStatus.PARTIAL_CONTENT, response.getStatus());
+        String type = response.getContentType();
+        assertTrue(type.startsWith("multipart/byteranges; boundary="));
+        String boundary = type.substring(type.indexOf('=') + 1);
+        String expected = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 0-1/10\r\n\r\n01"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Range: bytes 6-7/10\r\n\r\n67"
+                + "\r\n--" + boundary + "--\r\n";
+        assertEquals(expected, content(response));
+
+        service.setFileRegionThreshold(0);
+        assertEquals(expected.replace(boundary, "x"), content(
+                range("/data.txt", "bytes=6-7,0-1", null)).replaceAll(
+                "--[0-9a-f]+", "--x"));
+
+        service.setMaxMultipartBytes(3);
+        assertEquals(HttpResponseStatus.OK, range("/data.txt",
+                "bytes=6-7,0-1", null).getStatus());
+    }
+
+    @Test
+    public void testIfNoneMatch() throws Exception {
+        write("data.txt", "0123456789");
+        HttpResponse response = get("/data.txt", null);
+        String etag = response.getHeader(HttpHeaderConstants.KEY_ETAG);
+        assertEquals("max-age=3600", response
+                .getHeader(HttpHeaderConstants.KEY_CACHE_CONTROL));
+        assertNotNull(response.getHeader(HttpHeaderConstants.KEY_LAST_MODIFIED));
+
+        response = conditional("/data.txt",
+                HttpHeaderConstants.KEY_IF_NONE_MATCH, etag);
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, response.getStatus());
+        assertEquals(etag, response.getHeader(HttpHeaderConstants.KEY_ETAG));
+        assertEquals(0, response.getContent().remaining());
+        assertNull(fileContent(response));
+
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, conditional("/data.txt",
+                HttpHeaderConstants.KEY_IF_NONE_MATCH, "\"a\", W/" + etag)
+                .getStatus());
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, conditional("/data.txt",
+                HttpHeaderConstants.KEY_IF_NONE_MATCH, "*").getStatus());
+        assertEquals(HttpResponseStatus.OK, conditional("/data.txt",
+                HttpHeaderConstants.KEY_IF_NONE_MATCH, "\"a\"").getStatus());
+    }
+
+    @Test
+    public void testIfModifiedSince() throws Exception {
+        long lastModified = write("data.txt", "0123456789").lastModified();
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, conditional("/data.txt",
+                HttpHeaderConstants.KEY_IF_MODIFIED_SINCE,
+                DateUtil.formatDate(new Date(lastModified))).getStatus());
+        assertEquals(HttpResponseStatus.OK, conditional("/data.txt",
+                HttpHeaderConstants.KEY_IF_MODIFIED_SINCE,
+                DateUtil.formatDate(new Date(lastModified - 10000))).getStatus());
+        assertEquals(HttpResponseStatus.OK, conditional("/data.txt",
+                HttpHeaderConstants.KEY_IF_MODIFIED_SINCE, "yesterday")
+                .getStatus());
+
+        // If-None-Match takes precedence
+        MutableHttpRequest request = request("/data.txt");
+        request.setHeader(HttpHeaderConstants.KEY_IF_MODIFIED_SINCE, DateUtil
+                .formatDate(new Date(lastModified)));
+        request.setHeader(HttpHeaderConstants.KEY_IF_NONE_MATCH, "\"a\"");
+        assertEquals(HttpResponseStatus.OK, serve(request).getStatus());
+
+        service.setCachingPolicy(null);
+        HttpResponse response = conditional("/data.txt",
+                HttpHeaderConstants.KEY_IF_MODIFIED_SINCE,
+                DateUtil.formatDate(new Date(lastModified)));
+        assertEquals(HttpResponseStatus.OK, response.getStatus());
+        assertEquals("no-cache", response
+                .getHeader(HttpHeaderConstants.KEY_CACHE_CONTROL));
+    }
+
+    @Test
+    public void testIfNoneMatchCompressed() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; ++i) {
+            text.append("line ").append(i).append('\n');
+        }
+        write("data.txt", text.toString());
+        GZipFilter filter = new GZipFilter();
+
+        MutableHttpRequest request = request("/data.txt");
+        request.setHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING, "gzip");
+        HttpResponse response = filter(filter, request);
+        assertEquals("gzip", response
+                .getHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING));
+        String etag = response.getHeader(HttpHeaderConstants.KEY_ETAG);
+        assertTrue(etag.endsWith("-gzip\""));
+
+        request = request("/data.txt");
+        request.setHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING, "gzip");
+        request.setHeader(HttpHeaderConstants.KEY_IF_NONE_MATCH, etag);
+        response = filter(filter, request);
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, response.getStatus());
+        assertEquals(etag, response.getHeader(HttpHeaderConstants.KEY_ETAG));
+
+        // an identity tag validates the identity representation only
+        String identity = get("/data.txt", null).getHeader(
+                HttpHeaderConstants.KEY_ETAG);
+        request = request("/data.txt");
+        request.setHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING, "gzip");
+        request.setHeader(HttpHeaderConstants.KEY_IF_NONE_MATCH, identity);
+        response = filter(filter, request);
+        assertEquals(HttpResponseStatus.NOT_MODIFIED, response.getStatus());
+        assertEquals(identity, response.getHeader(HttpHeaderConstants.KEY_ETAG));
+    }
+
+    /**
+     * Serves a request through a <code>GZipFilter</code>
+     */
+    private HttpResponse filter(final GZipFilter filter, HttpRequest request)
+            throws Exception {
+        final TestContext context = new TestContext(request);
+        filter.handleRequest(new NextFilter() {
+            public void invoke() {
+                try {
+                    service.handleRequest(context);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, context);
+        filter.handleResponse(new NextFilter() {
+            public void invoke() {
+            }
+        }, context);
+        return context.getCommittedResponse();
+    }
+
+    private static void assertRegion(HttpResponse response) throws IOException {
+        FileRegion region = fileContent(response);
+        assertNotNull(region);
+        region.getFileChannel().close();
+    }
+
+    private static FileRegion fileContent(HttpResponse response) {
+        return ((FileContentResponse) response).getFileContent();
+    }
+
+    private HttpResponse conditional(String path, String header, String value)
+            throws Exception {
+        MutableHttpRequest request = request(path);
+        request.setHeader(header, value);
+        return serve(request);
+    }
+
+    private HttpResponse range(String path, String range, String ifRange)
+            throws Exception {
+        MutableHttpRequest request = request(path);
+        request.setHeader(HttpHeaderConstants.KEY_RANGE, range);
+        if (ifRange != null) {
+            request.setHeader(HttpHeaderConstants.KEY_IF_RANGE, ifRange);
+        }
+        return serve(request);
+    }
+
+    private HttpResponse get(String path, String acceptEncoding)
+            throws Exception {
+        MutableHttpRequest request = request(path);
+        if (acceptEncoding != null) {
+            request.setHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING,
+                    acceptEncoding);
+        }
+        return serve(request);
+    }
+
+    private static MutableHttpRequest request(String path) throws Exception {
+        MutableHttpRequest request = new DefaultHttpRequest();
+        request.setRequestUri(new URI(path));
+        return request;
+    }
+
+    private HttpResponse serve(HttpRequest request) throws Exception {
+        TestContext context = new TestContext(request);
+        service.handleRequest(context);
+        return context.getCommittedResponse();
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(root, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("US-ASCII"));
+        out.close();
+        return file;
+    }
+
+    private static String content(HttpResponse response) throws Exception {
+        IoBuffer content = response.getContent().duplicate();
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        return new String(bytes, "US-ASCII");
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Records the response committed to it
+     */
+    private static class TestContext implements HttpServiceContext {
+
+        private final HttpRequest request;
+
+        private HttpResponse response;
+
+        TestContext(HttpRequest request) {
+            this.request = request;
+        }
+
+        public InetSocketAddress getRemoteAddress() {
+            return new InetSocketAddress("localhost", 0);
+        }
+
+        public InetSocketAddress getLocalAddress() {
+            return new InetSocketAddress("localhost", 0);
+        }
+
+        public HttpRequest getRequest() {
+            return request;
+        }
+
+        public boolean isResponseCommitted() {
+            return response != null;
+        }
+
+        public HttpResponse getCommittedResponse() {
+            return response;
+        }
+
+        public boolean commitResponse(HttpResponse response) {
+            if (this.response != null) {
+                return false;
+            }
+            this.response = response;
+            return true;
+        }
+
+        public boolean commitResponse(HttpResponseStatus status) {
+            MutableHttpResponse response = new DefaultHttpResponse();
+            response.setStatus(status);
+            return commitResponse(response);
+        }
+
+        public HttpSession getSession() {
+            return null;
+        }
+
+        public HttpSession getSession(boolean create) {
+            return null;
+        }
+
+        public boolean addClientListener(HttpClientListener listener) {
+            return false;
+        }
+
+        public boolean removeClientListener(HttpClientListener listener) {
+            return false;
+        }
+    }
+}
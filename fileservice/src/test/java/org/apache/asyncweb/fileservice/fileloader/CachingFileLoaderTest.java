@@ -0,0 +1,155 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.fileservice.fileloader;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingFileLoaderTest {
+
+    private File file;
+
+    private CountingFileLoader delegate;
+
+    private CachingFileLoader loader;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("cached", null);
+        write("first");
+        delegate = new CountingFileLoader();
+        loader = new CachingFileLoader(delegate, 1024);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testCachedInDirectBuffer() throws Exception {
+        IoBuffer first = loader.loadFile(file);
+        assertEquals("first", read(first));
+        IoBuffer second = loader.loadFile(file);
+        assertTrue(second.isDirect());
+        assertEquals("first", read(second));
+        assertEquals(1, delegate.count);
+        assertEquals(1, loader.getHitCount());
+        assertEquals(5, loader.getSize());
+    }
+
+    @Test
+    public void testRevalidation() throws Exception {
+        loader.loadFile(file);
+        loader.loadFile(file);
+        assertEquals(1, delegate.count);
+
+        write("changed");
+        assertEquals("changed", read(loader.loadFile(file)));
+        assertEquals(2, delegate.count);
+    }
+
+    @Test
+    public void testRevalidationInterval() throws Exception {
+        loader.setRevalidationInterval(60000);
+        loader.loadFile(file);
+        write("changed");
+        // validated within the interval
+        assertEquals("first", read(loader.loadFile(file)));
+        assertEquals(1, delegate.count);
+
+        loader.setRevalidationInterval(0);
+        assertEquals("changed", read(loader.loadFile(file)));
+        assertEquals(2, delegate.count);
+    }
+
+    @Test
+    public void testCallerSnapshot() throws Exception {
+        final long lastModified = file.lastModified();
+        File snapshot = new File(file.getPath()) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public long lastModified() {
+                return lastModified;
+            }
+
+            @Override
+            public long length() {
+                return 5;
+            }
+        };
+        loader.loadFile(snapshot);
+        write("changed");
+        // served as the caller last saw the file
+        assertEquals("first", read(loader.loadFile(snapshot)));
+        assertEquals(1, delegate.count);
+        assertEquals("changed", read(loader.loadFile(file)));
+        assertEquals(2, delegate.count);
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        loader.setMaxFileSize(4);
+        loader.loadFile(file);
+        loader.loadFile(file);
+        assertEquals(2, delegate.count);
+        assertEquals(0, loader.getSize());
+
+        loader.setMaxFileSize(1024);
+        // Larger than a segment budget
+        write(new String(new char[100]));
+        loader.loadFile(file);
+        assertEquals(0, loader.getSize());
+    }
+
+    private void write(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("US-ASCII"));
+        out.close();
+        // Ensure the change is visible in the modification time
+        file.setLastModified(file.lastModified() + 2000);
+    }
+
+    private static String read(IoBuffer buffer) throws Exception {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, "US-ASCII");
+    }
+
+    private static class CountingFileLoader extends SimpleFileLoader {
+
+        private int count;
+
+        @Override
+        public IoBuffer loadFile(File file) throws IOException {
+            ++count;
+            return super.loadFile(file);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.apache.asyncweb.fileservice.fileloader;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -45,4 +46,35 @@ public class MmapFileLoaderTest {
 			assertTrue(data[i]==buffer.get());
 		}
 	}
+
+	@Test
+	public void testMappingReused() throws Exception {
+		File tempFile=File.createTempFile("dummy",null);
+		tempFile.deleteOnExit();
+		write(tempFile, "0123456789");
+
+		MmapFileLoader loader=new MmapFileLoader();
+		IoBuffer first=loader.loadFile(tempFile);
+		IoBuffer second=loader.loadFile(tempFile);
+		first.get();
+		assertEquals(10, second.remaining());
+		assertEquals(10, loader.getMappedBytes());
+
+		// a change in length is detected
+		write(tempFile, "0123");
+		assertEquals(4, loader.loadFile(tempFile).remaining());
+		assertEquals(4, loader.getMappedBytes());
+
+		// files beyond the cap are mapped, but not retained
+		loader.setMaxMappedBytes(3);
+		assertEquals(0, loader.getMappedBytes());
+		assertEquals(4, loader.loadFile(tempFile).remaining());
+		assertEquals(0, loader.getMappedBytes());
+	}
+
+	private static void write(File file, String content) throws Exception {
+		FileOutputStream fos=new FileOutputStream(file);
+		fos.write(content.getBytes("US-ASCII"));
+		fos.close();
+	}
 }
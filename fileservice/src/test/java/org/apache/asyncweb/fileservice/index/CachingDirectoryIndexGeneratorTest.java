@@ -0,0 +1,115 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.fileservice.index;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingDirectoryIndexGeneratorTest {
+
+    private File directory;
+
+    private CountingGenerator counting;
+
+    private CachingDirectoryIndexGenerator generator;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("index", null);
+        directory.delete();
+        directory.mkdir();
+        directory.setLastModified(System.currentTimeMillis() - 60000);
+        counting = new CountingGenerator();
+        generator = new CachingDirectoryIndexGenerator(counting);
+    }
+
+    @After
+    public void tearDown() {
+        directory.delete();
+    }
+
+    @Test
+    public void testPageReused() {
+        assertEquals("page 1", page(generator.generateIndex(directory)));
+        assertEquals("page 1", page(generator.generateIndex(directory)));
+        assertEquals(1, counting.count);
+        assertEquals(1, generator.getHitCount());
+        assertEquals(1, generator.getMissCount());
+    }
+
+    @Test
+    public void testDirectoryModified() {
+        generator.generateIndex(directory);
+        directory.setLastModified(System.currentTimeMillis() - 30000);
+        assertEquals("page 2", page(generator.generateIndex(directory)));
+        assertEquals("page 2", page(generator.generateIndex(directory)));
+    }
+
+    @Test
+    public void testRecentlyModified() {
+        directory.setLastModified(System.currentTimeMillis());
+        generator.generateIndex(directory);
+        generator.generateIndex(directory);
+        assertEquals(2, counting.count);
+    }
+
+    @Test
+    public void testTimeToLive() {
+        generator.setTimeToLive(0);
+        generator.generateIndex(directory);
+        generator.generateIndex(directory);
+        assertEquals(2, counting.count);
+    }
+
+    @Test
+    public void testDefaultGenerator() {
+        IoBuffer page = new CachingDirectoryIndexGenerator()
+                .generateIndex(directory);
+        assertTrue(page(page).contains(directory.getName()));
+    }
+
+    /**
+     * Reads a page returned by a generator, which must be flipped
+     */
+    private static String page(IoBuffer page) {
+        page.flip();
+        byte[] bytes = new byte[page.remaining()];
+        page.get(bytes);
+        return new String(bytes);
+    }
+
+    private static class CountingGenerator implements DirectoryIndexGenerator {
+
+        private int count;
+
+        public IoBuffer generateIndex(File directory) {
+            IoBuffer page = IoBuffer.allocate(16);
+            page.put(("page " + ++count).getBytes());
+            return page;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.fileservice.metadata;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileMetadataIndexTest {
+
+    private File file;
+
+    private FileMetadataIndex index;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("metadata", null);
+        write("0123456789");
+        index = new FileMetadataIndex();
+        index.setRefreshInterval(60000);
+    }
+
+    @After
+    public void tearDown() {
+        index.stop();
+        file.delete();
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        File resolved = index.resolve(file);
+        assertEquals(file.getAbsolutePath(), resolved.getPath());
+        assertTrue(resolved.exists());
+        assertTrue(resolved.isFile());
+        assertFalse(resolved.isDirectory());
+        assertEquals(10, resolved.length());
+        assertEquals(file.lastModified(), resolved.lastModified());
+
+        File directory = index.resolve(file.getParentFile());
+        assertTrue(directory.isDirectory());
+        assertFalse(directory.isFile());
+
+        File missing = index.resolve(new File(file.getPath() + ".missing"));
+        assertFalse(missing.exists());
+        assertFalse(missing.isFile());
+        assertEquals(0, missing.lastModified());
+        assertEquals(3, index.getSize());
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        index.resolve(file);
+        write("01234");
+        assertEquals(10, index.resolve(file).length());
+        assertEquals(1, index.getHitCount());
+        assertEquals(1, index.getMissCount());
+
+        index.refresh();
+        assertEquals(5, index.resolve(file).length());
+
+        file.delete();
+        index.refresh();
+        assertFalse(index.resolve(file).exists());
+    }
+
+    @Test
+    public void testRevalidatedWhenNotStarted() throws Exception {
+        index.setRefreshInterval(0);
+        index.resolve(file);
+        write("01234");
+        assertEquals(5, index.resolve(file).length());
+        assertEquals(0, index.getHitCount());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        index.setRefreshInterval(10);
+        index.start();
+        index.resolve(file);
+        write("01234");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (index.resolve(file).length() != 5
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(5, index.resolve(file).length());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        index = new FileMetadataIndex(16);
+        for (int i = 0; i < 100; ++i) {
+            index.resolve(new File(file.getPath() + i));
+        }
+        assertTrue(index.getSize() <= 16);
+    }
+
+    @Test
+    public void testMissingFiles() throws Exception {
+        index = new FileMetadataIndex(16, 16);
+        index.setRefreshInterval(60000);
+        index.resolve(file);
+        for (int i = 0; i < 100; ++i) {
+            index.resolve(new File(file.getPath() + i));
+        }
+        // missing files do not evict existing ones
+        assertTrue(index.getMissingSize() <= 16);
+        long misses = index.getMissCount();
+        assertTrue(index.resolve(file).exists());
+        assertEquals(misses, index.getMissCount());
+
+        // missing files are discarded on refresh, rather than checked
+        index.refresh();
+        assertEquals(0, index.getMissingSize());
+        assertEquals(1, index.getSize());
+    }
+
+    @Test
+    public void testMissingFileExpiry() throws Exception {
+        File late = new File(file.getPath() + ".late");
+        index.start();
+        assertFalse(index.resolve(late).exists());
+        late.createNewFile();
+        try {
+            assertFalse(index.resolve(late).exists());
+            index.setRefreshInterval(0);
+            assertTrue(index.resolve(late).exists());
+        } finally {
+            late.delete();
+        }
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        index.start();
+        index.stop();
+        index.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (refresherCount() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, refresherCount());
+    }
+
+    @Test
+    public void testInterruptStops() throws Exception {
+        index.start();
+        index.resolve(file);
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("FileMetadataIndex".equals(thread.getName())) {
+                thread.interrupt();
+            }
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (refresherCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, refresherCount());
+
+        // checked on access again
+        write("01234");
+        index.setRefreshInterval(0);
+        assertEquals(5, index.resolve(file).length());
+
+        index.start();
+        assertEquals(1, refresherCount());
+    }
+
+    private static int refresherCount() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && "FileMetadataIndex".equals(thread.getName())) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    private void write(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("US-ASCII"));
+        out.close();
+    }
+}
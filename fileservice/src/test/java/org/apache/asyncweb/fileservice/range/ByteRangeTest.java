@@ -0,0 +1,80 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.fileservice.range;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ByteRangeTest {
+
+    @Test
+    public void testSimpleRanges() {
+        assertEquals(Arrays.asList(new ByteRange(0, 499)), ByteRange.parse(
+                "bytes=0-499", 1000, 16));
+        assertEquals(Arrays.asList(new ByteRange(500, 999)), ByteRange.parse(
+                "bytes=500-", 1000, 16));
+        assertEquals(Arrays.asList(new ByteRange(900, 999)), ByteRange.parse(
+                "bytes=-100", 1000, 16));
+        assertEquals(Arrays.asList(new ByteRange(0, 999)), ByteRange.parse(
+                "bytes=-5000", 1000, 16));
+        assertEquals(Arrays.asList(new ByteRange(990, 999)), ByteRange.parse(
+                "bytes=990-5000", 1000, 16));
+    }
+
+    @Test
+    public void testCoalescing() {
+        assertEquals(Arrays.asList(new ByteRange(0, 199), new ByteRange(500,
+                599)), ByteRange.parse("bytes=500-599, 100-199, 0-99, 150-160",
+                1000, 16));
+        assertEquals(Arrays.asList(new ByteRange(900, 999)), ByteRange.parse(
+                "bytes=950-,-100", 1000, 16));
+    }
+
+    @Test
+    public void testUnsatisfiable() {
+        assertEquals(Collections.emptyList(), ByteRange.parse("bytes=1000-",
+                1000, 16));
+        assertEquals(Collections.emptyList(), ByteRange.parse("bytes=-0",
+                1000, 16));
+        assertEquals(Collections.emptyList(), ByteRange.parse("bytes=0-",
+                0, 16));
+    }
+
+    @Test
+    public void testIgnored() {
+        assertNull(ByteRange.parse("items=0-1", 1000, 16));
+        assertNull(ByteRange.parse("bytes=", 1000, 16));
+        assertNull(ByteRange.parse("bytes=5", 1000, 16));
+        assertNull(ByteRange.parse("bytes=5-1", 1000, 16));
+        assertNull(ByteRange.parse("bytes=a-1", 1000, 16));
+        assertNull(ByteRange.parse("bytes=0-1,2-3,4-5", 1000, 2));
+    }
+
+    @Test
+    public void testContentRange() {
+        assertEquals("bytes 0-499/1234", new ByteRange(0, 499)
+                .toContentRange(1234));
+        assertEquals(500, new ByteRange(0, 499).getLength());
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server;
+
+/**
+ * A filter whose decisions may complete asynchronously.
+ * <p>
+ * Unlike an {@link HttpServiceFilter}, an <code>AsyncHttpServiceFilter</code>
+ * is not handed the next filter in the chain. It instead returns a
+ * {@link FilterFuture}, and the chain continues when the future completes.
+ * This allows a filter to wait on a non-blocking lookup (such as a remote
+ * token store) without holding the thread which delivered the request.
+ * </p>
+ * <p>
+ * Filters are installed in a container by wrapping them in an
+ * {@link AsyncServiceFilterAdapter}.
+ * </p>
+ */
+public interface AsyncHttpServiceFilter {
+
+    /**
+     * Notifies this filter of an incoming request.
+     * <p>
+     * The returned future should complete with <code>true</code> to pass the
+     * request on, or with <code>false</code> once this filter has committed
+     * a response itself. If the future fails, an error response is committed.
+     * </p>
+     *
+     * @param context  The service context
+     * @return A future completed when this filter has made its decision
+     */
+    FilterFuture handleRequest(HttpServiceContext context) throws Exception;
+
+    /**
+     * Notifies this filter of the committed response for a request.
+     * The response continues on its way when the returned future completes,
+     * whatever its outcome.
+     *
+     * @param context  The service context
+     * @return A future completed when this filter has finished with the
+     *         response
+     */
+    FilterFuture handleResponse(HttpServiceContext context) throws Exception;
+
+    void start();
+
+    void stop();
+}
@@ -0,0 +1,145 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server;
+
+import java.util.concurrent.Executor;
+
+import org.apache.asyncweb.common.HttpResponseStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adapts an {@link AsyncHttpServiceFilter} to the {@link HttpServiceFilter}
+ * contract so it can be added to a <code>ServiceContainer</code>.
+ * <p>
+ * The thread delivering a request or response returns as soon as the
+ * filter has returned its {@link FilterFuture}. If the future is already
+ * complete, the chain continues on that thread. Otherwise it continues on
+ * the thread which completes the future - or, if an <code>Executor</code>
+ * has been set, on a thread provided by the executor. Setting an executor
+ * keeps the remainder of the chain (including the service itself) off the
+ * threads of whatever library completed the lookup.
+ * </p>
+ */
+public class AsyncServiceFilterAdapter implements HttpServiceFilter {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(AsyncServiceFilterAdapter.class);
+
+    private final AsyncHttpServiceFilter filter;
+
+    private Executor executor;
+
+    /**
+     * @param filter  The filter to adapt
+     */
+    public AsyncServiceFilterAdapter(AsyncHttpServiceFilter filter) {
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+        this.filter = filter;
+    }
+
+    /**
+     * Sets the executor on which the chain is continued when a filter
+     * completes asynchronously. By default, the chain is continued on the
+     * thread which completes the future.
+     *
+     * @param executor  The executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public void handleRequest(final NextFilter next,
+            final HttpServiceContext context) throws Exception {
+        FilterFuture future = filter.handleRequest(context);
+        continueWhenDone(future, new FilterFuture.Listener() {
+            public void operationComplete(FilterFuture future) {
+                resumeRequest(future, next, context);
+            }
+        });
+    }
+
+    public void handleResponse(final NextFilter next,
+            final HttpServiceContext context) throws Exception {
+        FilterFuture future = filter.handleResponse(context);
+        continueWhenDone(future, new FilterFuture.Listener() {
+            public void operationComplete(FilterFuture future) {
+                if (future.getCause() != null) {
+                    LOG.warn("Filter failed to handle response", future
+                            .getCause());
+                }
+                next.invoke();
+            }
+        });
+    }
+
+    public void start() {
+        filter.start();
+    }
+
+    public void stop() {
+        filter.stop();
+    }
+
+    /**
+     * Runs the specified listener once the future completes - inline if it
+     * is already complete, otherwise on our executor (if any)
+     */
+    private void continueWhenDone(final FilterFuture future,
+            final FilterFuture.Listener listener) {
+        if (future.isDone() || executor == null) {
+            future.addListener(listener);
+            return;
+        }
+        future.addListener(new FilterFuture.Listener() {
+            public void operationComplete(final FilterFuture done) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        listener.operationComplete(done);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Continues or terminates the request chain following a filter decision.
+     * If the filter stopped the chain without committing a response, an error
+     * response is committed so the client is not left waiting.
+     */
+    private void resumeRequest(FilterFuture future, NextFilter next,
+            HttpServiceContext context) {
+        if (future.isProceed()) {
+            next.invoke();
+            return;
+        }
+        if (future.getCause() != null) {
+            LOG.warn("Filter failed to handle request", future.getCause());
+        } else if (!context.isResponseCommitted()) {
+            LOG.error("Filter " + filter + " halted the chain without "
+                    + "committing a response");
+        }
+        if (!context.isResponseCommitted()) {
+            context.commitResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The pending outcome of an {@link AsyncHttpServiceFilter} invocation.
+ * <p>
+ * A filter which needs to wait for something (a token store lookup, for
+ * example) returns an incomplete future, and completes it from whichever
+ * thread observes the result. A filter which can decide immediately returns
+ * one of the completed futures provided by {@link #proceed()} and
+ * {@link #halt()}.
+ * </p>
+ * <p>
+ * A future completes exactly once: either with a decision as to whether
+ * the filter chain should proceed, or with a failure.
+ * </p>
+ */
+public class FilterFuture {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(FilterFuture.class);
+
+    private static final FilterFuture PROCEED = new FilterFuture(true);
+
+    private static final FilterFuture HALT = new FilterFuture(false);
+
+    private final Object lock = new Object();
+
+    private List<Listener> listeners;
+
+    private boolean isDone;
+
+    private boolean proceed;
+
+    private Throwable cause;
+
+    /**
+     * Constructs an incomplete future
+     */
+    public FilterFuture() {
+    }
+
+    private FilterFuture(boolean proceed) {
+        this.isDone = true;
+        this.proceed = proceed;
+    }
+
+    /**
+     * @return A completed future indicating that the chain should proceed
+     */
+    public static FilterFuture proceed() {
+        return PROCEED;
+    }
+
+    /**
+     * @return A completed future indicating that the filter has committed
+     *         a response, and the chain should not proceed
+     */
+    public static FilterFuture halt() {
+        return HALT;
+    }
+
+    /**
+     * Completes this future with a decision.
+     *
+     * @param proceed  <code>true</code> if the chain should proceed,
+     *                 <code>false</code> if the filter has committed a response
+     * @return <code>true</code> if this future was completed by this call,
+     *         <code>false</code> if it was already complete
+     */
+    public boolean complete(boolean proceed) {
+        List<Listener> toNotify;
+        synchronized (lock) {
+            if (isDone) {
+                return false;
+            }
+            this.proceed = proceed;
+            isDone = true;
+            toNotify = listeners;
+            listeners = null;
+        }
+        notifyListeners(toNotify);
+        return true;
+    }
+
+    /**
+     * Completes this future with a failure
+     *
+     * @param cause  The cause of the failure
+     * @return <code>true</code> if this future was completed by this call,
+     *         <code>false</code> if it was already complete
+     */
+    public boolean fail(Throwable cause) {
+        if (cause == null) {
+            throw new NullPointerException("cause");
+        }
+        List<Listener> toNotify;
+        synchronized (lock) {
+            if (isDone) {
+                return false;
+            }
+            this.cause = cause;
+            isDone = true;
+            toNotify = listeners;
+            listeners = null;
+        }
+        notifyListeners(toNotify);
+        return true;
+    }
+
+    /**
+     * Adds a listener to be notified when this future completes.
+     * If this future is already complete, the listener is notified
+     * immediately on the calling thread. Otherwise it is notified on the
+     * thread which completes this future.
+     *
+     * @param listener  The listener
+     * @return This future
+     */
+    public FilterFuture addListener(Listener listener) {
+        synchronized (lock) {
+            if (!isDone) {
+                if (listeners == null) {
+                    listeners = new ArrayList<Listener>(1);
+                }
+                listeners.add(listener);
+                return this;
+            }
+        }
+        notifyListener(listener);
+        return this;
+    }
+
+    /**
+     * @return <code>true</code> if this future has completed
+     */
+    public boolean isDone() {
+        synchronized (lock) {
+            return isDone;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if this future completed successfully and the
+     *         chain should proceed
+     */
+    public boolean isProceed() {
+        synchronized (lock) {
+            return isDone && cause == null && proceed;
+        }
+    }
+
+    /**
+     * @return The cause of failure, or <code>null</code> if this future is
+     *         incomplete or completed successfully
+     */
+    public Throwable getCause() {
+        synchronized (lock) {
+            return cause;
+        }
+    }
+
+    private void notifyListeners(List<Listener> toNotify) {
+        if (toNotify != null) {
+            for (Listener listener : toNotify) {
+                notifyListener(listener);
+            }
+        }
+    }
+
+    private void notifyListener(Listener listener) {
+        try {
+            listener.operationComplete(this);
+        } catch (RuntimeException e) {
+            LOG.error("Unexpected exception from filter future listener", e);
+        }
+    }
+
+    /**
+     * Notified when a <code>FilterFuture</code> completes
+     */
+    public interface Listener {
+
+        /**
+         * Invoked when the specified future completes
+         *
+         * @param future  The completed future
+         */
+        void operationComplete(FilterFuture future);
+    }
+}
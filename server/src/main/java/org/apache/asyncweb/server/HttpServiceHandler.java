@@ -19,11 +19,21 @@
  */
 package org.apache.asyncweb.server;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.asyncweb.common.HttpHeaderConstants;
 import org.apache.asyncweb.common.HttpResponseStatus;
 import org.apache.asyncweb.common.MutableHttpResponse;
 import org.apache.asyncweb.common.DefaultHttpResponse;
@@ -38,7 +48,29 @@ import org.slf4j.LoggerFactory;
  * then invoked.
  * If an incoming request can not be mapped to an <code>HttpService</code>,
  * a <code>404</code> response status is returned to the client
- *
+ * <p>
+ * Services may be added, replaced and removed while requests are being
+ * handled. Registrations are held in an immutable snapshot which is replaced
+ * as a whole on each change, so request threads look services up without
+ * locking. A service which is replaced or removed while this handler is
+ * running is stopped once all requests dispatched to it have had their
+ * response committed (or their client disconnected).
+ * </p>
+ * <p>
+ * A service may optionally be registered with a limit on the number of
+ * requests it handles concurrently, and on the number of further requests
+ * which may wait for it. Waiting requests do not hold a thread: they are
+ * dispatched as earlier requests to the service complete. Requests beyond
+ * both limits are rejected immediately with a <code>503</code> response
+ * carrying a <code>Retry-After</code> header, so a slow service can not
+ * tie up the threads shared by all other services.
+ * </p>
+ * <p>
+ * A waiting request is dispatched once the response which freed its slot
+ * has been passed on. By default it is dispatched on the thread which
+ * completed that response; a dispatch <code>Executor</code> may be set
+ * to hand it to another thread instead.
+ * </p>
  *
  */
 public class HttpServiceHandler implements HttpServiceFilter {
@@ -46,9 +78,41 @@ public class HttpServiceHandler implements HttpServiceFilter {
     private static final Logger LOG = LoggerFactory
             .getLogger(HttpServiceHandler.class);
 
+    /**
+     * The default <code>Retry-After</code> value (in seconds) sent when a
+     * request is rejected
+     */
+    private static final int DEFAULT_RETRY_AFTER = 1;
+
+    /**
+     * Queued invocations which became dispatchable while the current
+     * thread was already dispatching. These are run by the outermost
+     * dispatch, rather than recursively
+     */
+    private static final ThreadLocal<List<Invocation>> DEFERRED_DISPATCHES = new ThreadLocal<List<Invocation>>();
+
     private ServiceResolver resolver;
 
-    private Map<String, HttpService> serviceMap = new HashMap<String, HttpService>();
+    /**
+     * The current registrations. Never modified - replaced under
+     * <code>registryLock</code>
+     */
+    private volatile Map<String, ServiceRegistration> serviceMap = Collections
+            .emptyMap();
+
+    private final Object registryLock = new Object();
+
+    /**
+     * Requests which have been dispatched to a service, but have not yet
+     * had their response pass back through this handler
+     */
+    private final ConcurrentMap<HttpServiceContext, Invocation> invocations = new ConcurrentHashMap<HttpServiceContext, Invocation>();
+
+    private volatile boolean isStarted;
+
+    private int retryAfter = DEFAULT_RETRY_AFTER;
+
+    private volatile Executor dispatchExecutor;
 
     /**
      * Adds an <code>HttpService</code> against a service name.
@@ -57,29 +121,100 @@ public class HttpServiceHandler implements HttpServiceFilter {
      * specified service name.
      * <p>
      * Any existing registration against the given name is overwritten.
+     * If this handler is running, the new service is started before it
+     * becomes visible to requests, and the replaced service is stopped
+     * once the requests it is handling complete.
      * </p>
      *
      * @param name         The service name
      * @param httpService  The service
      */
     public void addHttpService(String name, HttpService httpService) {
-        Object oldService = serviceMap.put(name, httpService);
-        if (oldService != null && LOG.isWarnEnabled()) {
-            LOG.warn("Duplicate mapping for '" + name
-                    + "'. Previous mapping removed");
+        addHttpService(name, httpService, 0, 0);
+    }
+
+    /**
+     * Adds an <code>HttpService</code> against a service name, limiting
+     * the number of requests it may handle at once.
+     * <p>
+     * Requests to the service beyond <code>maxConcurrentRequests</code> wait
+     * for an earlier request to complete. If <code>maxQueuedRequests</code>
+     * requests are already waiting, the request is rejected with a
+     * <code>503</code> response.
+     * </p>
+     * <p>
+     * Any existing registration against the given name is replaced as
+     * described for {@link #addHttpService(String, HttpService)}.
+     * </p>
+     *
+     * @param name                   The service name
+     * @param httpService            The service
+     * @param maxConcurrentRequests  The maximum number of requests handled by
+     *                               the service at once, or <code>0</code>
+     *                               for no limit
+     * @param maxQueuedRequests      The maximum number of requests waiting
+     *                               for the service. Ignored if there is no
+     *                               concurrency limit
+     */
+    public void addHttpService(String name, HttpService httpService,
+            int maxConcurrentRequests, int maxQueuedRequests) {
+        if (maxConcurrentRequests < 0) {
+            throw new IllegalArgumentException("maxConcurrentRequests: "
+                    + maxConcurrentRequests);
+        }
+        if (maxQueuedRequests < 0) {
+            throw new IllegalArgumentException("maxQueuedRequests: "
+                    + maxQueuedRequests);
+        }
+        ServiceRegistration registration = new ServiceRegistration(name,
+                httpService, maxConcurrentRequests, maxQueuedRequests);
+        ServiceRegistration oldRegistration;
+        synchronized (registryLock) {
+            if (isStarted) {
+                startService(name, httpService);
+            }
+            Map<String, ServiceRegistration> newMap = new HashMap<String, ServiceRegistration>(
+                    serviceMap);
+            oldRegistration = newMap.put(name, registration);
+            serviceMap = Collections.unmodifiableMap(newMap);
+        }
+        if (oldRegistration != null) {
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Duplicate mapping for '" + name
+                        + "'. Previous mapping removed");
+            }
+            retire(oldRegistration);
+        }
+        if (maxConcurrentRequests > 0) {
+            LOG.info("New HttpService registered against key '" + name
+                    + "' (max concurrent requests: " + maxConcurrentRequests
+                    + ", max queued requests: " + maxQueuedRequests + ")");
+        } else {
+            LOG.info("New HttpService registered against key '{}'",name);
         }
-        LOG.info("New HttpService registered against key '{}'",name);
     }
 
     /**
      * Remove an <code>HttpService</code> which was previously added.
+     * If this handler is running, the service is stopped once the requests
+     * it is handling complete.
      *
      * @param name The key name of the HttpService you want to remove
      */
     public void removeHttpService(String name) {
-        HttpService service = serviceMap.remove(name);
-        if (service != null) {
-            LOG.info("HttpService {} with key '{}' was removed", service, name);
+        ServiceRegistration registration;
+        synchronized (registryLock) {
+            Map<String, ServiceRegistration> newMap = new HashMap<String, ServiceRegistration>(
+                    serviceMap);
+            registration = newMap.remove(name);
+            if (registration != null) {
+                serviceMap = Collections.unmodifiableMap(newMap);
+            }
+        }
+        if (registration != null) {
+            LOG.info("HttpService {} with key '{}' was removed", registration
+                    .getService(), name);
+            retire(registration);
         } else {
             LOG.warn("HttpService with name {} wasn't found for removing", name);
         }
@@ -96,43 +231,94 @@ public class HttpServiceHandler implements HttpServiceFilter {
         this.resolver = resolver;
     }
 
+    /**
+     * Sets the <code>Retry-After</code> value sent with responses to requests
+     * rejected because a service is at its concurrency limit.
+     * The default is 1 second
+     *
+     * @param retryAfter  The delay (in seconds) after which clients may retry
+     */
+    public void setRetryAfter(int retryAfter) {
+        if (retryAfter < 0) {
+            throw new IllegalArgumentException("retryAfter: " + retryAfter);
+        }
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Sets the executor employed to dispatch queued requests once a slot
+     * becomes available for them.
+     * By default, a queued request is dispatched on the thread which
+     * completed the request it replaces. If the executor rejects a
+     * dispatch, it is performed on the completing thread
+     *
+     * @param dispatchExecutor  The executor, or <code>null</code> to
+     *                          dispatch on the completing thread
+     */
+    public void setDispatchExecutor(Executor dispatchExecutor) {
+        this.dispatchExecutor = dispatchExecutor;
+    }
+
     /**
      * Attempts to resolve the specified request to an <code>HttpService</code>
      * known to this handler by employing this handlers associated
      * <code>ServiceResolver</code>.
      * <p>
      * If an <code>HttpService</code> is located for the request, it is provided
-     * with the request. Otherwise, a <code>404</code> response is committed
+     * with the request - or, if the service is at its concurrency limit,
+     * queued for it. Otherwise, a <code>404</code> response is committed
      * for the request
      * </p>
      */
     public void handleRequest(NextFilter next, HttpServiceContext context)
             throws Exception {
-        HttpService service = null;
         HttpRequest request = context.getRequest();
         String serviceName = resolver.resolveService(request);
-        if (serviceName != null) {
-            service = serviceMap.get(serviceName);
+        Invocation invocation = null;
+        int outcome = ServiceRegistration.RETIRED;
+        while (serviceName != null && outcome == ServiceRegistration.RETIRED) {
+            ServiceRegistration registration = serviceMap.get(serviceName);
+            if (registration == null) {
+                break;
+            }
+            invocation = new Invocation(registration, next, context);
+            outcome = beginInvocation(invocation);
         }
-        if (service == null) {
-            handleUnmappedRequest(context);
-        } else {
+
+        switch (outcome) {
+        case ServiceRegistration.ACQUIRED:
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Mapped request [" + request.getRequestUri() + "] to "
                         + "service '" + serviceName + "'");
             }
-            service.handleRequest(context);
-            next.invoke();
+            invocation.dispatch();
+            break;
+        case ServiceRegistration.QUEUED:
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Queued request [" + request.getRequestUri()
+                        + "] for busy service '" + serviceName + "'");
+            }
+            break;
+        case ServiceRegistration.REJECTED:
+            handleRejectedRequest(serviceName, context);
+            break;
+        default:
+            handleUnmappedRequest(context);
         }
     }
 
     /**
-     * Handles a response. This handler does not perform any
-     * action for responses - so the specified {@link IoFilter.NextFilter} is
-     * invoked immediately.
+     * Handles a response. The specified {@link IoFilter.NextFilter} is
+     * invoked immediately, after which the service invocation which produced
+     * the response (if any) is marked as complete - so a request waiting
+     * for the service is not dispatched ahead of writing this response.
      */
     public void handleResponse(NextFilter next, HttpServiceContext context) {
-        next.invoke();
+        try {
+            next.invoke();
+        } finally {
+            endInvocation(context);
+        }
     }
 
     /**
@@ -141,14 +327,14 @@ public class HttpServiceHandler implements HttpServiceFilter {
     public void start() {
         if (LOG.isDebugEnabled())
             LOG.debug("HttpServiceHandler starting");
-        for (Entry<String, HttpService> entry : serviceMap
-                .entrySet()) {
-         String serviceName = entry.getKey();
-         HttpService service = entry.getValue();
-         LOG.info("Starting HttpService '" + serviceName + "'");
-         service.start();
-         LOG.info("HttpService '" + serviceName + "' started");
-      }
+        synchronized (registryLock) {
+            for (Entry<String, ServiceRegistration> entry : serviceMap
+                    .entrySet()) {
+                startService(entry.getKey(), entry.getValue().getService());
+                entry.getValue().serviceStarted();
+            }
+            isStarted = true;
+        }
     }
 
     /**
@@ -156,14 +342,126 @@ public class HttpServiceHandler implements HttpServiceFilter {
      */
     public void stop() {
         LOG.info("HttpServiceHandler stopping");
-        for (Entry<String, HttpService> entry : serviceMap
-                .entrySet()) {
-         String serviceName = entry.getKey();
-         HttpService service = entry.getValue();
-         LOG.info("Stopping HttpService '" + serviceName + "'");
-         service.stop();
-         LOG.info("HttpService '" + serviceName + "' stopped");
-      }
+        synchronized (registryLock) {
+            isStarted = false;
+            for (Entry<String, ServiceRegistration> entry : serviceMap
+                    .entrySet()) {
+                entry.getValue().stopService();
+            }
+        }
+    }
+
+    /**
+     * Records the specified invocation against its context, and asks its
+     * registration to accept it.
+     * The invocation is recorded first, as a queued invocation may be
+     * dispatched (and complete) on another thread before this method
+     * returns.
+     *
+     * @return The outcome of {@link ServiceRegistration#acquire(Invocation)}
+     */
+    private int beginInvocation(Invocation invocation) {
+        HttpServiceContext context = invocation.getContext();
+        invocations.put(context, invocation);
+        context.addClientListener(invocation);
+        int outcome = invocation.getRegistration().acquire(invocation);
+        if (outcome == ServiceRegistration.REJECTED
+                || outcome == ServiceRegistration.RETIRED) {
+            invocations.remove(context);
+            context.removeClientListener(invocation);
+        }
+        return outcome;
+    }
+
+    /**
+     * Marks the invocation (if any) associated with the specified context
+     * as complete
+     */
+    private void endInvocation(HttpServiceContext context) {
+        Invocation invocation = invocations.remove(context);
+        if (invocation != null) {
+            context.removeClientListener(invocation);
+            invocation.complete();
+        }
+    }
+
+    /**
+     * Retires a registration which has been removed from the registry.
+     * If we are running, its service is stopped once drained.
+     */
+    private void retire(ServiceRegistration registration) {
+        if (isStarted) {
+            registration.retire();
+        }
+    }
+
+    private static void startService(String serviceName, HttpService service) {
+        LOG.info("Starting HttpService '" + serviceName + "'");
+        service.start();
+        LOG.info("HttpService '" + serviceName + "' started");
+    }
+
+    /**
+     * Dispatches a queued invocation which has been granted a slot by its
+     * registration, on our dispatch executor if we have one
+     */
+    private void dispatchQueued(final Invocation invocation) {
+        Executor executor = dispatchExecutor;
+        if (executor != null) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        invocation.dispatchQuietly();
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Dispatch executor rejected a queued request. "
+                        + "Dispatching inline");
+            }
+        }
+        dispatchInline(invocation);
+    }
+
+    /**
+     * Dispatches a queued invocation on the current thread. If this thread
+     * is already dispatching, the invocation is deferred until the outer
+     * dispatch returns, so a service which completes synchronously does not
+     * cause unbounded recursion.
+     */
+    private static void dispatchInline(Invocation invocation) {
+        List<Invocation> deferred = DEFERRED_DISPATCHES.get();
+        if (deferred != null) {
+            deferred.add(invocation);
+            return;
+        }
+        deferred = new LinkedList<Invocation>();
+        DEFERRED_DISPATCHES.set(deferred);
+        try {
+            invocation.dispatchQuietly();
+            while (!deferred.isEmpty()) {
+                deferred.remove(0).dispatchQuietly();
+            }
+        } finally {
+            DEFERRED_DISPATCHES.remove();
+        }
+    }
+
+    /**
+     * Handles a request to a service which is at its concurrency limit by
+     * issuing a <code>503</code> response to the client
+     */
+    private void handleRejectedRequest(String serviceName,
+            HttpServiceContext context) {
+        if (LOG.isWarnEnabled()) {
+            LOG.warn("HttpService '" + serviceName + "' is busy. Rejecting '"
+                    + context.getRequest().getRequestUri() + "'");
+        }
+        MutableHttpResponse response = new DefaultHttpResponse();
+        response.setStatus(HttpResponseStatus.SERVICE_UNAVAILABLE);
+        response.setHeader(HttpHeaderConstants.KEY_RETRY_AFTER, String
+                .valueOf(retryAfter));
+        context.commitResponse(response);
     }
 
     /**
@@ -181,4 +479,256 @@ public class HttpServiceHandler implements HttpServiceFilter {
         response.setStatusReasonPhrase(request.getRequestUri().toString());
         context.commitResponse(response);
     }
+
+    /**
+     * A service registered against a name, along with the number of requests
+     * it is currently handling.
+     * Once retired, a registration accepts no further requests, and its
+     * service is stopped when the last outstanding request completes.
+     * <p>
+     * Registrations without a concurrency limit are lock free. Those with a
+     * limit track running and waiting requests under their own monitor.
+     * </p>
+     */
+    private static class ServiceRegistration {
+
+        /**
+         * The request may be dispatched to the service immediately
+         */
+        static final int ACQUIRED = 0;
+
+        /**
+         * The request has been queued, and will be dispatched once a slot
+         * becomes available
+         */
+        static final int QUEUED = 1;
+
+        /**
+         * The request was refused as the service is at its limits
+         */
+        static final int REJECTED = 2;
+
+        /**
+         * The request was refused as the registration has been retired
+         */
+        static final int RETIRED = 3;
+
+        private final String name;
+
+        private final HttpService service;
+
+        private final int maxConcurrent;
+
+        private final int maxQueued;
+
+        /**
+         * Requests accepted by this registration and not yet complete -
+         * including those waiting for a slot
+         */
+        private final AtomicInteger activeCount = new AtomicInteger();
+
+        private final AtomicBoolean isStopped = new AtomicBoolean();
+
+        private volatile boolean isRetired;
+
+        /**
+         * The number of requests holding a slot. Guarded by <code>this</code>
+         */
+        private int runningCount;
+
+        /**
+         * Requests waiting for a slot. Guarded by <code>this</code>
+         */
+        private final LinkedList<Invocation> waiting = new LinkedList<Invocation>();
+
+        ServiceRegistration(String name, HttpService service,
+                int maxConcurrent, int maxQueued) {
+            this.name = name;
+            this.service = service;
+            this.maxConcurrent = maxConcurrent;
+            this.maxQueued = maxQueued;
+        }
+
+        HttpService getService() {
+            return service;
+        }
+
+        /**
+         * Records the start of a request
+         *
+         * @param invocation  The invocation to be dispatched to our service
+         * @return One of {@link #ACQUIRED}, {@link #QUEUED},
+         *         {@link #REJECTED} or {@link #RETIRED}
+         */
+        int acquire(Invocation invocation) {
+            activeCount.incrementAndGet();
+            if (isRetired) {
+                releaseActive();
+                return RETIRED;
+            }
+            if (maxConcurrent <= 0) {
+                return ACQUIRED;
+            }
+            synchronized (this) {
+                if (runningCount < maxConcurrent) {
+                    ++runningCount;
+                    return ACQUIRED;
+                }
+                if (waiting.size() < maxQueued) {
+                    waiting.add(invocation);
+                    return QUEUED;
+                }
+            }
+            releaseActive();
+            return REJECTED;
+        }
+
+        /**
+         * Records the completion of a request. If the request held a slot,
+         * the slot is handed to the next waiting request (if any)
+         *
+         * @param invocation  The completed invocation
+         * @return The waiting invocation which now holds the released slot
+         *         and should be dispatched, or <code>null</code>
+         */
+        Invocation release(Invocation invocation) {
+            Invocation next = null;
+            if (maxConcurrent > 0) {
+                synchronized (this) {
+                    if (!waiting.remove(invocation)) {
+                        next = waiting.poll();
+                        if (next == null) {
+                            --runningCount;
+                        }
+                    }
+                }
+            }
+            releaseActive();
+            return next;
+        }
+
+        private void releaseActive() {
+            if (activeCount.decrementAndGet() == 0 && isRetired) {
+                stopService();
+            }
+        }
+
+        /**
+         * Prevents further requests being dispatched to our service, and
+         * stops it if it is idle
+         */
+        void retire() {
+            isRetired = true;
+            if (activeCount.get() == 0) {
+                stopService();
+            } else {
+                LOG.info("Draining HttpService '" + name + "' ("
+                        + activeCount.get() + " requests outstanding)");
+            }
+        }
+
+        /**
+         * Records that our service has been started (again), so it is
+         * stopped when next retired or when the handler stops
+         */
+        void serviceStarted() {
+            isStopped.set(false);
+        }
+
+        /**
+         * Stops our service unless it has already been stopped
+         */
+        void stopService() {
+            if (isStopped.compareAndSet(false, true)) {
+                LOG.info("Stopping HttpService '" + name + "'");
+                service.stop();
+                LOG.info("HttpService '" + name + "' stopped");
+            }
+        }
+    }
+
+    /**
+     * A request dispatched to a registered service.
+     * The invocation completes when its response is committed, or when the
+     * client disconnects - whichever happens first.
+     */
+    private class Invocation implements HttpClientListener {
+
+        private final ServiceRegistration registration;
+
+        private final NextFilter next;
+
+        private final HttpServiceContext context;
+
+        private final AtomicBoolean isComplete = new AtomicBoolean();
+
+        Invocation(ServiceRegistration registration, NextFilter next,
+                HttpServiceContext context) {
+            this.registration = registration;
+            this.next = next;
+            this.context = context;
+        }
+
+        ServiceRegistration getRegistration() {
+            return registration;
+        }
+
+        HttpServiceContext getContext() {
+            return context;
+        }
+
+        /**
+         * Provides our request to the service, and moves the request forward
+         * in the chain
+         */
+        void dispatch() throws Exception {
+            try {
+                registration.getService().handleRequest(context);
+            } catch (Exception e) {
+                endInvocation(context);
+                throw e;
+            } catch (Error e) {
+                endInvocation(context);
+                throw e;
+            }
+            next.invoke();
+        }
+
+        /**
+         * Dispatches a request which was queued. There is no caller to
+         * report failure to, so an error response is committed instead
+         */
+        void dispatchQuietly() {
+            if (isComplete.get()) {
+                return;
+            }
+            try {
+                dispatch();
+            } catch (Throwable t) {
+                LOG.error("Unexpected exception from a service", t);
+                if (!context.isResponseCommitted()) {
+                    context.commitResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR);
+                }
+            }
+        }
+
+        void complete() {
+            if (isComplete.compareAndSet(false, true)) {
+                Invocation waiting = registration.release(this);
+                if (waiting != null) {
+                    dispatchQueued(waiting);
+                }
+            }
+        }
+
+        public void clientDisconnected(HttpServiceContext ctx) {
+            invocations.remove(ctx);
+            complete();
+        }
+
+        public void clientIdle(HttpServiceContext ctx, long idleTime,
+                int idleCount) {
+            // Not interested in idle notifications
+        }
+    }
 }
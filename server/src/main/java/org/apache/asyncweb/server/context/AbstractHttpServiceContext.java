@@ -31,6 +31,7 @@ import org.apache.asyncweb.server.HttpServiceContext;
 import org.apache.asyncweb.server.HttpSession;
 import org.apache.asyncweb.server.ServiceContainer;
 import org.apache.asyncweb.server.HttpClientListener;
+import org.apache.asyncweb.server.session.CookieSessionAccessor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,7 +56,18 @@ public abstract class AbstractHttpServiceContext implements HttpServiceContext
 
     private HttpSession session;
 
-    private boolean createdSession;
+    /**
+     * Whether the session is only looked up when a service or filter asks
+     * for it. Cookie sessions are decoded from the request on each lookup,
+     * so they are not looked up for requests which never use them
+     */
+    private final boolean lazySession;
+
+    /**
+     * Whether a session has been bound to this request - by being located or
+     * created at the request of a service or filter
+     */
+    private boolean sessionBound;
 
     private final ServiceContainer container;
 
@@ -90,7 +102,11 @@ public abstract class AbstractHttpServiceContext implements HttpServiceContext
         this.localAddress = localAddress;
         this.request = request;
         this.container = container;
-        this.session = container.getSessionAccessor().getSession( this, false );
+        this.lazySession = container.getSessionAccessor() instanceof CookieSessionAccessor;
+        if ( !lazySession )
+        {
+            this.session = container.getSessionAccessor().getSession( this, false );
+        }
     }
 
 
@@ -108,6 +124,7 @@ public abstract class AbstractHttpServiceContext implements HttpServiceContext
      */
     public boolean commitResponse( HttpResponse response )
     {
+        boolean usedSession;
         synchronized ( this )
         {
             if ( isResponseCommitted() )
@@ -117,10 +134,12 @@ public abstract class AbstractHttpServiceContext implements HttpServiceContext
             }
 
             committedResponse = response;
+            usedSession = sessionBound || !lazySession;
         }
 
-        // Add the session identifier if the session was newly created.
-        if ( createdSession )
+        // The accessor adds a session identifier if the session requires one.
+        // Requests which never used a lazily looked up session leave it untouched
+        if ( usedSession )
         {
             container.getSessionAccessor().addSessionIdentifier( this, ( MutableHttpResponse ) response );
         }
@@ -215,9 +234,9 @@ public abstract class AbstractHttpServiceContext implements HttpServiceContext
         if ( session == null )
         {
             session = container.getSessionAccessor().getSession( this, create );
-            if ( create )
+            if ( session != null )
             {
-                createdSession = true;
+                sessionBound = true;
             }
         }
 
@@ -19,12 +19,28 @@
  */
 package org.apache.asyncweb.server.filter;
 
-import java.io.ByteArrayOutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
 
+import org.apache.asyncweb.common.FileContentResponse;
+import org.apache.asyncweb.common.HttpHeaderConstants;
+import org.apache.asyncweb.common.HttpMethod;
+import org.apache.asyncweb.common.HttpRequest;
+import org.apache.asyncweb.common.HttpResponse;
+import org.apache.asyncweb.common.HttpResponseStatus;
+import org.apache.asyncweb.common.MutableHttpRequest;
 import org.apache.asyncweb.common.MutableHttpResponse;
 import org.apache.asyncweb.server.HttpServiceContext;
 import org.apache.asyncweb.server.HttpServiceFilter;
+import org.apache.asyncweb.server.util.CompressedContentCache;
+import org.apache.asyncweb.server.util.GZipCompressor;
 import org.apache.mina.core.buffer.IoBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,6 +48,33 @@ import org.slf4j.LoggerFactory;
 /**
  * An HttpServiceFilter compressing data using the gzip algorithm if 
  * the client support it. 
+ * <p>
+ * Only responses with a body of at least a minimum size, and with a content
+ * type in a configurable allow-list, are compressed - so small responses and
+ * already compressed content (such as images) are sent as they are. Such
+ * responses carry a <code>Vary: Accept-Encoding</code> header whether or not
+ * they are compressed, so caches keep the variants apart.
+ * </p>
+ * <p>
+ * Whether the client accepts gzip is determined from the quality values in
+ * its <code>Accept-Encoding</code> header, so <code>gzip;q=0</code> is
+ * honoured. Compression employs a pool of deflaters shared between requests.
+ * </p>
+ * <p>
+ * If a {@link CompressedContentCache} is configured, compressed content is
+ * cached so identical responses are only compressed once. Responses with a
+ * strong entity tag are identified by their host, path and tag, and others
+ * by a digest of their content. The entity tag of a compressed response is
+ * suffixed with <code>-gzip</code>, as it identifies a different
+ * representation.
+ * </p>
+ * <p>
+ * So that services need not know of this suffix, the unsuffixed form of any
+ * suffixed tag in the <code>If-None-Match</code> header of a request
+ * accepting gzip content is added to the header before the request is
+ * passed on. When a service then replies <code>304 Not Modified</code> with
+ * the unsuffixed tag, the tag is suffixed again.
+ * </p>
  *
  * @author The Apache MINA Project (dev@mina.apache.org)
  */
@@ -39,12 +82,145 @@ public class GZipFilter implements HttpServiceFilter {
 
     private static final Logger LOG = LoggerFactory
     .getLogger(GZipFilter.class);
-    
+
+    /**
+     * Responses with less content than this are not compressed by default
+     */
+    private static final int DEFAULT_MINIMUM_SIZE = 1024;
+
+    private static final String[] DEFAULT_MIME_TYPES = { "text/*",
+            "application/javascript", "application/x-javascript",
+            "application/json", "application/xml", "application/xhtml+xml",
+            "application/rss+xml", "application/atom+xml", "image/svg+xml" };
+
     /**
-     * Simply moves the request forward in the chain
+     * Default maximum number of idle deflaters retained
+     */
+    private static final int DEFAULT_MAX_POOLED_DEFLATERS = 32;
+
+    private static final String WILDCARD_SUFFIX = "/*";
+
+    private static final String ETAG_SUFFIX = "-gzip";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-1 not supported", e);
+            }
+        }
+    };
+
+    private int minimumSize = DEFAULT_MINIMUM_SIZE;
+
+    private Set<String> mimeTypes = new HashSet<String>();
+
+    private Set<String> mimeTypePrefixes = new HashSet<String>();
+
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    private int maxPooledDeflaters = DEFAULT_MAX_POOLED_DEFLATERS;
+
+    private volatile GZipCompressor compressor = new GZipCompressor(
+            compressionLevel, maxPooledDeflaters);
+
+    private CompressedContentCache cache;
+
+    public GZipFilter() {
+        setMimeTypes(Arrays.asList(DEFAULT_MIME_TYPES));
+    }
+
+    /**
+     * Sets the minimum size of content to be compressed.
+     * The default is 1024 bytes
+     *
+     * @param minimumSize  The minimum size (in bytes)
+     */
+    public void setMinimumSize(int minimumSize) {
+        this.minimumSize = minimumSize;
+    }
+
+    /**
+     * Sets the content types which are compressed. Each is either a full
+     * type (<code>application/json</code>) or a wildcard covering all
+     * sub-types (<code>text/*</code>).
+     * By default, text, script, JSON, XML and SVG content is compressed.
+     *
+     * @param mimeTypes  The content types to compress
+     */
+    public void setMimeTypes(Collection<String> mimeTypes) {
+        Set<String> types = new HashSet<String>();
+        Set<String> prefixes = new HashSet<String>();
+        for (String type : mimeTypes) {
+            String name = type.trim().toLowerCase();
+            if (name.endsWith(WILDCARD_SUFFIX)) {
+                prefixes.add(name.substring(0, name.length() - 1));
+            } else {
+                types.add(name);
+            }
+        }
+        this.mimeTypes = types;
+        this.mimeTypePrefixes = prefixes;
+    }
+
+    /**
+     * Sets the compression level, from <code>1</code> (fastest) to
+     * <code>9</code> (smallest). By default, the deflater default is used
+     *
+     * @param compressionLevel  The compression level
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressor = new GZipCompressor(compressionLevel,
+                maxPooledDeflaters);
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Sets the maximum number of idle deflaters retained for reuse
+     *
+     * @param maxPooledDeflaters  The maximum number of pooled deflaters
+     */
+    public void setMaxPooledDeflaters(int maxPooledDeflaters) {
+        this.compressor = new GZipCompressor(compressionLevel,
+                maxPooledDeflaters);
+        this.maxPooledDeflaters = maxPooledDeflaters;
+    }
+
+    /**
+     * Sets the cache of compressed content. By default, content is
+     * compressed for each response
+     *
+     * @param cache  The cache, or <code>null</code> for no caching
+     */
+    public void setCompressedContentCache(CompressedContentCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Adds the unsuffixed form of compressed entity tags in the
+     * <code>If-None-Match</code> header of a request, and moves the request
+     * forward in the chain
      */
     public void handleRequest(NextFilter next, HttpServiceContext context)
             throws Exception {
+        HttpRequest request = context.getRequest();
+        String ifNoneMatch = request
+                .getHeader(HttpHeaderConstants.KEY_IF_NONE_MATCH);
+        if (ifNoneMatch != null
+                && request instanceof MutableHttpRequest
+                && acceptsGzip(request
+                        .getHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING))) {
+            String identityTags = identityTags(ifNoneMatch);
+            if (identityTags != null) {
+                ((MutableHttpRequest) request).setHeader(
+                        HttpHeaderConstants.KEY_IF_NONE_MATCH, ifNoneMatch
+                                + ", " + identityTags);
+            }
+        }
         next.invoke();
     }
 
@@ -53,32 +229,20 @@ public class GZipFilter implements HttpServiceFilter {
      */
     public void handleResponse(NextFilter next, HttpServiceContext context)
             throws Exception {
-
-        String ae = context.getRequest().getHeader("accept-encoding");
-        if (ae != null
-                && ae.indexOf("gzip") != -1
-                && context.getCommittedResponse() instanceof MutableHttpResponse) {
-            LOG.debug("Compressing content");
-            // compress
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            GZIPOutputStream gzos = new GZIPOutputStream(baos);
-            gzos.write(context.getCommittedResponse().getContent().array());
-            gzos.close();
-            baos.close();
-
-            // recreate an IoBuffer
-            byte[] bytes = baos.toByteArray();
-            IoBuffer gzipedResponse = IoBuffer.allocate(bytes.length);
-            gzipedResponse.put(bytes);
-            gzipedResponse.flip();
-            LOG.debug("Old content size {}",context.getCommittedResponse().getContent().remaining());
-            LOG.debug("Compressed content size {}",gzipedResponse.remaining());
-            
-            // change the response content and content type
-            MutableHttpResponse mutableResponse = (MutableHttpResponse) context.getCommittedResponse(); 
-            mutableResponse.setHeader("Content-Encoding", "gzip");
-            mutableResponse.setContent(gzipedResponse);
-            mutableResponse.normalize(context.getRequest());
+        HttpRequest request = context.getRequest();
+        HttpResponse response = context.getCommittedResponse();
+        if (response instanceof MutableHttpResponse
+                && response.getStatus().getCode() == HttpResponseStatus.NOT_MODIFIED
+                        .getCode()) {
+            restoreCompressedTag(request, (MutableHttpResponse) response);
+        } else if (response instanceof MutableHttpResponse
+                && isCompressible(request, response)) {
+            MutableHttpResponse mutableResponse = (MutableHttpResponse) response;
+            addVary(mutableResponse);
+            if (acceptsGzip(request
+                    .getHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING))) {
+                compress(request, mutableResponse);
+            }
         }
         next.invoke();
     }
@@ -91,4 +255,266 @@ public class GZipFilter implements HttpServiceFilter {
         // nothing to do here
     }
 
+    /**
+     * Replaces the content of the specified response with its compressed
+     * form - unless compression does not make it any smaller
+     */
+    private void compress(HttpRequest request, MutableHttpResponse response) {
+        IoBuffer content = response.getContent();
+        String etag = response.getHeader(HttpHeaderConstants.KEY_ETAG);
+        if (etag != null && !isStrong(etag)) {
+            etag = null;
+        }
+        IoBuffer compressed;
+        if (cache == null) {
+            compressed = compressor.compress(content);
+        } else {
+            String identity = etag != null ? authority(request) + ' '
+                    + target(request) + ' ' + etag : digest(content);
+            compressed = cache.get(identity, HttpHeaderConstants.VALUE_GZIP);
+            if (compressed == null) {
+                compressed = compressor.compress(content);
+                cache.put(identity, HttpHeaderConstants.VALUE_GZIP,
+                        compressed);
+            } else if (LOG.isDebugEnabled()) {
+                LOG.debug("Compressed content located in cache");
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Compressed content size " + content.remaining()
+                    + " -> " + compressed.remaining());
+        }
+        if (compressed.remaining() >= content.remaining()) {
+            return;
+        }
+        response.setHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING,
+                HttpHeaderConstants.VALUE_GZIP);
+        if (etag != null) {
+            response.setHeader(HttpHeaderConstants.KEY_ETAG, compressedTag(etag));
+        }
+        response.setContent(compressed);
+        response.normalize(request);
+    }
+
+    /**
+     * Suffixes the entity tag of a <code>304</code> response if the client
+     * validated the compressed representation
+     */
+    private void restoreCompressedTag(HttpRequest request,
+            MutableHttpResponse response) {
+        String etag = response.getHeader(HttpHeaderConstants.KEY_ETAG);
+        String ifNoneMatch = request
+                .getHeader(HttpHeaderConstants.KEY_IF_NONE_MATCH);
+        if (etag == null || !isStrong(etag) || ifNoneMatch == null
+                || !acceptsGzip(request
+                        .getHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING))) {
+            return;
+        }
+        String compressedTag = compressedTag(etag);
+        for (String element : ifNoneMatch.split(",")) {
+            if (stripWeak(element.trim()).equals(compressedTag)) {
+                response.setHeader(HttpHeaderConstants.KEY_ETAG, compressedTag);
+                addVary(response);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The host (and port) a request is addressed to - taken from an
+     *         absolute request URI, or else the <code>Host</code> header -
+     *         so that paths of different virtual hosts are told apart
+     */
+    private static String authority(HttpRequest request) {
+        URI uri = request.getRequestUri();
+        String authority = uri.isAbsolute() ? uri.getRawAuthority() : request
+                .getHeader(HttpHeaderConstants.KEY_HOST);
+        return authority == null ? "" : authority.trim().toLowerCase();
+    }
+
+    /**
+     * @return The raw path and query of the request URI, so that resources
+     *         distinguished by their query are told apart
+     */
+    private static String target(HttpRequest request) {
+        URI uri = request.getRequestUri();
+        String query = uri.getRawQuery();
+        return query == null ? uri.getRawPath() : uri.getRawPath() + '?'
+                + query;
+    }
+
+    /**
+     * @return The unsuffixed forms of the suffixed tags in an
+     *         <code>If-None-Match</code> header, or <code>null</code> if
+     *         there are none
+     */
+    private static String identityTags(String ifNoneMatch) {
+        StringBuilder tags = null;
+        for (String element : ifNoneMatch.split(",")) {
+            String tag = element.trim();
+            String opaque = stripWeak(tag);
+            if (isStrong(opaque) && opaque.endsWith(ETAG_SUFFIX + '"')) {
+                if (tags == null) {
+                    tags = new StringBuilder();
+                } else {
+                    tags.append(", ");
+                }
+                tags.append(tag.substring(0, tag.length() - opaque.length()));
+                tags.append(opaque.substring(0, opaque.length()
+                        - ETAG_SUFFIX.length() - 1));
+                tags.append('"');
+            }
+        }
+        return tags == null ? null : tags.toString();
+    }
+
+    private static String compressedTag(String etag) {
+        return etag.substring(0, etag.length() - 1) + ETAG_SUFFIX + '"';
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * Determines whether an entity tag is a well formed strong tag
+     */
+    private static boolean isStrong(String etag) {
+        return etag.length() >= 2 && etag.charAt(0) == '"'
+                && etag.charAt(etag.length() - 1) == '"';
+    }
+
+    /**
+     * Computes a digest of the remaining content of a buffer, as a hex string
+     * prefixed by the content length
+     */
+    private static String digest(IoBuffer content) {
+        MessageDigest digest = DIGEST.get();
+        ByteBuffer buf = content.buf().duplicate();
+        int length = buf.remaining();
+        digest.update(buf);
+        byte[] hash = digest.digest();
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            chars[2 * i] = HEX[(hash[i] >> 4) & 0x0f];
+            chars[2 * i + 1] = HEX[hash[i] & 0x0f];
+        }
+        return length + ":" + new String(chars);
+    }
+
+    /**
+     * Determines whether the specified response may be compressed - whether
+     * or not the client accepts compressed content
+     */
+    private boolean isCompressible(HttpRequest request, HttpResponse response) {
+        HttpResponseStatus status = response.getStatus();
+        HttpMethod method = request.getMethod();
+        if (!status.allowsMessageBody()
+                || status.getCode() == HttpResponseStatus.PARTIAL_CONTENT
+                        .getCode()
+                || method == null || !method.isResponseBodyAllowed()
+                || (response instanceof FileContentResponse
+                        && ((FileContentResponse) response).getFileContent() != null)
+                || response.containsHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING)
+                || response.getContent().remaining() < minimumSize) {
+            return false;
+        }
+        return isCompressibleType(response.getContentType());
+    }
+
+    /**
+     * Determines whether the specified content type is in our allow-list
+     *
+     * @param contentType  The content type, or <code>null</code>
+     * @return <code>true</code> if content of the type may be compressed
+     */
+    public boolean isCompressibleType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int end = contentType.indexOf(';');
+        String type = (end == -1 ? contentType : contentType.substring(0, end))
+                .trim().toLowerCase();
+        if (mimeTypes.contains(type)) {
+            return true;
+        }
+        int slash = type.indexOf('/');
+        return slash != -1
+                && mimeTypePrefixes.contains(type.substring(0, slash + 1));
+    }
+
+    /**
+     * Adds <code>Accept-Encoding</code> to the <code>Vary</code> header of the
+     * specified response
+     */
+    private static void addVary(MutableHttpResponse response) {
+        String vary = response.getHeader(HttpHeaderConstants.KEY_VARY);
+        if (vary == null) {
+            response.setHeader(HttpHeaderConstants.KEY_VARY,
+                    HttpHeaderConstants.KEY_ACCEPT_ENCODING);
+            return;
+        }
+        for (String field : vary.split(",")) {
+            String name = field.trim();
+            if (name.equals("*")
+                    || name.equalsIgnoreCase(HttpHeaderConstants.KEY_ACCEPT_ENCODING)) {
+                return;
+            }
+        }
+        response.setHeader(HttpHeaderConstants.KEY_VARY, vary + ", "
+                + HttpHeaderConstants.KEY_ACCEPT_ENCODING);
+    }
+
+    /**
+     * Determines whether an <code>Accept-Encoding</code> header value accepts
+     * gzip content. An explicit <code>gzip</code> (or <code>x-gzip</code>)
+     * coding takes precedence over <code>*</code>, and codings with a quality
+     * value of zero are not acceptable.
+     *
+     * @param acceptEncoding  The header value - or <code>null</code>
+     * @return <code>true</code> if gzip content is acceptable
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        float gzipQuality = -1;
+        float anyQuality = -1;
+        for (String element : acceptEncoding.split(",")) {
+            int semicolon = element.indexOf(';');
+            String coding = (semicolon == -1 ? element : element.substring(0,
+                    semicolon)).trim();
+            float quality = semicolon == -1 ? 1 : parseQuality(element
+                    .substring(semicolon + 1));
+            if (coding.equalsIgnoreCase(HttpHeaderConstants.VALUE_GZIP)
+                    || coding.equalsIgnoreCase("x-gzip")) {
+                gzipQuality = Math.max(gzipQuality, quality);
+            } else if (coding.equals("*")) {
+                anyQuality = Math.max(anyQuality, quality);
+            }
+        }
+        return gzipQuality > 0 || (gzipQuality < 0 && anyQuality > 0);
+    }
+
+    /**
+     * Parses the quality value from the parameters of an
+     * <code>Accept-Encoding</code> element. Malformed values are treated
+     * as zero
+     */
+    private static float parseQuality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals != -1
+                    && parameter.substring(0, equals).trim().equalsIgnoreCase("q")) {
+                try {
+                    return Float.parseFloat(parameter.substring(equals + 1)
+                            .trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
 }
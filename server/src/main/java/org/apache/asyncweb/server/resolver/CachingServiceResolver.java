@@ -0,0 +1,130 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.resolver;
+
+import java.net.URI;
+
+import org.apache.asyncweb.common.HttpRequest;
+import org.apache.asyncweb.server.util.SegmentedLruCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>ServiceResolver</code> which remembers the resolutions made by
+ * another resolver.
+ * <p>
+ * Resolutions are cached against the request method and path, so the
+ * decorated resolver must resolve requests based on these alone (which is
+ * the case for all path based resolvers in this package). Requests which
+ * could not be resolved are cached as well, so repeated requests for
+ * unmapped paths do not re-run the decorated resolver either.
+ * </p>
+ * <p>
+ * The cache is bounded, and evicts its least recently used resolutions
+ * once full (see {@link SegmentedLruCache}). Requests with an absolute URI
+ * are always passed to the decorated resolver.
+ * </p>
+ * <p>
+ * If the mappings of the decorated resolver change, {@link #clear()} must
+ * be invoked for the changes to become visible.
+ * </p>
+ */
+public class CachingServiceResolver implements ServiceResolver {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CachingServiceResolver.class);
+
+    /**
+     * The default maximum number of cached resolutions
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    /**
+     * Marks a cached failed resolution
+     */
+    private static final String UNRESOLVED = new String("<unresolved>");
+
+    private ServiceResolver resolver;
+
+    private final SegmentedLruCache<String, String> cache;
+
+    /**
+     * Constructs with the default maximum number of cached resolutions
+     */
+    public CachingServiceResolver() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Constructs with a specified maximum number of cached resolutions
+     *
+     * @param maxEntries  The maximum number of cached resolutions
+     */
+    public CachingServiceResolver(int maxEntries) {
+        cache = new SegmentedLruCache<String, String>(maxEntries);
+    }
+
+    /**
+     * Sets the resolver whose resolutions are cached
+     *
+     * @param resolver  The resolver
+     */
+    public void setResolver(ServiceResolver resolver) {
+        this.resolver = resolver;
+        clear();
+        LOG.info("Caching resolutions of [" + resolver + "]");
+    }
+
+    /**
+     * Resolves the specified request from the cache, falling back to the
+     * decorated resolver (and caching its answer) on a miss.
+     *
+     * @param request  The request to resolve
+     * @return The service name, or <code>null</code> if no resolution could
+     *         be found
+     */
+    public String resolveService(HttpRequest request) {
+        URI uri = request.getRequestUri();
+        if (uri == null || uri.isAbsolute()) {
+            return resolver.resolveService(request);
+        }
+
+        String key = request.getMethod() + " " + uri.getRawPath();
+        String serviceName = cache.get(key);
+        if (serviceName == null) {
+            serviceName = resolver.resolveService(request);
+            if (serviceName == null) {
+                serviceName = UNRESOLVED;
+            }
+            cache.put(key, serviceName);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Cached resolution for [" + key + "]");
+            }
+        }
+        return serviceName == UNRESOLVED ? null : serviceName;
+    }
+
+    /**
+     * Discards all cached resolutions
+     */
+    public void clear() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.resolver;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.asyncweb.common.Cookie;
+import org.apache.asyncweb.common.HttpHeaderConstants;
+import org.apache.asyncweb.common.HttpMethod;
+import org.apache.asyncweb.common.HttpRequest;
+import org.apache.asyncweb.common.HttpVersion;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>ServiceResolver</code> which selects a child resolver based on
+ * the host a request is addressed to, and delegates resolution to it.
+ * <p>
+ * The host is taken from the request URI if it is absolute, and from the
+ * <code>Host</code> header otherwise. Any port is ignored, and hosts are
+ * matched case-insensitively.
+ * </p>
+ * <p>
+ * Hosts are registered either by name (<code>www.example.com</code>), or as
+ * a wildcard matching any sub-domain (<code>*.example.com</code>). An exact
+ * registration takes precedence over a wildcard, and a more specific
+ * wildcard takes precedence over a less specific one. Requests for hosts
+ * which are not matched are delegated to the default resolver, if any.
+ * </p>
+ * <p>
+ * Lookups are hash based, so the cost of resolving a host does not depend
+ * on the number of registered hosts.
+ * </p>
+ * <p>
+ * Requests with an absolute URI are presented to the child resolver with
+ * their URI reduced to its path and query, so path based resolvers can
+ * resolve them.
+ * </p>
+ */
+public class VirtualHostResolver implements ServiceResolver {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(VirtualHostResolver.class);
+
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private Map<String, ServiceResolver> hostResolvers = new HashMap<String, ServiceResolver>();
+
+    private Map<String, ServiceResolver> wildcardResolvers = new HashMap<String, ServiceResolver>();
+
+    private ServiceResolver defaultResolver;
+
+    /**
+     * Adds a resolver for a host name or wildcard.
+     * Any existing resolver for the same host is replaced.
+     *
+     * @param host      The host name (for example <code>www.example.com</code>),
+     *                  or a wildcard (for example <code>*.example.com</code>)
+     * @param resolver  The resolver employed for requests to the host
+     */
+    public void addHostResolver(String host, ServiceResolver resolver) {
+        String name = normalizeHost(host);
+        ServiceResolver existing;
+        if (name.startsWith(WILDCARD_PREFIX)) {
+            existing = wildcardResolvers.put(
+                    name.substring(WILDCARD_PREFIX.length()), resolver);
+        } else {
+            existing = hostResolvers.put(name, resolver);
+        }
+        if (existing != null) {
+            LOG.info("Existing resolver for host [" + name + "] replaced by ["
+                    + resolver + "]");
+        } else {
+            LOG.info("Mapped host [" + name + "] to resolver [" + resolver
+                    + "]");
+        }
+    }
+
+    /**
+     * Sets all host - resolver mappings from a given map.
+     * Any existing mappings are removed
+     *
+     * @param map  The map to set from
+     */
+    public void setHostResolvers(Map<String, ServiceResolver> map) {
+        hostResolvers.clear();
+        wildcardResolvers.clear();
+        for (Entry<String, ServiceResolver> entry : map.entrySet()) {
+            addHostResolver(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Sets the resolver employed for requests which do not match any
+     * registered host. By default, such requests are not resolved.
+     *
+     * @param defaultResolver  The default resolver
+     */
+    public void setDefaultResolver(ServiceResolver defaultResolver) {
+        this.defaultResolver = defaultResolver;
+        LOG.info("Default resolver: " + defaultResolver);
+    }
+
+    /**
+     * Resolves the specified request by delegating to the resolver
+     * registered for the host it is addressed to.
+     *
+     * @param request  The request to resolve
+     * @return The service name, or <code>null</code> if no resolver is
+     *         registered for the host or the resolver fails to resolve
+     *         the request
+     */
+    public String resolveService(HttpRequest request) {
+        URI uri = request.getRequestUri();
+        String host;
+        if (uri != null && uri.isAbsolute()) {
+            host = uri.getHost();
+            request = new OriginFormRequest(request);
+        } else {
+            host = request.getHeader(HttpHeaderConstants.KEY_HOST);
+        }
+
+        ServiceResolver resolver = resolverFor(host);
+        if (resolver == null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("No resolver for host [" + host + "]");
+            }
+            return null;
+        }
+        return resolver.resolveService(request);
+    }
+
+    /**
+     * Locates the resolver for a host: an exact match is tried first, followed
+     * by wildcards from the most to the least specific, and finally the
+     * default resolver.
+     */
+    private ServiceResolver resolverFor(String host) {
+        if (host == null) {
+            return defaultResolver;
+        }
+        String name = normalizeHost(host);
+        ServiceResolver resolver = hostResolvers.get(name);
+        if (resolver != null) {
+            return resolver;
+        }
+        if (!wildcardResolvers.isEmpty()) {
+            int dot = name.indexOf('.');
+            while (dot != -1) {
+                resolver = wildcardResolvers.get(name.substring(dot + 1));
+                if (resolver != null) {
+                    return resolver;
+                }
+                dot = name.indexOf('.', dot + 1);
+            }
+        }
+        return defaultResolver;
+    }
+
+    /**
+     * Lower-cases the specified host and strips any port and trailing dot
+     */
+    private static String normalizeHost(String host) {
+        String name = host.trim();
+        int end = name.length();
+        if (name.startsWith("[")) {
+            // IPv6 literal
+            int close = name.indexOf(']');
+            if (close != -1) {
+                end = close + 1;
+            }
+        } else {
+            int colon = name.indexOf(':');
+            if (colon != -1) {
+                end = colon;
+            }
+        }
+        if (end > 0 && name.charAt(end - 1) == '.') {
+            --end;
+        }
+        return name.substring(0, end).toLowerCase();
+    }
+
+    /**
+     * Presents a request with an absolute URI as though its URI was
+     * relative to the host
+     */
+    private static class OriginFormRequest implements HttpRequest {
+
+        private static final long serialVersionUID = 1L;
+
+        private final HttpRequest request;
+
+        private final URI requestUri;
+
+        OriginFormRequest(HttpRequest request) {
+            this.request = request;
+            URI uri = request.getRequestUri();
+            URI relative;
+            try {
+                relative = new URI(null, null, uri.getPath(), uri.getQuery(),
+                        null);
+            } catch (URISyntaxException e) {
+                relative = uri;
+            }
+            this.requestUri = relative;
+        }
+
+        public URI getRequestUri() {
+            return requestUri;
+        }
+
+        public boolean containsParameter(String name) {
+            return request.containsParameter(name);
+        }
+
+        public String getParameter(String name) {
+            return request.getParameter(name);
+        }
+
+        public Map<String, List<String>> getParameters() {
+            return request.getParameters();
+        }
+
+        public HttpMethod getMethod() {
+            return request.getMethod();
+        }
+
+        public boolean isKeepAlive() {
+            return request.isKeepAlive();
+        }
+
+        public boolean requiresContinuationResponse() {
+            return request.requiresContinuationResponse();
+        }
+
+        public HttpVersion getProtocolVersion() {
+            return request.getProtocolVersion();
+        }
+
+        public String getContentType() {
+            return request.getContentType();
+        }
+
+        public String getHeader(String name) {
+            return request.getHeader(name);
+        }
+
+        public boolean containsHeader(String name) {
+            return request.containsHeader(name);
+        }
+
+        public Map<String, List<String>> getHeaders() {
+            return request.getHeaders();
+        }
+
+        public Set<Cookie> getCookies() {
+            return request.getCookies();
+        }
+
+        public IoBuffer getContent() {
+            return request.getContent();
+        }
+    }
+}
@@ -19,9 +19,10 @@
  */
 package org.apache.asyncweb.server.session;
 
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.asyncweb.server.HttpSession;
 import org.apache.asyncweb.server.util.TimedPermit;
@@ -34,7 +35,7 @@ import org.apache.asyncweb.server.util.TimedPermit;
 class BasicSession implements HttpSession
 {
 
-    private TimedPermit permit;
+    private volatile TimedPermit permit;
 
     private boolean isAttached;
 
@@ -46,8 +47,20 @@ class BasicSession implements HttpSession
 
     private String id;
 
-    private Map<String, Object> values = Collections
-            .synchronizedMap(new HashMap<String, Object>());
+    /**
+     * Created on first use, as most sessions never hold values
+     */
+    private Map<String, Object> values;
+
+    /**
+     * The values set since changes were last published, if tracked
+     */
+    private Map<String, Object> changedValues;
+
+    /**
+     * The keys removed since changes were last published, if tracked
+     */
+    private Set<String> removedKeys;
 
     /**
      * @param owner  The owner of this session
@@ -58,15 +71,31 @@ class BasicSession implements HttpSession
     }
 
     public Object getValue(String key) {
-        return values.get(key);
+        synchronized (lock) {
+            return values == null ? null : values.get(key);
+        }
     }
 
     public void setValue(String key, Object value) {
-        values.put(key, value);
+        synchronized (lock) {
+            if (values == null) {
+                values = new HashMap<String, Object>();
+            }
+            values.put(key, value);
+            recordSet(key, value);
+        }
     }
 
     public Object removeValue(String key) {
-        return values.remove(key);
+        Object removed;
+        synchronized (lock) {
+            if (values == null || !values.containsKey(key)) {
+                return null;
+            }
+            removed = values.remove(key);
+            recordRemoved(key);
+        }
+        return removed;
     }
 
     public boolean isAttached() {
@@ -86,6 +115,7 @@ class BasicSession implements HttpSession
     public void destroy() {
         if (destroyIfActive()) {
             owner.sessionDestroyed(this);
+            released();
         }
     }
 
@@ -99,7 +129,8 @@ class BasicSession implements HttpSession
     /**
      * Instructs this session to expire.
      * If this session is not already expired, expiration notifications
-     * are fired
+     * are fired. The session is released by our owner once its listeners
+     * have been notified
      */
     void expire() {
         if (destroyIfActive()) {
@@ -126,12 +157,113 @@ class BasicSession implements HttpSession
         isAttached = true;
     }
 
+    /**
+     * Records that a value has been set, if our owner tracks changes.
+     * Subclasses which hold values themselves must invoke this while
+     * holding the lock under which the value was set, so changes are
+     * recorded in the order they were made
+     *
+     * @param key    The key of the value
+     * @param value  The value set
+     */
+    void valueSet(String key, Object value) {
+        synchronized (lock) {
+            recordSet(key, value);
+        }
+    }
+
+    /**
+     * Records that a value has been removed, if our owner tracks changes.
+     * Subject to the same ordering requirement as
+     * {@link #valueSet(String, Object)}
+     *
+     * @param key  The key of the removed value
+     */
+    void valueRemoved(String key) {
+        synchronized (lock) {
+            recordRemoved(key);
+        }
+    }
+
+    /**
+     * Records a set value. Must be invoked holding our lock
+     */
+    private void recordSet(String key, Object value) {
+        if (!owner.isTrackingChanges()) {
+            return;
+        }
+        if (changedValues == null) {
+            changedValues = new HashMap<String, Object>();
+        }
+        changedValues.put(key, value);
+        if (removedKeys != null) {
+            removedKeys.remove(key);
+        }
+    }
+
+    /**
+     * Records a removed value. Must be invoked holding our lock
+     */
+    private void recordRemoved(String key) {
+        if (!owner.isTrackingChanges()) {
+            return;
+        }
+        if (removedKeys == null) {
+            removedKeys = new HashSet<String>();
+        }
+        removedKeys.add(key);
+        if (changedValues != null) {
+            changedValues.remove(key);
+        }
+    }
+
+    /**
+     * Requests our owner to publish the changes recorded since they were
+     * last published, if any
+     */
+    void publishChanges() {
+        Map<String, Object> changed;
+        Set<String> removed;
+        synchronized (lock) {
+            if (changedValues == null && removedKeys == null) {
+                return;
+            }
+            changed = changedValues;
+            removed = removedKeys;
+            changedValues = null;
+            removedKeys = null;
+            if (isDestroyed) {
+                return;
+            }
+        }
+        owner.fireChanged(this, changed == null ? new HashMap<String, Object>()
+                : changed, removed == null ? new HashSet<String>() : removed);
+    }
+
+    /**
+     * @return A copy of the values bound to this session
+     */
+    Map<String, Object> copyValues() {
+        synchronized (lock) {
+            return values == null ? new HashMap<String, Object>()
+                    : new HashMap<String, Object>(values);
+        }
+    }
+
+    /**
+     * Invoked once this session has been destroyed or expired, and listeners
+     * have been notified. Sessions which hold their values outside of the
+     * heap release them here
+     */
+    void released() {
+    }
+
     /**
      * Destroys this session if it is not destroyed already.
      *
      * @return  <code>true</code> if this session is successfully
      */
-    private boolean destroyIfActive() {
+    boolean destroyIfActive() {
         synchronized (lock) {
             if (isDestroyed) {
                 return false;
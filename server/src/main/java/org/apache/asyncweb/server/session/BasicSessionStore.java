@@ -22,14 +22,22 @@ package org.apache.asyncweb.server.session;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.util.BatchPermitExpirationListener;
 import org.apache.asyncweb.server.util.LinkedPermitIssuer;
 import org.apache.asyncweb.server.util.TimedPermit;
-import org.apache.asyncweb.server.util.PermitExpirationListener;
 import org.apache.asyncweb.server.util.TimedPermitIssuer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,9 +46,25 @@ import org.slf4j.LoggerFactory;
  * A simple <code>SessionStore</code> implementation which holds all session
  * data in memory. A <code>TimedPermitIssuer</code> is employed to issue a time-out
  * permit for each issued session.
+ * <p>
+ * Sessions are held in a concurrent map, and listeners in a copy-on-write
+ * list, so creating, locating and expiring sessions does not serialize on
+ * a store-wide lock, and listeners are notified without holding one. By
+ * default, permits are issued by a <code>LinkedPermitIssuer</code>. To make
+ * renewing a session on access lock free too, construct the store with a
+ * <code>TimingWheelPermitIssuer</code>.
+ * </p>
+ * <p>
+ * Sessions whose permits expire together are removed as a batch, and their
+ * expiry notifications are dispatched as a single task to the configured
+ * expiry executor - so a slow listener does not hold up the expiry of other
+ * sessions. Without an executor, listeners are notified on the thread of
+ * the permit issuer. The lag between the time sessions were due to expire
+ * and the time their listeners are notified is recorded.
+ * </p>
  *
  */
-public class BasicSessionStore implements HttpSessionStore {
+public class BasicSessionStore implements ChangeTrackingSessionStore {
 
     private static final Logger LOG = LoggerFactory
             .getLogger(BasicSessionStore.class);
@@ -50,15 +74,25 @@ public class BasicSessionStore implements HttpSessionStore {
      */
     private static final long DEFAULT_SESSION_TIMEOUT = 900000;
 
-    private Map<String, HttpSession> sessionMap = Collections
-            .synchronizedMap(new HashMap<String, HttpSession>());
+    private final ConcurrentMap<String, BasicSession> sessionMap = new ConcurrentHashMap<String, BasicSession>();
 
-    private List<HttpSessionListener> listeners = Collections
-            .synchronizedList(new ArrayList<HttpSessionListener>());
+    private volatile List<HttpSessionListener> listeners = new CopyOnWriteArrayList<HttpSessionListener>();
 
-    private TimedPermitIssuer permitIssuer;
+    private volatile List<HttpSessionChangeListener> changeListeners = new CopyOnWriteArrayList<HttpSessionChangeListener>();
 
-    private boolean isClosed;
+    private final TimedPermitIssuer permitIssuer;
+
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+
+    private volatile Executor expiryExecutor;
+
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private final AtomicInteger pendingExpiryCount = new AtomicInteger();
+
+    private volatile long lastExpiryLag;
+
+    private final AtomicLong maxExpiryLag = new AtomicLong();
 
     /**
      * Constructs with the default session timeout
@@ -73,11 +107,21 @@ public class BasicSessionStore implements HttpSessionStore {
      * @param sessionTimeout  The session timeout (in ms)
      */
     public BasicSessionStore(long sessionTimeout) {
-        permitIssuer = new LinkedPermitIssuer(sessionTimeout);
-        permitIssuer.addPermitExpirationListener(new TimeoutListener());
+        this(new LinkedPermitIssuer(sessionTimeout));
         LOG.info("BasicSessionStore timeout: " + sessionTimeout + "ms");
     }
 
+    /**
+     * Constructs with a specified permit issuer, which determines the
+     * session timeout.
+     *
+     * @param permitIssuer  The issuer of session time-out permits
+     */
+    public BasicSessionStore(TimedPermitIssuer permitIssuer) {
+        this.permitIssuer = permitIssuer;
+        permitIssuer.addPermitExpirationListener(new TimeoutListener());
+    }
+
     /**
      * Adds a listener to this store
      *
@@ -94,9 +138,86 @@ public class BasicSessionStore implements HttpSessionStore {
      * @param listeners  The listeners to be added
      */
     public void setSessionListeners(Collection<HttpSessionListener> listeners) {
-        synchronized (this.listeners) {
-            this.listeners.clear();
-            this.listeners.addAll(listeners);
+        this.listeners = new CopyOnWriteArrayList<HttpSessionListener>(
+                listeners);
+    }
+
+    /**
+     * Adds a change listener to this store.
+     * Sessions only record their changes while a change listener is present
+     *
+     * @param listener The listener to add
+     */
+    public void addSessionChangeListener(HttpSessionChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Sets the change listeners employed by this store.
+     * Any existing change listeners are removed
+     *
+     * @param listeners  The listeners to be added
+     */
+    public void setSessionChangeListeners(
+            Collection<HttpSessionChangeListener> listeners) {
+        this.changeListeners = new CopyOnWriteArrayList<HttpSessionChangeListener>(
+                listeners);
+    }
+
+    /**
+     * Sets the executor employed to notify listeners of expired sessions.
+     * By default, listeners are notified on the thread of our permit issuer.
+     * If the executor rejects a batch of notifications, they are performed
+     * by the expiring thread
+     *
+     * @param expiryExecutor  The executor, or <code>null</code> to notify
+     *                        listeners on the expiring thread
+     */
+    public void setExpiryExecutor(Executor expiryExecutor) {
+        this.expiryExecutor = expiryExecutor;
+    }
+
+    /**
+     * @return The number of sessions expired by this store
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * @return The number of batches of expiry notifications submitted to
+     *         our expiry executor which have not yet completed
+     */
+    public int getPendingExpiryCount() {
+        return pendingExpiryCount.get();
+    }
+
+    /**
+     * @return The time (in ms) between the most recently notified expiry
+     *         falling due and its listeners being notified
+     */
+    public long getLastExpiryLag() {
+        return lastExpiryLag;
+    }
+
+    /**
+     * @return The greatest time (in ms) between an expiry falling due and
+     *         its listeners being notified
+     */
+    public long getMaxExpiryLag() {
+        return maxExpiryLag.get();
+    }
+
+    /**
+     * Publishes the changes made to the values of the specified session
+     * since its changes were last published, if any, to our change
+     * listeners
+     *
+     * @param session  The session used by the completed request
+     */
+    public void requestCompleted(HttpSession session) {
+        if (session instanceof BasicSession && isTrackingChanges()) {
+            ((BasicSession) session).publishChanges();
         }
     }
 
@@ -105,23 +226,16 @@ public class BasicSessionStore implements HttpSessionStore {
      * Our permit issuer is closed, and all sessions are destroyed.
      */
     public void close() {
-        List<HttpSession> closureList = null;
-
-        synchronized (sessionMap) {
-            if (isClosed) {
-                LOG.debug("Already closed");
-                return;
-            }
-            LOG.debug("BasicSessionStore closing");
-            permitIssuer.close();
-            isClosed = true;
-            closureList = new ArrayList<HttpSession>(sessionMap.values());
+        if (!isClosed.compareAndSet(false, true)) {
+            LOG.debug("Already closed");
+            return;
+        }
+        LOG.debug("BasicSessionStore closing");
+        permitIssuer.close();
+        for (BasicSession session : sessionMap.values()) {
+            LOG.debug("Closure: Destroying session: " + session.getId());
+            session.destroy();
         }
-        for ( HttpSession httpSession : closureList) {
-         BasicSession session = (BasicSession) httpSession;
-         LOG.debug("Closure: Destroying session: " + session.getId());
-         session.destroy();
-      }
     }
 
     /**
@@ -132,28 +246,57 @@ public class BasicSessionStore implements HttpSessionStore {
      *         held for the specified key
      */
     public HttpSession createSession(String key) {
-        BasicSession created = null;
-        synchronized (sessionMap) {
-            if (isClosed) {
-                throw new IllegalStateException("Store closed");
-            }
-            if (!sessionMap.containsKey(key)) {
-                created = new BasicSession(key, this);
-                sessionMap.put(key, created);
-                TimedPermit permit = permitIssuer.issuePermit(created);
-                created.setPermit(permit);
-            }
+        if (isClosed.get()) {
+            throw new IllegalStateException("Store closed");
         }
-        if (created != null) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("New session created with key '" + key
-                        + "'. Firing notifications");
-            }
-            fireCreated(created);
+        BasicSession created = newSession(key);
+        TimedPermit permit = permitIssuer.issuePermit(created);
+        created.setPermit(permit);
+        if (sessionMap.putIfAbsent(key, created) != null) {
+            permit.cancel();
+            return null;
+        }
+        if (isClosed.get()) {
+            // Raced with close - which may not have seen the new session
+            sessionMap.remove(key, created);
+            permit.cancel();
+            throw new IllegalStateException("Store closed");
         }
+        sessionAdded(created);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("New session created with key '" + key
+                    + "'. Firing notifications");
+        }
+        fireCreated(created);
         return created;
     }
 
+    /**
+     * Invoked once a created session has been added to this store, before
+     * the session listeners are notified
+     *
+     * @param session  The created session
+     */
+    void sessionAdded(BasicSession session) {
+    }
+
+    /**
+     * Instantiates a session for the specified key
+     *
+     * @param key  The session key
+     * @return The new session
+     */
+    BasicSession newSession(String key) {
+        return new BasicSession(key, this);
+    }
+
+    /**
+     * @return The sessions currently held by this store
+     */
+    Collection<BasicSession> sessions() {
+        return sessionMap.values();
+    }
+
     /**
      * Locates the session with the specified key.
      * If the session is found, we request it to renew its access permit.
@@ -163,7 +306,7 @@ public class BasicSessionStore implements HttpSessionStore {
      *             specified key was found
      */
     public HttpSession locateSession(String key) {
-        BasicSession session = (BasicSession) sessionMap.get(key);
+        BasicSession session = sessionMap.get(key);
         if (session != null) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Located session with key '" + key
@@ -181,13 +324,106 @@ public class BasicSessionStore implements HttpSessionStore {
      * @param session  The expired session
      */
     void sessionExpired(BasicSession session) {
+        removeExpired(session);
+        notifyExpired(Collections.singletonList(session), System
+                .currentTimeMillis());
+    }
+
+    /**
+     * Removes an expired session from our session map
+     *
+     * @param session  The expired session
+     */
+    void removeExpired(BasicSession session) {
         if (LOG.isDebugEnabled()) {
             LOG
                     .debug("Session has been expired. Processing notifications for '"
                             + session.getId() + "'");
         }
-        sessionMap.remove(session.getId());
-        fireExpiry(session);
+        sessionMap.remove(session.getId(), session);
+    }
+
+    /**
+     * Notifies listeners of a batch of expired sessions - on our expiry
+     * executor if we have one.
+     *
+     * @param sessions  The expired sessions
+     * @param dueTime   The time by which the sessions were due to expire
+     */
+    private void notifyExpired(final List<BasicSession> sessions,
+            final long dueTime) {
+        expiredCount.addAndGet(sessions.size());
+        Executor executor = expiryExecutor;
+        if (executor != null) {
+            pendingExpiryCount.incrementAndGet();
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            fireExpiries(sessions, dueTime);
+                        } finally {
+                            pendingExpiryCount.decrementAndGet();
+                        }
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                pendingExpiryCount.decrementAndGet();
+                LOG.warn("Expiry executor rejected notifications for "
+                        + sessions.size() + " sessions. Notifying inline");
+            }
+        }
+        fireExpiries(sessions, dueTime);
+    }
+
+    /**
+     * Expires a session early, notifying listeners on the calling thread
+     * rather than through our expiry executor. The session is released once
+     * its listeners have been notified
+     *
+     * @param session  The session
+     * @return <code>false</code> if the session was already destroyed
+     */
+    boolean expireNow(BasicSession session) {
+        if (!session.destroyIfActive()) {
+            return false;
+        }
+        removeExpired(session);
+        expiredCount.incrementAndGet();
+        fireExpiries(Collections.singletonList(session), System
+                .currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Fires expiry notification for each of a batch of sessions, and then
+     * releases them
+     *
+     * @param sessions  The expired sessions
+     * @param dueTime   The time by which the sessions were due to expire
+     */
+    private void fireExpiries(List<BasicSession> sessions, long dueTime) {
+        long lag = Math.max(0, System.currentTimeMillis() - dueTime);
+        lastExpiryLag = lag;
+        long max;
+        while (lag > (max = maxExpiryLag.get())) {
+            if (maxExpiryLag.compareAndSet(max, lag)) {
+                break;
+            }
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Notifying expiry of " + sessions.size()
+                    + " sessions. Lag: " + lag + "ms");
+        }
+        for (BasicSession session : sessions) {
+            try {
+                fireExpiry(session);
+            } catch (RuntimeException e) {
+                LOG.error("Unexpected exception from session listener", e);
+            } finally {
+                session.released();
+            }
+        }
     }
 
     /**
@@ -204,20 +440,30 @@ public class BasicSessionStore implements HttpSessionStore {
                     .debug("Session has been destroyed. Processing notifications for '"
                             + session.getId() + "'");
         }
-        sessionMap.remove(session.getId());
+        sessionMap.remove(session.getId(), session);
         fireDestroyed(session);
     }
 
     /**
-     * Invoked when the permit associated with the specified session expires.
-     * We simply request the session to expire itself.
-     * If the session is not already destroyed, it will request us to fire
-     * notifications on its behalf.
+     * @return <code>true</code> if sessions should record their changes
+     */
+    boolean isTrackingChanges() {
+        return !changeListeners.isEmpty();
+    }
+
+    /**
+     * Fires change notification to all change listeners associated with
+     * this store
      *
-     * @param session  The expired session
+     * @param session        The changed session
+     * @param changedValues  The values set
+     * @param removedKeys    The keys removed
      */
-    private void sessionPermitExpired(BasicSession session) {
-        session.expire();
+    void fireChanged(HttpSession session, Map<String, Object> changedValues,
+            Set<String> removedKeys) {
+        for (HttpSessionChangeListener listener : changeListeners) {
+            listener.sessionChanged(session, changedValues, removedKeys);
+        }
     }
 
     /**
@@ -226,10 +472,8 @@ public class BasicSessionStore implements HttpSessionStore {
      * @param session  The expired session
      */
     private void fireCreated(HttpSession session) {
-        synchronized (listeners) {
-            for (HttpSessionListener listener : listeners) {
+        for (HttpSessionListener listener : listeners) {
             listener.sessionCreated(session);
-         }
         }
     }
 
@@ -239,10 +483,8 @@ public class BasicSessionStore implements HttpSessionStore {
      * @param session  The expired session
      */
     private void fireDestroyed(HttpSession session) {
-        synchronized (listeners) {
-            for (HttpSessionListener listener : listeners) {
+        for (HttpSessionListener listener : listeners) {
             listener.sessionDestroyed(session);
-         }
         }
     }
 
@@ -252,28 +494,52 @@ public class BasicSessionStore implements HttpSessionStore {
      * @param session  The expired session
      */
     private void fireExpiry(HttpSession session) {
-        synchronized (listeners) {
-            for (HttpSessionListener listener : listeners) {
+        for (HttpSessionListener listener : listeners) {
             listener.sessionExpired(session);
-         }
         }
     }
 
     /**
      * Receives notifications of timed out permits issued by this store,
-     * and triggers expiry of the associated session
+     * and triggers expiry of the associated sessions
      *
      */
-    private class TimeoutListener implements PermitExpirationListener
+    private class TimeoutListener implements BatchPermitExpirationListener
     {
 
         /**
-         * Invoked when a permit issued for a session expires
+         * Invoked when a permit issued for a session expires.
+         * We simply request the session to expire itself.
+         * If the session is not already destroyed, it will request us to fire
+         * notifications on its behalf.
          *
          * @param session  The session which has expired
          */
         public void permitExpired(Object session) {
-            sessionPermitExpired((BasicSession) session);
+            ((BasicSession) session).expire();
+        }
+
+        /**
+         * Invoked when the permits issued for a number of sessions expire.
+         * Each session not already destroyed is removed, and listeners are
+         * notified of the batch at once
+         *
+         * @param targets     The sessions which have expired
+         * @param expiryTime  The time by which the sessions were due to expire
+         */
+        public void permitsExpired(List<Object> targets, long expiryTime) {
+            List<BasicSession> expired = new ArrayList<BasicSession>(targets
+                    .size());
+            for (Object target : targets) {
+                BasicSession session = (BasicSession) target;
+                if (session.destroyIfActive()) {
+                    removeExpired(session);
+                    expired.add(session);
+                }
+            }
+            if (!expired.isEmpty()) {
+                notifyExpired(expired, expiryTime);
+            }
         }
 
     }
@@ -0,0 +1,43 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import org.apache.asyncweb.server.HttpSession;
+
+/**
+ * A <code>HttpSessionStore</code> which tracks the changes made to its
+ * sessions, and publishes them as each request using a session completes.
+ * Session accessors inform stores implementing this interface of each
+ * completed request.
+ *
+ */
+public interface ChangeTrackingSessionStore extends HttpSessionStore {
+
+    /**
+     * Invoked once a response has been committed to a request which used
+     * the specified session. The changes made during the request are
+     * published. Changes made after the response is committed are published
+     * once a later request completes.
+     *
+     * @param session  The session, as created or located by this store
+     */
+    public void requestCompleted(HttpSession session);
+
+}
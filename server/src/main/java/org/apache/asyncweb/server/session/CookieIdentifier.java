@@ -21,6 +21,7 @@ package org.apache.asyncweb.server.session;
 
 import org.apache.asyncweb.common.Cookie;
 import org.apache.asyncweb.common.DefaultCookie;
+import org.apache.asyncweb.common.DefaultHttpRequest;
 import org.apache.asyncweb.common.HttpRequest;
 import org.apache.asyncweb.common.MutableCookie;
 import org.apache.asyncweb.common.MutableHttpResponse;
@@ -52,12 +53,17 @@ public class CookieIdentifier implements HttpSessionIdentifier {
 
     /**
      * Extracts a session key from the session cookie supplied with the request -
-     * if any
+     * if any.
+     * The session cookie is extracted directly from the <code>Cookie</code>
+     * header of decoded requests, so other cookies are not parsed
      *
      * @param  request  The request
      * @return The session key, or null if a session cookie was not located
      */
     public String getSessionKey( HttpRequest request) {
+        if (request instanceof DefaultHttpRequest) {
+            return ((DefaultHttpRequest) request).getCookieValue(cookieId);
+        }
         Cookie sessionCookie = null;
         for (Cookie c : request.getCookies()) {
             if (c.getName().equals(cookieId)) {
@@ -0,0 +1,133 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.asyncweb.server.HttpServiceContext;
+import org.apache.asyncweb.server.HttpSession;
+
+/**
+ * A session whose state is held by the client in a cookie, as issued by a
+ * <code>CookieSessionAccessor</code>. Each instance is bound to the request
+ * it was decoded from or created for.
+ *
+ */
+class CookieSession implements HttpSession {
+
+    private final String id;
+
+    private final long issueTime;
+
+    private final boolean isAttached;
+
+    private final HttpServiceContext context;
+
+    private final CookieSessionAccessor accessor;
+
+    private final Map<String, Object> values;
+
+    private boolean isDirty;
+
+    private boolean isDestroyed;
+
+    /**
+     * @param id         The id of this session
+     * @param issueTime  The time at which the cookie holding this session
+     *                   was issued, or the current time for a new session
+     * @param values     The values of this session
+     * @param isAttached <code>true</code> if this session was decoded from
+     *                   the request
+     * @param context    The context this session is bound to
+     * @param accessor   The accessor which created this session
+     */
+    CookieSession(String id, long issueTime, Map<String, Object> values,
+            boolean isAttached, HttpServiceContext context,
+            CookieSessionAccessor accessor) {
+        this.id = id;
+        this.issueTime = issueTime;
+        this.values = values;
+        this.isAttached = isAttached;
+        this.context = context;
+        this.accessor = accessor;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public synchronized Object getValue(String key) {
+        return values.get(key);
+    }
+
+    public synchronized void setValue(String key, Object value) {
+        values.put(key, value);
+        isDirty = true;
+    }
+
+    public synchronized Object removeValue(String key) {
+        if (!values.containsKey(key)) {
+            return null;
+        }
+        isDirty = true;
+        return values.remove(key);
+    }
+
+    public boolean isAttached() {
+        return isAttached;
+    }
+
+    public synchronized boolean isValid() {
+        return !isDestroyed;
+    }
+
+    public void destroy() {
+        synchronized (this) {
+            if (isDestroyed) {
+                return;
+            }
+            isDestroyed = true;
+        }
+        accessor.sessionDestroyed(context, this);
+    }
+
+    /**
+     * @return The time at which the cookie holding this session was issued
+     */
+    long getIssueTime() {
+        return issueTime;
+    }
+
+    /**
+     * @return <code>true</code> if the values of this session have changed
+     *         since it was decoded or created
+     */
+    synchronized boolean isDirty() {
+        return isDirty;
+    }
+
+    /**
+     * @return A copy of the values of this session
+     */
+    synchronized Map<String, Object> copyValues() {
+        return new HashMap<String, Object>(values);
+    }
+}
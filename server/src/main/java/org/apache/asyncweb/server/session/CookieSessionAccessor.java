@@ -0,0 +1,397 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.asyncweb.common.MutableHttpResponse;
+import org.apache.asyncweb.server.HttpClientListener;
+import org.apache.asyncweb.server.HttpServiceContext;
+import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.util.UrlSafeBase64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>SessionAccessor</code> which holds no sessions on the server:
+ * the state of each session is serialized into a cookie held by the client.
+ * Any node sharing the same secret can therefore serve any request.
+ * <p>
+ * Session cookies are signed by a <code>SignedCookieIdentifier</code>, so
+ * they can not be forged or altered, and may optionally be encrypted (with
+ * AES) so their content is not visible to the client. A cookie is issued
+ * when a session is created or its values change, and is re-issued once it
+ * is more than half way through the session time-out - after which it is
+ * no longer accepted.
+ * </p>
+ * <p>
+ * Session values must be <code>Serializable</code>, and are best kept
+ * small: browsers limit cookies to around 4KB, and the cookie is sent with
+ * every request. A session which does not fit within the maximum cookie
+ * size is not issued.
+ * </p>
+ * <p>
+ * Values are only read from a cookie if every class they refer to has
+ * been allowed. Strings, boxed primitives, <code>BigInteger</code>,
+ * <code>BigDecimal</code>, <code>Date</code> and arrays of these are
+ * allowed by default, and other classes can be allowed with
+ * <code>addValueClass</code>. A cookie holding any other class is treated
+ * as holding no session.
+ * </p>
+ * <p>
+ * As no state is held on the server, destroying a session only clears the
+ * cookie held by the client: a client which retained a copy of the cookie
+ * may continue to use it until it times out.
+ * </p>
+ *
+ */
+public class CookieSessionAccessor implements HttpSessionAccessor {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(CookieSessionAccessor.class);
+
+    /**
+     * Default session timeout of 15 minutes
+     */
+    private static final long DEFAULT_SESSION_TIMEOUT = 900000;
+
+    /**
+     * Default maximum cookie size, within the limits of common browsers
+     */
+    private static final int DEFAULT_MAX_COOKIE_SIZE = 4000;
+
+    private static final byte FORMAT_VERSION = 2;
+
+    private static final String CIPHER = "AES/CBC/PKCS5Padding";
+
+    private static final int IV_LENGTH = 16;
+
+    private SignedCookieIdentifier identifier = new SignedCookieIdentifier();
+
+    private HttpSessionKeyFactory keyFactory;
+
+    private long sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+
+    private int maxCookieSize = DEFAULT_MAX_COOKIE_SIZE;
+
+    private SecretKeySpec encryptionKey;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final SessionValueClasses valueClasses = new SessionValueClasses();
+
+    /**
+     * Ciphers are not thread safe
+     */
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>();
+
+    /**
+     * Sessions destroyed while processing a request, which must not be
+     * decoded again for the same request
+     */
+    private final ConcurrentMap<HttpServiceContext, CookieSession> destroyedSessions = new ConcurrentHashMap<HttpServiceContext, CookieSession>();
+
+    /**
+     * Constructs with the default identifier and key factory
+     */
+    public CookieSessionAccessor() {
+        StripedSecureRandomKeyFactory secureKeyFactory = new StripedSecureRandomKeyFactory();
+        secureKeyFactory.start();
+        keyFactory = secureKeyFactory;
+    }
+
+    /**
+     * Sets the identifier which signs and verifies session cookies
+     *
+     * @param identifier  The identifier
+     */
+    public void setSessionIdentifier(SignedCookieIdentifier identifier) {
+        this.identifier = identifier;
+    }
+
+    /**
+     * Sets the secret session cookies are signed with, as a convenience for
+     * configuring the default identifier. The secret must be shared by all
+     * nodes serving the same sessions
+     *
+     * @param secret  The secret
+     */
+    public void setSecret(String secret) {
+        identifier.setSecret(secret);
+    }
+
+    /**
+     * Sets the key session cookies are encrypted with. By default, cookies
+     * are signed but not encrypted
+     *
+     * @param key  A 128, 192 or 256 bit AES key
+     */
+    public void setEncryptionKey(byte[] key) {
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("Invalid AES key length: "
+                    + key.length);
+        }
+        this.encryptionKey = new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Sets the <code>SessionKeyFactory</code> employed for creating the ids
+     * of new sessions.
+     * By default, a <code>StripedSecureRandomKeyFactory</code> is employed
+     *
+     * @param keyFactory  The key factory to be employed
+     */
+    public void setSessionKeyFactory(HttpSessionKeyFactory keyFactory) {
+        this.keyFactory = keyFactory;
+    }
+
+    /**
+     * Sets the time after which an unmodified session cookie is no longer
+     * accepted
+     *
+     * @param sessionTimeout  The session timeout (in ms)
+     */
+    public void setSessionTimeout(long sessionTimeout) {
+        if (sessionTimeout <= 0) {
+            throw new IllegalArgumentException("sessionTimeout: "
+                    + sessionTimeout);
+        }
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    /**
+     * Sets the maximum size of a session cookie value
+     *
+     * @param maxCookieSize  The maximum size (in characters)
+     */
+    public void setMaxCookieSize(int maxCookieSize) {
+        this.maxCookieSize = maxCookieSize;
+    }
+
+    /**
+     * Allows session values read from cookies to refer to a class
+     *
+     * @param valueClass  The class
+     */
+    public void addValueClass(Class<?> valueClass) {
+        valueClasses.add(valueClass.getName());
+    }
+
+    public void init() {
+        LOG.info("CookieSessionAccessor timeout: " + sessionTimeout
+                + "ms. Encrypted: " + (encryptionKey != null));
+    }
+
+    public void dispose() {
+        destroyedSessions.clear();
+    }
+
+    public HttpSession getSession(HttpServiceContext context, boolean create) {
+        CookieSession session = null;
+        if (!destroyedSessions.containsKey(context)) {
+            String token = identifier.getSessionKey(context.getRequest());
+            if (token != null) {
+                session = decode(token, context);
+                if (session == null) {
+                    LOG.debug("Request contains an expired or invalid session");
+                }
+            }
+        }
+        if (session == null && create) {
+            LOG.debug("Creating new session");
+            session = new CookieSession(keyFactory.createSessionKey(), System
+                    .currentTimeMillis(), new HashMap<String, Object>(), false,
+                    context, this);
+        }
+        return session;
+    }
+
+    /**
+     * Issues a session cookie if the session bound to the context is new,
+     * has changed, or is due to be refreshed - or clears the cookie if the
+     * session has been destroyed
+     */
+    public void addSessionIdentifier(HttpServiceContext context,
+            MutableHttpResponse response) {
+        HttpSession session = context.getSession(false);
+        CookieSession destroyed = destroyedSessions.remove(context);
+        if (session instanceof CookieSession) {
+            CookieSession cookieSession = (CookieSession) session;
+            long age = System.currentTimeMillis() - cookieSession.getIssueTime();
+            if (!cookieSession.isAttached() || cookieSession.isDirty()
+                    || age > sessionTimeout / 2) {
+                issue(cookieSession, response);
+            }
+        } else if (destroyed != null) {
+            identifier.addSessionKey("", response);
+        }
+    }
+
+    /**
+     * Invoked when a session is destroyed while processing a request
+     */
+    void sessionDestroyed(final HttpServiceContext context,
+            CookieSession session) {
+        if (destroyedSessions.put(context, session) == null) {
+            context.addClientListener(new HttpClientListener() {
+                public void clientDisconnected(HttpServiceContext context) {
+                    destroyedSessions.remove(context);
+                }
+
+                public void clientIdle(HttpServiceContext context,
+                        long idleTime, int idleCount) {
+                }
+            });
+        }
+    }
+
+    private void issue(CookieSession session, MutableHttpResponse response) {
+        String token;
+        try {
+            token = encode(session);
+        } catch (IOException e) {
+            LOG.warn("Unable to encode session " + session.getId() + ": " + e);
+            return;
+        } catch (GeneralSecurityException e) {
+            LOG.warn("Unable to encrypt session " + session.getId() + ": " + e);
+            return;
+        }
+        if (token.length() > maxCookieSize) {
+            LOG.warn("Session " + session.getId() + " exceeds the maximum "
+                    + "cookie size - not issued");
+            return;
+        }
+        identifier.addSessionKey(token, response);
+    }
+
+    private String encode(CookieSession session) throws IOException,
+            GeneralSecurityException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_VERSION);
+        out.writeUTF(session.getId());
+        out.writeLong(System.currentTimeMillis());
+        Map<String, Object> values = session.copyValues();
+        ObjectOutputStream valueOut = new ObjectOutputStream(out);
+        valueOut.writeInt(values.size());
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            valueOut.writeUTF(value.getKey());
+            valueOut.writeObject(value.getValue());
+        }
+        valueOut.close();
+        byte[] data = bytes.toByteArray();
+
+        if (encryptionKey != null) {
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            Cipher cipher = cipher();
+            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey,
+                    new IvParameterSpec(iv));
+            byte[] encrypted = new byte[IV_LENGTH
+                    + cipher.getOutputSize(data.length)];
+            System.arraycopy(iv, 0, encrypted, 0, IV_LENGTH);
+            int length = IV_LENGTH
+                    + cipher.doFinal(data, 0, data.length, encrypted,
+                            IV_LENGTH);
+            return UrlSafeBase64.encode(encrypted, 0, length);
+        }
+        return UrlSafeBase64.encode(data);
+    }
+
+    /**
+     * Decodes a session from a verified token
+     *
+     * @return The session, or <code>null</code> if the token can not be
+     *         decoded or has timed out
+     */
+    private CookieSession decode(String token, HttpServiceContext context) {
+        byte[] data = UrlSafeBase64.decode(token);
+        if (data == null) {
+            return null;
+        }
+        try {
+            if (encryptionKey != null) {
+                if (data.length <= IV_LENGTH) {
+                    return null;
+                }
+                Cipher cipher = cipher();
+                cipher.init(Cipher.DECRYPT_MODE, encryptionKey,
+                        new IvParameterSpec(data, 0, IV_LENGTH));
+                data = cipher.doFinal(data, IV_LENGTH, data.length
+                        - IV_LENGTH);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    data));
+            if (in.readByte() != FORMAT_VERSION) {
+                return null;
+            }
+            String id = in.readUTF();
+            long issueTime = in.readLong();
+            if (System.currentTimeMillis() - issueTime > sessionTimeout) {
+                return null;
+            }
+            ObjectInputStream valueIn = valueClasses.newInputStream(in);
+            int count = valueIn.readInt();
+            Map<String, Object> values = new HashMap<String, Object>();
+            for (int i = 0; i < count; ++i) {
+                String name = valueIn.readUTF();
+                values.put(name, valueIn.readObject());
+            }
+            return new CookieSession(id, issueTime, values, true, context,
+                    this);
+        } catch (InvalidClassException e) {
+            LOG.warn("Unable to decode session: " + e);
+            return null;
+        } catch (IOException e) {
+            return null;
+        } catch (ClassNotFoundException e) {
+            LOG.warn("Unable to decode session: " + e);
+            return null;
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private Cipher cipher() throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(CIPHER);
+            ciphers.set(cipher);
+        }
+        return cipher;
+    }
+}
@@ -50,7 +50,7 @@ public class DefaultSessionAccessor implements HttpSessionAccessor {
      * Constructs with the default identifier and key factory
      */
     public DefaultSessionAccessor() {
-        SecureRandomKeyFactory secureKeyFactory = new SecureRandomKeyFactory();
+        StripedSecureRandomKeyFactory secureKeyFactory = new StripedSecureRandomKeyFactory();
         secureKeyFactory.start();
         keyFactory = secureKeyFactory;
     }
@@ -73,12 +73,24 @@ public class DefaultSessionAccessor implements HttpSessionAccessor {
         return session;
     }
 
+    /**
+     * Informs our store, if it tracks session changes, that a request using
+     * a session has completed, and adds the key of a newly created session
+     * to the response
+     */
     public void addSessionIdentifier(HttpServiceContext context,
             MutableHttpResponse response) {
         HttpSession session = context.getSession(false);
         if (session == null) {
             return;
         }
+        if (store instanceof ChangeTrackingSessionStore) {
+            ((ChangeTrackingSessionStore) store).requestCompleted(session);
+        }
+        if (session.isAttached()) {
+            // The client already holds the key of an existing session
+            return;
+        }
         identifier.addSessionKey(session.getId(), response);
     }
 
@@ -96,7 +108,7 @@ public class DefaultSessionAccessor implements HttpSessionAccessor {
     /**
      * Sets the <code>SessionKeyFactory</code> employed by this accessor for
      * creating new session keys.
-     * By default, a <code>SecureRandomKeyFactory</code> is employed
+     * By default, a <code>StripedSecureRandomKeyFactory</code> is employed
      *
      * @param keyFactory  The key factory to be employed
      */
@@ -50,7 +50,9 @@ public interface HttpSessionAccessor {
     public HttpSession getSession(HttpServiceContext context, boolean create);
 
     /**
-     * Adds session identifier to the specified response.
+     * Adds session identifier to the specified response, if required.
+     * Invoked as each response is committed - whether or not a session is
+     * bound to the context.
      */
     public void addSessionIdentifier(HttpServiceContext context,
             MutableHttpResponse response);
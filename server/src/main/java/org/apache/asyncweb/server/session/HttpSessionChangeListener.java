@@ -0,0 +1,46 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.asyncweb.server.HttpSession;
+
+/**
+ * Receives the changes made to a session's values while processing a
+ * request, once the request completes - for example, to replicate them to
+ * a standby.
+ *
+ */
+public interface HttpSessionChangeListener {
+
+    /**
+     * Invoked when a request which changed the values of a session completes
+     *
+     * @param session        The changed session
+     * @param changedValues  The values set during the request, by key
+     * @param removedKeys    The keys whose values were removed during the
+     *                       request
+     */
+    public void sessionChanged(HttpSession session,
+            Map<String, Object> changedValues, Set<String> removedKeys);
+
+}
@@ -0,0 +1,242 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A session created by an <code>OffHeapSessionStore</code>.
+ * Session values are held serialized in memory allocated by the store, so
+ * they are stored by value: a value which is modified after being set must
+ * be set again for the modification to be retained. Each value is
+ * serialized on its own, so reading a value deserializes only that value.
+ * <p>
+ * Updates are copy-on-write - new memory is allocated for the updated values
+ * before the old memory is released. No lock is held while allocating, as
+ * allocation may evict other sessions.
+ * </p>
+ *
+ */
+class OffHeapSession extends BasicSession {
+
+    private static final AtomicIntegerFieldUpdater<OffHeapSession> QUEUED = AtomicIntegerFieldUpdater
+            .newUpdater(OffHeapSession.class, "queued");
+
+    private final OffHeapSessionStore store;
+
+    /**
+     * The blocks holding our serialized values, or <code>null</code> if we
+     * hold no values. Guarded by this session
+     */
+    private int[] blocks;
+
+    private int length;
+
+    private int version;
+
+    private boolean isReleased;
+
+    private volatile boolean isReferenced;
+
+    private volatile int queued;
+
+    /**
+     * @param id     The id of this session
+     * @param store  The store which created this session
+     */
+    OffHeapSession(String id, OffHeapSessionStore store) {
+        super(id, store);
+        this.store = store;
+    }
+
+    @Override
+    public Object getValue(String key) {
+        isReferenced = true;
+        byte[] data;
+        synchronized (this) {
+            data = readValues();
+        }
+        byte[] value = data == null ? null : store.find(data, key);
+        return value == null ? null : store.deserialize(value);
+    }
+
+    @Override
+    public void setValue(String key, Object value) {
+        update(key, value, false);
+    }
+
+    @Override
+    public Object removeValue(String key) {
+        return update(key, null, true);
+    }
+
+    @Override
+    Map<String, Object> copyValues() {
+        byte[] data;
+        synchronized (this) {
+            data = readValues();
+        }
+        Map<String, Object> copy = new HashMap<String, Object>();
+        if (data != null) {
+            for (Entry<String, byte[]> entry : store.decode(data).entrySet()) {
+                copy.put(entry.getKey(), store.deserialize(entry.getValue()));
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    void access() {
+        super.access();
+        isReferenced = true;
+    }
+
+    @Override
+    void released() {
+        int[] released;
+        synchronized (this) {
+            isReleased = true;
+            released = blocks;
+            blocks = null;
+            length = 0;
+        }
+        store.free(released);
+    }
+
+    /**
+     * @return <code>true</code> if this session holds memory
+     */
+    synchronized boolean isResident() {
+        return blocks != null;
+    }
+
+    /**
+     * Clears the referenced mark of this session
+     *
+     * @return <code>true</code> if this session has been referenced since
+     *         the mark was last cleared
+     */
+    boolean clearReferenced() {
+        if (isReferenced) {
+            isReferenced = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks this session as queued for eviction
+     *
+     * @return <code>false</code> if this session is already queued
+     */
+    boolean markQueued() {
+        return QUEUED.compareAndSet(this, 0, 1);
+    }
+
+    /**
+     * Marks this session as no longer queued for eviction
+     */
+    void clearQueued() {
+        queued = 0;
+    }
+
+    /**
+     * Sets or removes a value
+     *
+     * @return The removed value, if removing
+     */
+    private Object update(String key, Object value, boolean remove) {
+        byte[] serialized = remove ? null : store.serialize(value);
+        while (true) {
+            byte[] current;
+            int expectedVersion;
+            synchronized (this) {
+                if (isReleased) {
+                    return null;
+                }
+                current = readValues();
+                expectedVersion = version;
+            }
+
+            Map<String, byte[]> values;
+            if (current == null) {
+                values = new LinkedHashMap<String, byte[]>();
+            } else {
+                values = store.decode(current);
+            }
+            byte[] previous;
+            if (remove) {
+                previous = values.remove(key);
+                if (previous == null) {
+                    return null;
+                }
+            } else {
+                previous = null;
+                values.put(key, serialized);
+            }
+
+            byte[] data = values.isEmpty() ? null : store.encode(values);
+            int[] allocated = data == null ? null : store.allocate(
+                    data.length, this);
+            int[] released;
+            synchronized (this) {
+                if (isReleased || version != expectedVersion) {
+                    // Destroyed or concurrently updated: discard our copy
+                    store.free(allocated);
+                    if (isReleased) {
+                        return null;
+                    }
+                    continue;
+                }
+                if (allocated != null) {
+                    store.write(allocated, data);
+                }
+                released = blocks;
+                blocks = allocated;
+                length = data == null ? 0 : data.length;
+                ++version;
+                if (remove) {
+                    valueRemoved(key);
+                } else {
+                    valueSet(key, value);
+                }
+            }
+            store.free(released);
+            if (allocated != null) {
+                store.resident(this);
+            }
+            return previous == null ? null : store.deserialize(previous);
+        }
+    }
+
+    /**
+     * Reads our serialized values. Must be invoked holding our lock
+     */
+    private byte[] readValues() {
+        if (blocks == null) {
+            return null;
+        }
+        return store.read(blocks, length);
+    }
+}
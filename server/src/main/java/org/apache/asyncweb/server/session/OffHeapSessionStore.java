@@ -0,0 +1,460 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.asyncweb.server.util.TimedPermitIssuer;
+import org.apache.asyncweb.server.util.TimingWheelPermitIssuer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>SessionStore</code> which holds session values outside of the
+ * Java heap, so that large numbers of sessions do not add to garbage
+ * collection pauses.
+ * <p>
+ * Session values are serialized individually, and held in fixed size blocks
+ * carved from direct buffers, so reading a value deserializes only that
+ * value. Buffers are allocated as required, up to a configured
+ * maximum footprint. All session values must therefore be
+ * <code>Serializable</code>, and are stored by value: a value which is
+ * modified must be set again for the modification to be retained.
+ * Sessions which hold no values consume no off-heap memory.
+ * </p>
+ * <p>
+ * When the footprint is exhausted, sessions are evicted to make room using
+ * the <i>CLOCK</i> approximation of least-recently-used: sessions holding
+ * memory are queued in the order they acquired it, and a session which has
+ * been accessed since it was last considered is given a second chance.
+ * Evicted sessions are expired early, and listeners are notified
+ * accordingly - on the allocating thread, before the memory of the evicted
+ * session is freed.
+ * </p>
+ * <p>
+ * Note that direct buffers are limited by the JVM's maximum direct memory
+ * size, which must be at least as large as the configured footprint.
+ * </p>
+ *
+ */
+public class OffHeapSessionStore extends BasicSessionStore {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(OffHeapSessionStore.class);
+
+    /**
+     * Default session timeout of 15 minutes
+     */
+    private static final long DEFAULT_SESSION_TIMEOUT = 900000;
+
+    /**
+     * Default maximum footprint of 64MB
+     */
+    private static final long DEFAULT_MAX_MEMORY = 64 * 1024 * 1024;
+
+    /**
+     * Default block size of 256 bytes
+     */
+    private static final int DEFAULT_BLOCK_SIZE = 256;
+
+    private final BlockMemory memory;
+
+    private final Queue<OffHeapSession> residents = new ConcurrentLinkedQueue<OffHeapSession>();
+
+    private final AtomicInteger residentCount = new AtomicInteger();
+
+    private final AtomicInteger evictionCount = new AtomicInteger();
+
+    /**
+     * Constructs with the default session timeout and maximum footprint
+     */
+    public OffHeapSessionStore() {
+        this(DEFAULT_SESSION_TIMEOUT, DEFAULT_MAX_MEMORY);
+    }
+
+    /**
+     * Constructs with a specified session timeout and maximum footprint
+     *
+     * @param sessionTimeout  The session timeout (in ms)
+     * @param maxMemory       The maximum number of bytes held for session values
+     */
+    public OffHeapSessionStore(long sessionTimeout, long maxMemory) {
+        this(new TimingWheelPermitIssuer(sessionTimeout), maxMemory,
+                DEFAULT_BLOCK_SIZE);
+        LOG.info("OffHeapSessionStore timeout: " + sessionTimeout + "ms");
+    }
+
+    /**
+     * Constructs with a specified permit issuer, maximum footprint and block
+     * size
+     *
+     * @param permitIssuer  The issuer of session time-out permits
+     * @param maxMemory     The maximum number of bytes held for session values
+     * @param blockSize     The size of the blocks session values are held in.
+     *                      A session occupies at least one block for as long
+     *                      as it holds any value
+     */
+    public OffHeapSessionStore(TimedPermitIssuer permitIssuer, long maxMemory,
+            int blockSize) {
+        super(permitIssuer);
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize: " + blockSize);
+        }
+        memory = new BlockMemory(maxMemory, blockSize);
+        LOG.info("OffHeapSessionStore footprint: " + maxMemory
+                + " bytes in blocks of " + blockSize);
+    }
+
+    /**
+     * @return The number of bytes currently occupied by session values,
+     *         rounded up to whole blocks
+     */
+    public long getUsedMemory() {
+        return memory.getUsedBytes();
+    }
+
+    /**
+     * @return The number of sessions evicted to make room for others
+     */
+    public int getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    @Override
+    BasicSession newSession(String key) {
+        return new OffHeapSession(key, this);
+    }
+
+    /**
+     * Allocates blocks to hold a specified number of bytes, evicting other
+     * sessions if required. Must not be invoked holding a session lock.
+     *
+     * @param length     The number of bytes required
+     * @param requester  The session requiring the blocks, which is never
+     *                   evicted itself
+     * @return The allocated blocks
+     */
+    int[] allocate(int length, OffHeapSession requester) {
+        int count = memory.blocksFor(length);
+        if (count > memory.getBlockCount()) {
+            throw new IllegalArgumentException("Session values of " + length
+                    + " bytes exceed the maximum footprint");
+        }
+        while (true) {
+            int[] blocks = memory.allocate(count);
+            if (blocks != null) {
+                return blocks;
+            }
+            if (!evictOne(requester)) {
+                throw new IllegalStateException("Session memory exhausted");
+            }
+        }
+    }
+
+    void free(int[] blocks) {
+        if (blocks != null) {
+            memory.free(blocks);
+        }
+    }
+
+    void write(int[] blocks, byte[] data) {
+        memory.write(blocks, data);
+    }
+
+    byte[] read(int[] blocks, int length) {
+        return memory.read(blocks, length);
+    }
+
+    /**
+     * Invoked when a session acquires memory, to queue it for eviction
+     */
+    void resident(OffHeapSession session) {
+        if (session.markQueued()) {
+            residents.offer(session);
+            residentCount.incrementAndGet();
+        }
+    }
+
+    byte[] serialize(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+        } catch (NotSerializableException e) {
+            throw new IllegalArgumentException(
+                    "Session values must be serializable: " + e.getMessage());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize value: " + e);
+        }
+        return bytes.toByteArray();
+    }
+
+    Object deserialize(byte[] data) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(data));
+            return in.readObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to deserialize value: "
+                    + e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Failed to deserialize value: "
+                    + e);
+        }
+    }
+
+    /**
+     * Lays out the serialized values of a session: a count, followed by
+     * the key, length and serialized form of each value
+     */
+    byte[] encode(Map<String, byte[]> values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(values.size());
+            for (Entry<String, byte[]> entry : values.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode session: " + e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Splits the serialized values of a session, without deserializing them
+     */
+    Map<String, byte[]> decode(byte[] data) {
+        Map<String, byte[]> values = new LinkedHashMap<String, byte[]>();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                data));
+        try {
+            for (int count = in.readInt(); count > 0; --count) {
+                String key = in.readUTF();
+                byte[] value = new byte[in.readInt()];
+                in.readFully(value);
+                values.put(key, value);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to decode session: " + e);
+        }
+        return values;
+    }
+
+    /**
+     * Locates the serialized form of one value of a session, skipping over
+     * the others
+     *
+     * @return The serialized value, or <code>null</code> if the session
+     *         holds no value for the key
+     */
+    byte[] find(byte[] data, String key) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                data));
+        try {
+            for (int count = in.readInt(); count > 0; --count) {
+                String name = in.readUTF();
+                int length = in.readInt();
+                if (name.equals(key)) {
+                    byte[] value = new byte[length];
+                    in.readFully(value);
+                    return value;
+                }
+                in.skipBytes(length);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to decode session: " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Evicts the first session in the resident queue which has not been
+     * referenced since it was last considered.
+     *
+     * @return <code>false</code> if no session could be evicted
+     */
+    private boolean evictOne(OffHeapSession requester) {
+        // Each session is considered at most twice: once to clear its mark
+        int remaining = 2 * residentCount.get() + 1;
+        OffHeapSession session;
+        while (remaining-- > 0 && (session = residents.poll()) != null) {
+            residentCount.decrementAndGet();
+            session.clearQueued();
+            if (!session.isResident()) {
+                // Queued again when it next acquires memory
+                continue;
+            }
+            if (session == requester || session.clearReferenced()) {
+                resident(session);
+                continue;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Evicting session: " + session.getId());
+            }
+            // Listeners are notified before the memory is freed, so they
+            // may still read the session's values
+            if (!expireNow(session)) {
+                // Already destroyed: released by its destroyer
+                continue;
+            }
+            evictionCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fixed size blocks carved from direct buffers, which are allocated as
+     * required up to a maximum number of blocks
+     */
+    private static class BlockMemory {
+
+        /**
+         * The size of each direct buffer - 1MB
+         */
+        private static final int BUFFER_SIZE = 1024 * 1024;
+
+        private final int blockSize;
+
+        private final int blockCount;
+
+        private final int blocksPerBuffer;
+
+        private final ByteBuffer[] buffers;
+
+        private final int[] freeBlocks;
+
+        private int freeCount;
+
+        /**
+         * The first block which has never been allocated
+         */
+        private int nextBlock;
+
+        BlockMemory(long maxMemory, int blockSize) {
+            long count = maxMemory / blockSize;
+            if (count <= 0 || count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("maxMemory: " + maxMemory);
+            }
+            this.blockSize = blockSize;
+            this.blockCount = (int) count;
+            this.blocksPerBuffer = Math.max(1, Math.min(blockCount,
+                    BUFFER_SIZE / blockSize));
+            this.buffers = new ByteBuffer[(blockCount + blocksPerBuffer - 1)
+                    / blocksPerBuffer];
+            this.freeBlocks = new int[blockCount];
+        }
+
+        int getBlockCount() {
+            return blockCount;
+        }
+
+        int blocksFor(int length) {
+            return (length + blockSize - 1) / blockSize;
+        }
+
+        synchronized long getUsedBytes() {
+            return (long) (nextBlock - freeCount) * blockSize;
+        }
+
+        /**
+         * @return The allocated blocks, or <code>null</code> if too few
+         *         blocks are free
+         */
+        synchronized int[] allocate(int count) {
+            if (freeCount + blockCount - nextBlock < count) {
+                return null;
+            }
+            int[] blocks = new int[count];
+            for (int i = 0; i < count; ++i) {
+                if (freeCount > 0) {
+                    blocks[i] = freeBlocks[--freeCount];
+                } else {
+                    int block = nextBlock++;
+                    int buffer = block / blocksPerBuffer;
+                    if (buffers[buffer] == null) {
+                        int size = Math.min(blocksPerBuffer, blockCount
+                                - buffer * blocksPerBuffer);
+                        buffers[buffer] = ByteBuffer.allocateDirect(size
+                                * blockSize);
+                    }
+                    blocks[i] = block;
+                }
+            }
+            return blocks;
+        }
+
+        synchronized void free(int[] blocks) {
+            for (int block : blocks) {
+                freeBlocks[freeCount++] = block;
+            }
+        }
+
+        void write(int[] blocks, byte[] data) {
+            int offset = 0;
+            for (int block : blocks) {
+                int count = Math.min(blockSize, data.length - offset);
+                blockBuffer(block).put(data, offset, count);
+                offset += count;
+            }
+        }
+
+        byte[] read(int[] blocks, int length) {
+            byte[] data = new byte[length];
+            int offset = 0;
+            for (int block : blocks) {
+                int count = Math.min(blockSize, length - offset);
+                blockBuffer(block).get(data, offset, count);
+                offset += count;
+            }
+            return data;
+        }
+
+        /**
+         * Returns a view of the buffer holding a block, positioned at the
+         * block. The block has been allocated by a thread which the caller
+         * synchronized with, so its buffer is visible
+         */
+        private ByteBuffer blockBuffer(int block) {
+            ByteBuffer buffer = buffers[block / blocksPerBuffer].duplicate();
+            buffer.position((block % blocksPerBuffer) * blockSize);
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+/**
+ * A session created by a <code>PersistentSessionStore</code>.
+ * Changes to the values of the session are recorded by the store.
+ *
+ */
+class PersistentSession extends BasicSession {
+
+    private final PersistentSessionStore store;
+
+    /**
+     * Whether the store has recorded this session's creation. Guarded by
+     * the store's log lock
+     */
+    private boolean isRecorded;
+
+    /**
+     * @param id     The id of this session
+     * @param store  The store which created this session
+     */
+    PersistentSession(String id, PersistentSessionStore store) {
+        super(id, store);
+        this.store = store;
+    }
+
+    @Override
+    public void setValue(String key, Object value) {
+        store.valueSet(this, key, value);
+    }
+
+    @Override
+    public Object removeValue(String key) {
+        return store.valueRemoved(this, key);
+    }
+
+    /**
+     * Marks this session as recorded: later changes are recorded too
+     */
+    void setRecorded() {
+        isRecorded = true;
+    }
+
+    /**
+     * @return <code>true</code> if the store has recorded this session
+     */
+    boolean isRecorded() {
+        return isRecorded;
+    }
+
+    /**
+     * Binds a value without recording the change
+     */
+    void putValue(String key, Object value) {
+        super.setValue(key, value);
+    }
+
+    /**
+     * Unbinds a value without recording the change
+     */
+    Object takeValue(String key) {
+        return super.removeValue(key);
+    }
+}
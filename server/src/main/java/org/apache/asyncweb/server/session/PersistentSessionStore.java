@@ -0,0 +1,664 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import org.apache.asyncweb.server.util.TimedPermitIssuer;
+import org.apache.asyncweb.server.util.TimingWheelPermitIssuer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>SessionStore</code> which records sessions in an append-only log
+ * file, so that they survive a restart.
+ * <p>
+ * Sessions are held in memory as by <code>BasicSessionStore</code>. Each
+ * change - a session being created, a value being set or removed, or a
+ * session being destroyed or expiring - is appended to the log. When the
+ * store is constructed, the sessions recorded in the log are restored and
+ * the log is compacted. Session values must therefore be
+ * <code>Serializable</code>.
+ * </p>
+ * <p>
+ * The log is compacted periodically once it has grown sufficiently, by
+ * writing a snapshot of the live sessions to a new file which then replaces
+ * the log. The snapshot is written without blocking changes to sessions:
+ * changes recorded meanwhile are also buffered, and appended to the
+ * snapshot before it replaces the log. Records are checksummed, so a record torn by a crash is detected
+ * and discarded when the log is read.
+ * </p>
+ * <p>
+ * Closing the store does not remove its sessions from the log. Restored
+ * sessions are issued a new time-out permit, so a session may outlive its
+ * time-out by the time the store was closed for.
+ * </p>
+ *
+ */
+public class PersistentSessionStore extends BasicSessionStore {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(PersistentSessionStore.class);
+
+    /**
+     * Default session timeout of 15 minutes
+     */
+    private static final long DEFAULT_SESSION_TIMEOUT = 900000;
+
+    /**
+     * Default compaction interval of 1 minute
+     */
+    private static final long DEFAULT_COMPACTION_INTERVAL = 60000;
+
+    /**
+     * The log is not compacted until it has grown by at least 1MB
+     */
+    private static final long MIN_COMPACTION_GROWTH = 1024 * 1024;
+
+    /**
+     * Records larger than this are considered corrupt
+     */
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    private static final byte CREATED = 1;
+
+    private static final byte VALUE_SET = 2;
+
+    private static final byte VALUE_REMOVED = 3;
+
+    private static final byte REMOVED = 4;
+
+    private final File logFile;
+
+    /**
+     * Guards the log. Acquired before any session lock
+     */
+    private final Object logLock = new Object();
+
+    private DataOutputStream log;
+
+    private long logSize;
+
+    /**
+     * Serializes compactions. Acquired before the log lock
+     */
+    private final Object compactionLock = new Object();
+
+    /**
+     * Records appended while a snapshot is being written, or
+     * <code>null</code> if no snapshot is being written. Guarded by the
+     * log lock
+     */
+    private ByteArrayOutputStream pendingBytes;
+
+    private DataOutputStream pendingRecords;
+
+    private long pendingSize;
+
+    private long compactedSize;
+
+    private boolean isClosing;
+
+    private volatile long compactionInterval = DEFAULT_COMPACTION_INTERVAL;
+
+    private final Object compactorLock = new Object();
+
+    private boolean isCompactorStopped;
+
+    /**
+     * Constructs with the default session timeout
+     *
+     * @param logFile  The file sessions are recorded in
+     * @throws IOException If the log can not be read or written
+     */
+    public PersistentSessionStore(File logFile) throws IOException {
+        this(logFile, DEFAULT_SESSION_TIMEOUT);
+    }
+
+    /**
+     * Constructs with a specified session timeout
+     *
+     * @param logFile         The file sessions are recorded in
+     * @param sessionTimeout  The session timeout (in ms)
+     * @throws IOException If the log can not be read or written
+     */
+    public PersistentSessionStore(File logFile, long sessionTimeout)
+            throws IOException {
+        this(logFile, new TimingWheelPermitIssuer(sessionTimeout));
+        LOG.info("PersistentSessionStore timeout: " + sessionTimeout + "ms");
+    }
+
+    /**
+     * Constructs with a specified permit issuer, which determines the
+     * session timeout
+     *
+     * @param logFile       The file sessions are recorded in
+     * @param permitIssuer  The issuer of session time-out permits
+     * @throws IOException If the log can not be read or written
+     */
+    public PersistentSessionStore(File logFile, TimedPermitIssuer permitIssuer)
+            throws IOException {
+        super(permitIssuer);
+        this.logFile = logFile;
+        try {
+            synchronized (logLock) {
+                restore();
+            }
+            compact();
+        } catch (IOException e) {
+            abandon();
+            throw e;
+        } catch (RuntimeException e) {
+            abandon();
+            throw e;
+        }
+        Thread compactor = new Thread(new Compactor(),
+                "PersistentSessionStore-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Sets the interval at which the log is checked for compaction
+     *
+     * @param compactionInterval  The interval (in ms)
+     */
+    public void setCompactionInterval(long compactionInterval) {
+        if (compactionInterval <= 0) {
+            throw new IllegalArgumentException("compactionInterval: "
+                    + compactionInterval);
+        }
+        this.compactionInterval = compactionInterval;
+    }
+
+    /**
+     * @return The current size of the log (in bytes)
+     */
+    public long getLogSize() {
+        synchronized (logLock) {
+            return logSize;
+        }
+    }
+
+    /**
+     * Replaces the log with a snapshot of the live sessions.
+     * The log lock is held only to capture the sessions to be written, and
+     * to append the records buffered while writing them and swap the files
+     *
+     * @throws IOException If the snapshot can not be written
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            List<BasicSession> live;
+            synchronized (logLock) {
+                if (isClosing) {
+                    return;
+                }
+                live = new ArrayList<BasicSession>(sessions());
+                pendingBytes = new ByteArrayOutputStream();
+                pendingRecords = new DataOutputStream(pendingBytes);
+                pendingSize = 0;
+            }
+            try {
+                compact(live);
+            } finally {
+                synchronized (logLock) {
+                    pendingBytes = null;
+                    pendingRecords = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the specified sessions, and replaces the log with
+     * it. Must be invoked holding the compaction lock, with records
+     * appended from the time the sessions were captured being buffered
+     */
+    private void compact(List<BasicSession> live) throws IOException {
+        File snapshotFile = new File(logFile.getPath() + ".compact");
+        FileOutputStream out = new FileOutputStream(snapshotFile);
+        long snapshotSize = 0;
+        try {
+            DataOutputStream snapshot = new DataOutputStream(
+                    new BufferedOutputStream(out));
+            for (BasicSession session : live) {
+                if (!session.isValid()) {
+                    continue;
+                }
+                String id = session.getId();
+                snapshotSize += writeRecord(snapshot, CREATED, id, null, null);
+                for (Entry<String, Object> entry : session.copyValues()
+                        .entrySet()) {
+                    snapshotSize += writeRecord(snapshot, VALUE_SET, id, entry
+                            .getKey(), serialize(entry.getValue()));
+                }
+            }
+            snapshot.flush();
+            out.getFD().sync();
+
+            // Changes made while writing are replayed over the snapshot
+            synchronized (logLock) {
+                pendingBytes.writeTo(out);
+                snapshotSize += pendingSize;
+                long previousSize = logSize;
+                out.close();
+                swapLog(snapshotFile, snapshotSize);
+                LOG.info("Compacted session log from " + previousSize
+                        + " to " + logSize + " bytes");
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Replaces the log with a snapshot. Must be invoked holding the log lock
+     */
+    private void swapLog(File snapshotFile, long snapshotSize)
+            throws IOException {
+        closeLog();
+        try {
+            if (!snapshotFile.renameTo(logFile)) {
+                // Not all platforms replace an existing file on rename
+                if (!logFile.delete() || !snapshotFile.renameTo(logFile)) {
+                    throw new IOException("Failed to replace " + logFile
+                            + " with " + snapshotFile);
+                }
+            }
+            logSize = snapshotSize;
+            compactedSize = snapshotSize;
+        } finally {
+            log = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(logFile, true)));
+        }
+    }
+
+    /**
+     * Closes this store. The log is compacted, and retains all live sessions.
+     */
+    @Override
+    public void close() {
+        synchronized (compactorLock) {
+            isCompactorStopped = true;
+            compactorLock.notify();
+        }
+        try {
+            compact();
+        } catch (IOException e) {
+            LOG.warn("Failed to compact session log on close", e);
+        }
+        synchronized (logLock) {
+            if (isClosing) {
+                return;
+            }
+            isClosing = true;
+        }
+        super.close();
+        synchronized (logLock) {
+            closeLog();
+        }
+    }
+
+    /**
+     * Releases a store which failed to open. The permit issuer is stopped,
+     * and the log is closed without recording the restored sessions as
+     * destroyed
+     */
+    private void abandon() {
+        synchronized (logLock) {
+            isClosing = true;
+            closeLog();
+        }
+        super.close();
+    }
+
+    /**
+     * Records a created session before its listeners are notified, without
+     * holding the log lock while they run. Values bound to the session
+     * before it was recorded are recorded with it
+     */
+    @Override
+    void sessionAdded(BasicSession session) {
+        PersistentSession added = (PersistentSession) session;
+        synchronized (logLock) {
+            added.setRecorded();
+            if (!added.isValid()) {
+                return;
+            }
+            String id = added.getId();
+            append(CREATED, id, null, null);
+            for (Entry<String, Object> entry : added.copyValues().entrySet()) {
+                append(VALUE_SET, id, entry.getKey(), serialize(entry
+                        .getValue()));
+            }
+        }
+    }
+
+    @Override
+    BasicSession newSession(String key) {
+        return new PersistentSession(key, this);
+    }
+
+    @Override
+    void removeExpired(BasicSession session) {
+        super.removeExpired(session);
+        sessionRemoved(session);
+    }
+
+    @Override
+    void sessionDestroyed(BasicSession session) {
+        super.sessionDestroyed(session);
+        sessionRemoved(session);
+    }
+
+    /**
+     * Invoked by a session we created to bind a value
+     */
+    void valueSet(PersistentSession session, String key, Object value) {
+        byte[] data = serialize(value);
+        synchronized (logLock) {
+            session.putValue(key, value);
+            if (session.isRecorded() && session.isValid()) {
+                append(VALUE_SET, session.getId(), key, data);
+            }
+        }
+    }
+
+    /**
+     * Invoked by a session we created to unbind a value
+     */
+    Object valueRemoved(PersistentSession session, String key) {
+        synchronized (logLock) {
+            Object value = session.takeValue(key);
+            if (value != null && session.isRecorded() && session.isValid()) {
+                append(VALUE_REMOVED, session.getId(), key, null);
+            }
+            return value;
+        }
+    }
+
+    private void sessionRemoved(BasicSession session) {
+        synchronized (logLock) {
+            if (((PersistentSession) session).isRecorded()) {
+                append(REMOVED, session.getId(), null, null);
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the log. Must be invoked holding the log lock.
+     * Failures are logged rather than propagated, as the session is still
+     * usable until the next restart.
+     */
+    private void append(byte type, String id, String key, byte[] data) {
+        if (isClosing || log == null) {
+            return;
+        }
+        try {
+            if (pendingRecords != null) {
+                pendingSize += writeRecord(pendingRecords, type, id, key, data);
+            }
+            logSize += writeRecord(log, type, id, key, data);
+            log.flush();
+        } catch (IOException e) {
+            LOG.warn("Failed to record session change", e);
+        }
+    }
+
+    /**
+     * Writes a checksummed record
+     *
+     * @return The number of bytes written
+     */
+    private static int writeRecord(DataOutputStream out, byte type, String id,
+            String key, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(type);
+        record.writeUTF(id);
+        if (key != null) {
+            record.writeUTF(key);
+        }
+        if (data != null) {
+            record.writeInt(data.length);
+            record.write(data);
+        }
+        record.close();
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.write(payload);
+        return payload.length + 8;
+    }
+
+    /**
+     * Restores the sessions recorded in the log
+     */
+    private void restore() throws IOException {
+        Map<String, Map<String, byte[]>> recorded = new LinkedHashMap<String, Map<String, byte[]>>();
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(logFile)));
+        } catch (FileNotFoundException e) {
+            LOG.info("No session log at " + logFile);
+            return;
+        }
+        int recordCount = 0;
+        try {
+            while (readRecord(in, recorded)) {
+                ++recordCount;
+            }
+        } finally {
+            in.close();
+        }
+
+        int valueCount = 0;
+        for (Entry<String, Map<String, byte[]>> entry : recorded.entrySet()) {
+            PersistentSession session = (PersistentSession) super
+                    .createSession(entry.getKey());
+            if (session == null) {
+                continue;
+            }
+            for (Entry<String, byte[]> value : entry.getValue().entrySet()) {
+                try {
+                    session.putValue(value.getKey(), deserialize(value
+                            .getValue()));
+                    ++valueCount;
+                } catch (IllegalStateException e) {
+                    LOG.warn("Discarding value [" + value.getKey()
+                            + "] of session " + session.getId() + ": "
+                            + e.getMessage());
+                }
+            }
+        }
+        LOG.info("Restored " + recorded.size() + " sessions with "
+                + valueCount + " values from " + recordCount + " records");
+    }
+
+    /**
+     * Reads a record and applies it to the recorded sessions
+     *
+     * @return <code>false</code> if the end of the log, or a torn or
+     *         corrupt record, is reached
+     */
+    private boolean readRecord(DataInputStream in,
+            Map<String, Map<String, byte[]>> recorded) throws IOException {
+        byte[] payload;
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                LOG.warn("Discarding session log from corrupt record");
+                return false;
+            }
+            payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                LOG.warn("Discarding session log from corrupt record");
+                return false;
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+
+        DataInputStream record = new DataInputStream(new ByteArrayInputStream(
+                payload));
+        byte type = record.readByte();
+        String id = record.readUTF();
+        Map<String, byte[]> values = recorded.get(id);
+        switch (type) {
+        case CREATED:
+            recorded.put(id, new HashMap<String, byte[]>());
+            break;
+        case VALUE_SET:
+            String key = record.readUTF();
+            byte[] data = new byte[record.readInt()];
+            record.readFully(data);
+            if (values != null) {
+                values.put(key, data);
+            }
+            break;
+        case VALUE_REMOVED:
+            if (values != null) {
+                values.remove(record.readUTF());
+            }
+            break;
+        case REMOVED:
+            recorded.remove(id);
+            break;
+        default:
+            LOG.warn("Discarding session log from unknown record: " + type);
+            return false;
+        }
+        return true;
+    }
+
+    private void closeLog() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close session log", e);
+            }
+            log = null;
+        }
+    }
+
+    private boolean needsCompaction() {
+        synchronized (logLock) {
+            return logSize - compactedSize > Math.max(compactedSize,
+                    MIN_COMPACTION_GROWTH);
+        }
+    }
+
+    private static byte[] serialize(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+        } catch (NotSerializableException e) {
+            throw new IllegalArgumentException(
+                    "Session values must be serializable: " + e.getMessage());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize value: " + e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data) {
+        try {
+            ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(data));
+            return in.readObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to deserialize value: "
+                    + e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Failed to deserialize value: "
+                    + e);
+        }
+    }
+
+    /**
+     * Periodically compacts the log once it has grown sufficiently
+     */
+    private class Compactor implements Runnable {
+
+        public void run() {
+            while (awaitInterval()) {
+                if (needsCompaction()) {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        LOG.warn("Failed to compact session log", e);
+                    }
+                }
+            }
+            LOG.debug("Compactor stopped");
+        }
+
+        /**
+         * @return <code>false</code> if we are stopped while waiting
+         */
+        private boolean awaitInterval() {
+            synchronized (compactorLock) {
+                long deadline = System.currentTimeMillis() + compactionInterval;
+                long now = System.currentTimeMillis();
+                while (!isCompactorStopped && now < deadline) {
+                    try {
+                        compactorLock.wait(deadline - now);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException("Unexpected interrupt");
+                    }
+                    now = System.currentTimeMillis();
+                }
+                return !isCompactorStopped;
+            }
+        }
+    }
+}
@@ -109,8 +109,8 @@ public class SecureRandomKeyFactory implements HttpSessionKeyFactory {
         } catch (NoSuchAlgorithmException e) {
             LOG.warn("Failed to obtain secure random with algorithm: "
                     + algorithm + ". Resorting to default");
+            secureRandom = new SecureRandom();
         }
-        secureRandom = new SecureRandom();
         secureRandom.nextBytes(new byte[keyLength]); // seed
     }
 
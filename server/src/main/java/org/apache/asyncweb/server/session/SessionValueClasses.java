@@ -0,0 +1,126 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * The classes which session values read from outside the server may refer
+ * to. Deserializing a value runs code of the classes it names, so values
+ * received from clients or other nodes are only read through an
+ * <code>ObjectInputStream</code> which refuses any other class.
+ * <p>
+ * Strings, boxed primitives, <code>BigInteger</code>,
+ * <code>BigDecimal</code>, <code>Date</code> and arrays of these are
+ * allowed by default.
+ * </p>
+ *
+ */
+public class SessionValueClasses {
+
+    private static final String[] DEFAULT_VALUE_CLASSES = {
+            "java.lang.String", "java.lang.Boolean", "java.lang.Character",
+            "java.lang.Number", "java.lang.Byte", "java.lang.Short",
+            "java.lang.Integer", "java.lang.Long", "java.lang.Float",
+            "java.lang.Double", "java.math.BigInteger",
+            "java.math.BigDecimal", "java.util.Date" };
+
+    private final Set<String> classNames = new CopyOnWriteArraySet<String>(
+            Arrays.asList(DEFAULT_VALUE_CLASSES));
+
+    /**
+     * Allows session values to refer to a class
+     *
+     * @param className  The fully qualified name of the class
+     */
+    public void add(String className) {
+        classNames.add(className);
+    }
+
+    /**
+     * @param className  The name of a class, as given by
+     *                   <code>Class.getName()</code>
+     * @return <code>true</code> if the class, or the component type of the
+     *         array class, is allowed
+     */
+    public boolean isAllowed(String className) {
+        int dimensions = 0;
+        while (dimensions < className.length()
+                && className.charAt(dimensions) == '[') {
+            ++dimensions;
+        }
+        if (dimensions == 0) {
+            return classNames.contains(className);
+        }
+        String component = className.substring(dimensions);
+        if (component.length() == 1) {
+            return "BCDFIJSZ".indexOf(component.charAt(0)) != -1;
+        }
+        return component.startsWith("L") && component.endsWith(";")
+                && classNames.contains(component.substring(1,
+                        component.length() - 1));
+    }
+
+    /**
+     * Creates an <code>ObjectInputStream</code> which only resolves allowed
+     * classes. A stream referring to any other class, or to a proxy class,
+     * fails with an <code>InvalidClassException</code> before an instance
+     * of the class is created
+     *
+     * @param in  The serialized values
+     */
+    public ObjectInputStream newInputStream(InputStream in) throws IOException {
+        return new ValueInputStream(in);
+    }
+
+    /**
+     * Resolves only the classes allowed in session values
+     */
+    private class ValueInputStream extends ObjectInputStream {
+
+        ValueInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(),
+                        "Class not allowed in session values");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces)
+                throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed "
+                    + "in session values");
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.asyncweb.common.HttpRequest;
+import org.apache.asyncweb.common.MutableHttpResponse;
+import org.apache.asyncweb.server.util.UrlSafeBase64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>SessionIdentifier</code> which signs the session keys it adds to
+ * responses with an HMAC, and only extracts session keys whose signature
+ * verifies - so clients are unable to forge or alter keys.
+ * <p>
+ * Keys are encoded and decoded by another identifier - a
+ * <code>CookieIdentifier</code> by default - as <code>key.signature</code>,
+ * where the signature is URL safe Base64. A secret must be configured
+ * before use, and must be shared by all nodes which accept the keys.
+ * </p>
+ *
+ */
+public class SignedCookieIdentifier implements HttpSessionIdentifier {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(SignedCookieIdentifier.class);
+
+    private static final String DEFAULT_ALGORITHM = "HmacSHA256";
+
+    private static final char SEPARATOR = '.';
+
+    private HttpSessionIdentifier identifier = new CookieIdentifier();
+
+    private String algorithm = DEFAULT_ALGORITHM;
+
+    private volatile SecretKeySpec secret;
+
+    /**
+     * Macs are not thread safe, and are costly to initialise
+     */
+    private final ThreadLocal<KeyedMac> macs = new ThreadLocal<KeyedMac>();
+
+    /**
+     * Sets the identifier which encodes and decodes the signed keys.
+     * By default, a <code>CookieIdentifier</code> is employed
+     *
+     * @param identifier  The identifier
+     */
+    public void setIdentifier(HttpSessionIdentifier identifier) {
+        this.identifier = identifier;
+    }
+
+    /**
+     * Sets the MAC algorithm employed. The default is <code>HmacSHA256</code>
+     *
+     * @param algorithm  The algorithm name
+     */
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm;
+        if (secret != null) {
+            secret = new SecretKeySpec(secret.getEncoded(), algorithm);
+        }
+    }
+
+    /**
+     * Sets the secret keys are signed with
+     *
+     * @param secret  The secret
+     */
+    public void setSecret(byte[] secret) {
+        if (secret.length == 0) {
+            throw new IllegalArgumentException("Empty secret");
+        }
+        SecretKeySpec spec = new SecretKeySpec(secret, algorithm);
+        new KeyedMac(spec); // Fail fast if the algorithm is unsupported
+        this.secret = spec;
+    }
+
+    /**
+     * Sets the secret keys are signed with, as a string encoded in UTF-8
+     *
+     * @param secret  The secret
+     */
+    public void setSecret(String secret) {
+        try {
+            setSecret(secret.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported");
+        }
+    }
+
+    /**
+     * Extracts a session key from the request, if present and correctly
+     * signed
+     *
+     * @param request  The request
+     * @return The session key, or <code>null</code> if the request holds no
+     *         key, or its signature does not verify
+     */
+    public String getSessionKey(HttpRequest request) {
+        String signed = identifier.getSessionKey(request);
+        if (signed == null) {
+            return null;
+        }
+        int separator = signed.lastIndexOf(SEPARATOR);
+        if (separator == -1) {
+            return null;
+        }
+        String key = signed.substring(0, separator);
+        byte[] signature = UrlSafeBase64.decode(signed.substring(separator + 1));
+        if (signature == null || !MessageDigest.isEqual(signature, sign(key))) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Discarding session key with invalid signature");
+            }
+            return null;
+        }
+        return key;
+    }
+
+    /**
+     * Signs the specified key, and adds it to the response
+     *
+     * @param key       The session key
+     * @param response  The response
+     */
+    public void addSessionKey(String key, MutableHttpResponse response) {
+        identifier.addSessionKey(key + SEPARATOR
+                + UrlSafeBase64.encode(sign(key)), response);
+    }
+
+    private byte[] sign(String key) {
+        SecretKeySpec secret = this.secret;
+        if (secret == null) {
+            throw new IllegalStateException("No secret configured");
+        }
+        KeyedMac mac = macs.get();
+        if (mac == null || mac.secret != secret) {
+            mac = new KeyedMac(secret);
+            macs.set(mac);
+        }
+        try {
+            return mac.mac.doFinal(key.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported");
+        }
+    }
+
+    /**
+     * A MAC initialised with a secret
+     */
+    private static class KeyedMac {
+
+        private final SecretKeySpec secret;
+
+        private final Mac mac;
+
+        KeyedMac(SecretKeySpec secret) {
+            this.secret = secret;
+            try {
+                mac = Mac.getInstance(secret.getAlgorithm());
+                mac.init(secret);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalArgumentException("Unable to create "
+                        + secret.getAlgorithm() + " MAC: " + e);
+            }
+        }
+    }
+}
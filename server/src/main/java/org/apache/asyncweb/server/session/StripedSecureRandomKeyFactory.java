@@ -0,0 +1,161 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+import org.apache.asyncweb.server.util.UrlSafeBase64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>SessionKeyFactory</code> which creates keys from a number of
+ * independently seeded <code>SecureRandom</code>s, so that threads creating
+ * sessions concurrently rarely contend for the same generator.
+ * <p>
+ * Threads are assigned a generator by their id. Keys are encoded with the
+ * URL safe Base64 alphabet, so a key of <i>n</i> bytes is
+ * <i>ceil(4n / 3)</i> characters long.
+ * </p>
+ *
+ */
+public class StripedSecureRandomKeyFactory implements HttpSessionKeyFactory {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(StripedSecureRandomKeyFactory.class);
+
+    /**
+     * The default key length provided by this factory
+     */
+    private static final int DEFAULT_KEY_LENGTH = 16;
+
+    /**
+     * The minimum key length supported by this factory
+     */
+    private static final int MINIMUM_KEY_LENGTH = 8;
+
+    /**
+     * The default algorithm employed
+     */
+    private static final String DEFAULT_ALGORITHM = "SHA1PRNG";
+
+    private int keyLength = DEFAULT_KEY_LENGTH;
+
+    private String algorithm = DEFAULT_ALGORITHM;
+
+    private int stripeCount = defaultStripeCount();
+
+    private volatile SecureRandom[] stripes;
+
+    /**
+     * Creates a session key from bytes provided by the calling thread's
+     * generator
+     *
+     * @return The created key
+     */
+    public String createSessionKey() {
+        SecureRandom[] stripes = this.stripes;
+        if (stripes == null) {
+            throw new IllegalStateException("Key factory not started");
+        }
+        byte[] keyBytes = new byte[keyLength];
+        stripes[(int) (Thread.currentThread().getId() & (stripes.length - 1))]
+                .nextBytes(keyBytes);
+        return UrlSafeBase64.encode(keyBytes);
+    }
+
+    /**
+     * Sets the number of random bytes in keys created by this factory
+     *
+     * @param keyLength  The number of bytes employed in keys created by this factory
+     */
+    public void setKeyLength(int keyLength) {
+        if (keyLength < MINIMUM_KEY_LENGTH) {
+            throw new IllegalArgumentException("Key length must be >= "
+                    + MINIMUM_KEY_LENGTH);
+        }
+        checkNotStarted();
+        this.keyLength = keyLength;
+    }
+
+    /**
+     * Sets the algorithm employed by the underlying <code>SecureRandom</code>s.
+     * The default is <code>SHA1PRNG</code>
+     *
+     * @param algorithm The algorithm to be employed
+     */
+    public void setAlgorithm(String algorithm) {
+        checkNotStarted();
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * Sets the number of generators employed. The number is rounded up to a
+     * power of two. The default is twice the number of processors
+     *
+     * @param stripeCount  The number of generators
+     */
+    public void setStripeCount(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("stripeCount: " + stripeCount);
+        }
+        checkNotStarted();
+        this.stripeCount = stripeCount;
+    }
+
+    /**
+     * Starts this factory, creating and seeding its generators
+     */
+    public void start() {
+        int count = 1;
+        while (count < stripeCount) {
+            count <<= 1;
+        }
+        SecureRandom[] created = new SecureRandom[count];
+        for (int i = 0; i < count; ++i) {
+            created[i] = createSecureRandom();
+            created[i].nextBytes(new byte[keyLength]); // seed
+        }
+        stripes = created;
+        LOG.info("Using " + count + " generators with algorithm: "
+                + created[0].getAlgorithm());
+    }
+
+    private SecureRandom createSecureRandom() {
+        try {
+            return SecureRandom.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            LOG.warn("Failed to obtain secure random with algorithm: "
+                    + algorithm + ". Resorting to default");
+            return new SecureRandom();
+        }
+    }
+
+    private void checkNotStarted() {
+        if (stripes != null) { // sanity check
+            throw new IllegalStateException("Key factory started");
+        }
+    }
+
+    private static int defaultStripeCount() {
+        return 2 * Runtime.getRuntime().availableProcessors();
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.session.ChangeTrackingSessionStore;
+import org.apache.asyncweb.server.session.HttpSessionListener;
+import org.apache.asyncweb.server.session.HttpSessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>SessionStore</code> which spreads sessions across the nodes of a
+ * cluster. Each session is held by a single node, and operations on
+ * sessions held by other nodes are forwarded to them.
+ * <p>
+ * The node owning a session is the node whose id is embedded in the
+ * session key by a {@link NodeKeyFactory} - so sessions are held by the
+ * node which created them. Keys without a node id, or whose node is no
+ * longer a member of the cluster, are assigned to a node by a
+ * {@link ConsistentHashRing}.
+ * </p>
+ * <p>
+ * Sessions owned by this node are held by a local store, which each node
+ * serves to the others with a {@link SessionNodeServer}. Listeners added
+ * to this store are notified of events for local sessions only.
+ * </p>
+ * <p>
+ * Nodes authenticate every message with a secret they share, and session
+ * values are exchanged in serialized form which is only deserialized if it
+ * refers to allowed classes: strings, boxed primitives,
+ * <code>BigInteger</code>, <code>BigDecimal</code>, <code>Date</code> and
+ * arrays of these by default. Other classes must be allowed on every node
+ * with <code>addValueClass</code>.
+ * </p>
+ * <p>
+ * Operations on sessions held by other nodes block the calling request
+ * thread until the owning node replies, for up to the timeout (5 seconds
+ * by default). Each located remote session keeps the values it has read
+ * for the rest of the request, so each value costs at most one round trip
+ * per request. Once another node fails to connect or reply, operations on
+ * its sessions fail at once until the retry interval has passed.
+ * </p>
+ *
+ */
+public class ClusteredSessionStore implements ChangeTrackingSessionStore {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(ClusteredSessionStore.class);
+
+    /**
+     * Default time to wait for another node of 5 seconds
+     */
+    private static final long DEFAULT_TIMEOUT = 5000;
+
+    /**
+     * Default time for which a failed node is not retried of 1 second
+     */
+    private static final long DEFAULT_RETRY_INTERVAL = 1000;
+
+    private final String localNodeId;
+
+    private final HttpSessionStore localStore;
+
+    private final ConsistentHashRing ring = new ConsistentHashRing();
+
+    private final ConcurrentMap<String, InetSocketAddress> nodeAddresses = new ConcurrentHashMap<String, InetSocketAddress>();
+
+    private final SessionCodecFactory codec;
+
+    private final SessionNodeClient client;
+
+    /**
+     * @param localNodeId   The id of this node
+     * @param localStore    The store holding the sessions owned by this node
+     * @param sharedSecret  The secret shared by all nodes of the cluster -
+     *                      at least 16 bytes
+     */
+    public ClusteredSessionStore(String localNodeId,
+            HttpSessionStore localStore, byte[] sharedSecret) {
+        this.localNodeId = localNodeId;
+        this.localStore = localStore;
+        this.codec = new SessionCodecFactory(sharedSecret);
+        this.client = new SessionNodeClient(DEFAULT_TIMEOUT,
+                DEFAULT_RETRY_INTERVAL, codec);
+        ring.addNode(localNodeId);
+    }
+
+    /**
+     * Allows session values returned by other nodes to refer to a class.
+     * Every class in the serialized form of a value must be allowed
+     *
+     * @param valueClass  The class
+     */
+    public void addValueClass(Class<?> valueClass) {
+        codec.addValueClass(valueClass.getName());
+    }
+
+    /**
+     * Adds another node to the cluster
+     *
+     * @param nodeId   The id of the node
+     * @param address  The address its <code>SessionNodeServer</code> is bound to
+     */
+    public void addNode(String nodeId, InetSocketAddress address) {
+        if (nodeId.equals(localNodeId)) {
+            return;
+        }
+        nodeAddresses.put(nodeId, address);
+        ring.addNode(nodeId);
+        LOG.info("Added session node [" + nodeId + "] at " + address);
+    }
+
+    /**
+     * Removes a node from the cluster. Its sessions are no longer
+     * reachable, and their keys are re-assigned by the hash ring
+     *
+     * @param nodeId  The id of the node
+     */
+    public void removeNode(String nodeId) {
+        if (nodeAddresses.remove(nodeId) != null) {
+            ring.removeNode(nodeId);
+            LOG.info("Removed session node [" + nodeId + "]");
+        }
+    }
+
+    /**
+     * Sets all other nodes of the cluster. Any existing nodes are removed.
+     * An entry for this node is ignored, so all nodes may share the same
+     * configuration
+     *
+     * @param nodes  The address of each node, by node id
+     */
+    public void setNodes(Map<String, InetSocketAddress> nodes) {
+        for (String nodeId : nodeAddresses.keySet()) {
+            if (!nodes.containsKey(nodeId)) {
+                removeNode(nodeId);
+            }
+        }
+        for (Entry<String, InetSocketAddress> entry : nodes.entrySet()) {
+            addNode(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Sets the time to wait for another node to connect or reply. Request
+     * threads operating on the sessions of another node block for up to
+     * this time. The default is 5 seconds
+     *
+     * @param timeout  The timeout (in ms)
+     */
+    public void setTimeout(long timeout) {
+        client.setTimeout(timeout);
+    }
+
+    /**
+     * Sets the time for which operations on the sessions of a node which
+     * has failed fail at once, rather than waiting on the node again
+     *
+     * @param retryInterval  The interval (in ms)
+     */
+    public void setRetryInterval(long retryInterval) {
+        client.setRetryInterval(retryInterval);
+    }
+
+    /**
+     * Adds a listener to the local store
+     */
+    public void addSessionListener(HttpSessionListener listener) {
+        localStore.addSessionListener(listener);
+    }
+
+    /**
+     * Closes the local store, and all connections to other nodes
+     */
+    public void close() {
+        client.dispose();
+        localStore.close();
+    }
+
+    /**
+     * Creates a session on the node which owns the key
+     *
+     * @throws IllegalStateException If the owning node can not be reached
+     */
+    public HttpSession createSession(String key) {
+        InetSocketAddress owner = ownerOf(key);
+        if (owner == null) {
+            return localStore.createSession(key);
+        }
+        Object created;
+        try {
+            created = client.call(owner, SessionRequest.CREATE, key, null,
+                    null);
+        } catch (IOException e) {
+            throw new IllegalStateException("Session node unavailable: " + e);
+        }
+        return Boolean.TRUE.equals(created) ? new RemoteSession(key, owner,
+                client, false) : null;
+    }
+
+    /**
+     * Locates a session on the node which owns the key. If the owning node
+     * can not be reached, the session is treated as not found
+     */
+    public HttpSession locateSession(String key) {
+        InetSocketAddress owner = ownerOf(key);
+        if (owner == null) {
+            return localStore.locateSession(key);
+        }
+        try {
+            if (Boolean.TRUE.equals(client.call(owner,
+                    SessionRequest.LOCATE, key, null, null))) {
+                return new RemoteSession(key, owner, client, true);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to locate session on " + owner + ": " + e);
+        }
+        return null;
+    }
+
+    /**
+     * Informs the node which owns the session that a request using it has
+     * completed
+     */
+    public void requestCompleted(HttpSession session) {
+        if (session instanceof RemoteSession) {
+            try {
+                ((RemoteSession) session).requestCompleted();
+            } catch (IllegalStateException e) {
+                LOG.warn("Unable to complete request for session "
+                        + session.getId() + ": " + e.getMessage());
+            }
+        } else if (localStore instanceof ChangeTrackingSessionStore) {
+            ((ChangeTrackingSessionStore) localStore).requestCompleted(session);
+        }
+    }
+
+    /**
+     * @return The address of the node owning the key, or <code>null</code>
+     *         if the key is owned by this node
+     */
+    private InetSocketAddress ownerOf(String key) {
+        String nodeId = NodeKeyFactory.getNodeId(key);
+        if (nodeId == null
+                || !(nodeId.equals(localNodeId) || nodeAddresses
+                        .containsKey(nodeId))) {
+            nodeId = ring.getNode(key);
+        }
+        return nodeId.equals(localNodeId) ? null : nodeAddresses.get(nodeId);
+    }
+}
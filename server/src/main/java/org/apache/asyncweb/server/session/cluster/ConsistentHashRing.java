@@ -0,0 +1,173 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Maps keys to nodes such that adding or removing a node only moves the
+ * keys of that node.
+ * <p>
+ * Each node is placed at a number of points on a ring of 32 bit hashes,
+ * and a key belongs to the node at the first point at or after its own
+ * hash. Lookups are a binary search over an immutable snapshot of the
+ * ring, so they take no lock; changes to membership rebuild the snapshot.
+ * </p>
+ *
+ */
+public class ConsistentHashRing {
+
+    /**
+     * The default number of points per node
+     */
+    private static final int DEFAULT_POINTS_PER_NODE = 128;
+
+    private final int pointsPerNode;
+
+    private final Set<String> nodes = new LinkedHashSet<String>();
+
+    private volatile Snapshot snapshot = new Snapshot(new int[0],
+            new String[0]);
+
+    /**
+     * Constructs with the default number of points per node
+     */
+    public ConsistentHashRing() {
+        this(DEFAULT_POINTS_PER_NODE);
+    }
+
+    /**
+     * Constructs with a specified number of points per node. More points
+     * spread keys more evenly between nodes
+     *
+     * @param pointsPerNode  The number of points per node
+     */
+    public ConsistentHashRing(int pointsPerNode) {
+        if (pointsPerNode <= 0) {
+            throw new IllegalArgumentException("pointsPerNode: "
+                    + pointsPerNode);
+        }
+        this.pointsPerNode = pointsPerNode;
+    }
+
+    /**
+     * Adds a node to this ring
+     *
+     * @param node  The node id
+     */
+    public synchronized void addNode(String node) {
+        if (nodes.add(node)) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Removes a node from this ring
+     *
+     * @param node  The node id
+     */
+    public synchronized void removeNode(String node) {
+        if (nodes.remove(node)) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @return The nodes on this ring
+     */
+    public synchronized Set<String> getNodes() {
+        return Collections.unmodifiableSet(new LinkedHashSet<String>(nodes));
+    }
+
+    /**
+     * Returns the node a key belongs to
+     *
+     * @param key  The key
+     * @return The node id, or <code>null</code> if this ring has no nodes
+     */
+    public String getNode(String key) {
+        Snapshot snapshot = this.snapshot;
+        int[] points = snapshot.points;
+        if (points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0;
+            }
+        }
+        return snapshot.owners[index];
+    }
+
+    private void rebuild() {
+        long[] entries = new long[nodes.size() * pointsPerNode];
+        String[] nodeArray = nodes.toArray(new String[nodes.size()]);
+        int e = 0;
+        for (int n = 0; n < nodeArray.length; ++n) {
+            for (int p = 0; p < pointsPerNode; ++p) {
+                // Sort by point, keeping the node index in the low bits
+                long point = hash(nodeArray[n] + '#' + p);
+                entries[e++] = point << 32 | n;
+            }
+        }
+        Arrays.sort(entries);
+        int[] points = new int[entries.length];
+        String[] owners = new String[entries.length];
+        for (int i = 0; i < entries.length; ++i) {
+            points[i] = (int) (entries[i] >> 32);
+            owners[i] = nodeArray[(int) entries[i]];
+        }
+        snapshot = new Snapshot(points, owners);
+    }
+
+    /**
+     * FNV-1a, followed by the MurmurHash3 finalizer to spread similar keys
+     */
+    private static int hash(String key) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < key.length(); ++i) {
+            h ^= key.charAt(i);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static class Snapshot {
+
+        private final int[] points;
+
+        private final String[] owners;
+
+        Snapshot(int[] points, String[] owners) {
+            this.points = points;
+            this.owners = owners;
+        }
+    }
+}
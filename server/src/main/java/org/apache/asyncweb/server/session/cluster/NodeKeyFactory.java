@@ -0,0 +1,71 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+import org.apache.asyncweb.server.session.HttpSessionKeyFactory;
+
+/**
+ * A <code>SessionKeyFactory</code> which prefixes the keys created by
+ * another factory with the id of the node creating them, so requests for
+ * the session can be routed to that node.
+ * <p>
+ * Keys take the form <code>nodeId.key</code>. Node ids must therefore not
+ * contain a <code>'.'</code>.
+ * </p>
+ *
+ */
+public class NodeKeyFactory implements HttpSessionKeyFactory {
+
+    /**
+     * Separates the node id from the remainder of a key
+     */
+    public static final char SEPARATOR = '.';
+
+    private final String prefix;
+
+    private final HttpSessionKeyFactory keyFactory;
+
+    /**
+     * @param nodeId      The id of the node keys are created by
+     * @param keyFactory  The factory creating the remainder of each key
+     */
+    public NodeKeyFactory(String nodeId, HttpSessionKeyFactory keyFactory) {
+        if (nodeId.length() == 0 || nodeId.indexOf(SEPARATOR) != -1) {
+            throw new IllegalArgumentException("Invalid node id: " + nodeId);
+        }
+        this.prefix = nodeId + SEPARATOR;
+        this.keyFactory = keyFactory;
+    }
+
+    public String createSessionKey() {
+        return prefix + keyFactory.createSessionKey();
+    }
+
+    /**
+     * Extracts the node id from a key created by a <code>NodeKeyFactory</code>
+     *
+     * @param key  The session key
+     * @return The node id, or <code>null</code> if the key holds no node id
+     */
+    public static String getNodeId(String key) {
+        int separator = key.indexOf(SEPARATOR);
+        return separator > 0 ? key.substring(0, separator) : null;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.asyncweb.server.HttpSession;
+
+/**
+ * A session held by another node. Each operation is forwarded to the
+ * owning node, so values are transferred by value and must be
+ * <code>Serializable</code>.
+ * <p>
+ * A <code>RemoteSession</code> is created each time a session is located,
+ * so it serves a single request. Values read are kept for the rest of
+ * that request: the first read of each value, and every change, blocks
+ * the calling thread on a round trip to the owning node for up to the
+ * store's timeout, while later reads are served locally. Changes made by
+ * concurrent requests on other nodes are therefore not seen by a request
+ * which has already read the value.
+ * </p>
+ * <p>
+ * Validity is checked with the owning node at most once per validity
+ * interval, so a session used repeatedly during a request costs a single
+ * round trip.
+ * </p>
+ *
+ */
+class RemoteSession implements HttpSession {
+
+    /**
+     * The time for which a confirmation of validity is relied on
+     */
+    private static final long VALIDITY_INTERVAL = 1000;
+
+    private final String id;
+
+    private final InetSocketAddress owner;
+
+    private final SessionNodeClient client;
+
+    private final boolean isAttached;
+
+    private volatile long validatedAt;
+
+    private volatile boolean isDestroyed;
+
+    /**
+     * The values read or written by this request. A value known to be
+     * absent is held as <code>null</code>
+     */
+    private final Map<String, Object> values = new HashMap<String, Object>();
+
+    /**
+     * @param id          The session id
+     * @param owner       The address of the owning node
+     * @param client      The client employed to reach the owning node
+     * @param isAttached  <code>true</code> if the session was located
+     *                    rather than created
+     */
+    RemoteSession(String id, InetSocketAddress owner, SessionNodeClient client,
+            boolean isAttached) {
+        this.id = id;
+        this.owner = owner;
+        this.client = client;
+        this.isAttached = isAttached;
+        // the node has just located or created the session
+        this.validatedAt = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Object getValue(String key) {
+        synchronized (values) {
+            if (values.containsKey(key)) {
+                return values.get(key);
+            }
+        }
+        Object value = call(SessionRequest.GET_VALUE, key, null);
+        synchronized (values) {
+            if (!values.containsKey(key)) {
+                values.put(key, value);
+            }
+            return values.get(key);
+        }
+    }
+
+    public void setValue(String key, Object value) {
+        call(SessionRequest.SET_VALUE, key, value);
+        synchronized (values) {
+            values.put(key, value);
+        }
+    }
+
+    public Object removeValue(String key) {
+        Object removed = call(SessionRequest.REMOVE_VALUE, key, null);
+        synchronized (values) {
+            values.put(key, null);
+        }
+        return removed;
+    }
+
+    public boolean isAttached() {
+        return isAttached;
+    }
+
+    /**
+     * @return <code>false</code> if the session has been destroyed or timed
+     *         out - or the owning node can not be reached
+     */
+    public boolean isValid() {
+        if (isDestroyed) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - validatedAt < VALIDITY_INTERVAL) {
+            return true;
+        }
+        boolean isValid;
+        try {
+            isValid = Boolean.TRUE.equals(client.call(owner,
+                    SessionRequest.IS_VALID, id, null, null));
+        } catch (IOException e) {
+            return false;
+        }
+        if (isValid) {
+            validatedAt = now;
+        } else {
+            isDestroyed = true;
+        }
+        return isValid;
+    }
+
+    public void destroy() {
+        isDestroyed = true;
+        call(SessionRequest.DESTROY, null, null);
+    }
+
+    /**
+     * Informs the owning node that a request using this session has completed
+     */
+    void requestCompleted() {
+        call(SessionRequest.REQUEST_COMPLETED, null, null);
+    }
+
+    private Object call(int operation, String name, Object value) {
+        try {
+            return client.call(owner, operation, id, name, value);
+        } catch (IOException e) {
+            throw new IllegalStateException("Session node unavailable: " + e);
+        }
+    }
+}
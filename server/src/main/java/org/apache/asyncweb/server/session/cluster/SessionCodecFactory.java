@@ -0,0 +1,409 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.asyncweb.server.session.SessionValueClasses;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderAdapter;
+import org.apache.mina.filter.codec.ProtocolEncoderException;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+
+/**
+ * Encodes and decodes the messages exchanged between session nodes.
+ * <p>
+ * Each message is sent as a frame holding its fields in a fixed binary
+ * layout, followed by an HMAC of the frame keyed with a secret shared by all
+ * nodes of the cluster. A frame whose HMAC does not verify closes the
+ * connection before any of its content is interpreted, so hosts without
+ * the secret can neither operate on sessions nor submit data for decoding.
+ * </p>
+ * <p>
+ * Each side of a connection opens it by sending a random nonce. The HMAC
+ * of every later frame also covers the nonce of its receiver and the
+ * number of frames sent before it on the connection, so a recorded frame
+ * is rejected if it is replayed - whether on the same connection or on
+ * another. Frames must therefore be written to a connection by one thread
+ * at a time, in the order they are to be sent.
+ * </p>
+ * <p>
+ * Session values are carried as serialized bytes, which are only
+ * deserialized once their frame has been authenticated - and then only if
+ * every class they refer to has been allowed. Strings, boxed primitives,
+ * <code>BigInteger</code>, <code>BigDecimal</code>, <code>Date</code> and
+ * arrays of these are allowed by default.
+ * </p>
+ *
+ */
+class SessionCodecFactory implements ProtocolCodecFactory {
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+
+    private static final int MAC_LENGTH = 32;
+
+    /**
+     * The shortest shared secret accepted
+     */
+    private static final int MIN_SECRET_LENGTH = 16;
+
+    /**
+     * The largest frame accepted - 1MB
+     */
+    private static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+    private static final byte REQUEST = 1;
+
+    private static final byte REPLY = 2;
+
+    private static final byte HELLO = 3;
+
+    private static final int NONCE_LENGTH = 16;
+
+    private static final AttributeKey STATE = new AttributeKey(
+            SessionCodecFactory.class, "state");
+
+    /**
+     * The message written to open a connection
+     */
+    static final Object HELLO_MESSAGE = new Object();
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKeySpec secret;
+
+    private final SessionValueClasses valueClasses = new SessionValueClasses();
+
+    /**
+     * @param sharedSecret  The secret shared by all nodes of the cluster
+     */
+    SessionCodecFactory(byte[] sharedSecret) {
+        if (sharedSecret == null || sharedSecret.length < MIN_SECRET_LENGTH) {
+            throw new IllegalArgumentException(
+                    "The shared secret must be at least " + MIN_SECRET_LENGTH
+                            + " bytes");
+        }
+        this.secret = new SecretKeySpec(sharedSecret.clone(), MAC_ALGORITHM);
+    }
+
+    /**
+     * Allows session values to refer to a class
+     */
+    void addValueClass(String className) {
+        valueClasses.add(className);
+    }
+
+    /**
+     * Opens a new connection, by sending the peer the nonce with which the
+     * frames it sends us are authenticated
+     */
+    void open(IoSession session) {
+        synchronized (session) {
+            session.write(HELLO_MESSAGE);
+        }
+    }
+
+    /**
+     * Waits until the peer has opened a connection. No other messages can
+     * be written to the connection before then
+     *
+     * @return <code>true</code> if the peer opened the connection in time
+     */
+    boolean awaitOpen(IoSession session, long timeout)
+            throws InterruptedIOException {
+        try {
+            return state(session).opened.await(timeout,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    public ProtocolEncoder getEncoder(IoSession session) {
+        return new Encoder();
+    }
+
+    public ProtocolDecoder getDecoder(IoSession session) {
+        return new Decoder();
+    }
+
+    /**
+     * Serializes a session value
+     *
+     * @throws IllegalStateException If the value is not serializable
+     */
+    static byte[] serializeValue(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Session value is not serializable: "
+                    + value.getClass().getName());
+        }
+    }
+
+    /**
+     * Deserializes a session value
+     *
+     * @throws IllegalStateException If the value refers to a class which is
+     *                               not allowed, or can not be deserialized
+     */
+    Object deserializeValue(byte[] serialized) {
+        if (serialized == null) {
+            return null;
+        }
+        try {
+            ObjectInputStream in = valueClasses
+                    .newInputStream(new ByteArrayInputStream(serialized));
+            return in.readObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Session value rejected: " + e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Session value rejected: " + e);
+        }
+    }
+
+    /**
+     * @param nonce     The nonce of the receiver, or <code>null</code> for a
+     *                  frame opening a connection
+     * @param sequence  The number of frames sent before this one
+     */
+    private byte[] mac(byte[] nonce, long sequence, byte[] payload)
+            throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(secret);
+        if (nonce != null) {
+            mac.update(nonce);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                mac.update((byte) (sequence >>> shift));
+            }
+        }
+        return mac.doFinal(payload);
+    }
+
+    private static ConnectionState state(IoSession session) {
+        ConnectionState state = (ConnectionState) session.getAttribute(STATE);
+        if (state == null) {
+            ConnectionState created = new ConnectionState();
+            state = (ConnectionState) session.setAttributeIfAbsent(STATE,
+                    created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value)
+            throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    private class Encoder extends ProtocolEncoderAdapter {
+
+        public void encode(IoSession session, Object message,
+                ProtocolEncoderOutput out) throws Exception {
+            ConnectionState state = state(session);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            if (message == HELLO_MESSAGE) {
+                data.writeByte(HELLO);
+                data.write(state.localNonce);
+            } else if (message instanceof SessionRequest) {
+                SessionRequest request = (SessionRequest) message;
+                data.writeByte(REQUEST);
+                data.writeLong(request.getId());
+                data.writeInt(request.getOperation());
+                writeString(data, request.getSessionKey());
+                writeString(data, request.getName());
+                writeBytes(data, request.getValue());
+            } else {
+                SessionReply reply = (SessionReply) message;
+                data.writeByte(REPLY);
+                data.writeLong(reply.getId());
+                writeBytes(data, reply.getResult());
+                writeString(data, reply.getError());
+            }
+            data.close();
+            byte[] payload = bytes.toByteArray();
+
+            byte[] mac;
+            if (message == HELLO_MESSAGE) {
+                mac = mac(null, 0, payload);
+            } else {
+                byte[] peerNonce = state.peerNonce;
+                if (peerNonce == null) {
+                    throw new ProtocolEncoderException(
+                            "Connection not opened by peer");
+                }
+                long sequence;
+                synchronized (state) {
+                    sequence = state.sentFrames++;
+                }
+                mac = mac(peerNonce, sequence, payload);
+            }
+
+            IoBuffer frame = IoBuffer.allocate(4 + payload.length + MAC_LENGTH);
+            frame.putInt(payload.length + MAC_LENGTH);
+            frame.put(payload);
+            frame.put(mac);
+            frame.flip();
+            out.write(frame);
+        }
+    }
+
+    private class Decoder extends CumulativeProtocolDecoder {
+
+        @Override
+        protected boolean doDecode(IoSession session, IoBuffer in,
+                ProtocolDecoderOutput out) throws Exception {
+            if (!in.prefixedDataAvailable(4, MAX_FRAME_LENGTH)) {
+                return false;
+            }
+            int length = in.getInt();
+            if (length < MAC_LENGTH + 1) {
+                throw new ProtocolDecoderException("Frame too short: "
+                        + length);
+            }
+            byte[] payload = new byte[length - MAC_LENGTH];
+            byte[] mac = new byte[MAC_LENGTH];
+            in.get(payload);
+            in.get(mac);
+            ConnectionState state = state(session);
+            boolean isOpened = state.peerNonce != null;
+            byte[] expected = isOpened ? mac(state.localNonce,
+                    state.receivedFrames++, payload) : mac(null, 0, payload);
+            if (!MessageDigest.isEqual(mac, expected)) {
+                throw new ProtocolDecoderException(
+                        "Frame authentication failed");
+            }
+
+            DataInputStream data = new DataInputStream(
+                    new ByteArrayInputStream(payload));
+            byte type = data.readByte();
+            if (!isOpened) {
+                if (type != HELLO) {
+                    throw new ProtocolDecoderException(
+                            "Connection not opened");
+                }
+                byte[] nonce = new byte[NONCE_LENGTH];
+                data.readFully(nonce);
+                state.peerNonce = nonce;
+                state.opened.countDown();
+            } else if (type == REQUEST) {
+                out.write(new SessionRequest(data.readLong(), data.readInt(),
+                        readString(data), readString(data), readBytes(data)));
+            } else if (type == REPLY) {
+                out.write(new SessionReply(data.readLong(), readBytes(data),
+                        readString(data)));
+            } else {
+                throw new ProtocolDecoderException("Unknown frame type: "
+                        + type);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The nonces and frame counts of a connection
+     */
+    private static class ConnectionState {
+
+        /**
+         * The nonce which frames sent to us must be authenticated with
+         */
+        private final byte[] localNonce = new byte[NONCE_LENGTH];
+
+        /**
+         * The nonce which frames we send must be authenticated with, once
+         * the peer has opened the connection
+         */
+        private volatile byte[] peerNonce;
+
+        private final CountDownLatch opened = new CountDownLatch(1);
+
+        private long sentFrames;
+
+        /**
+         * Only accessed by the decoder
+         */
+        private long receivedFrames;
+
+        ConnectionState() {
+            RANDOM.nextBytes(localNonce);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.core.future.ConnectFuture;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.transport.socket.nio.NioSocketConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends <code>SessionRequest</code>s to the <code>SessionNodeServer</code>s
+ * of other nodes, and awaits their replies. A single connection is held to
+ * each node, on which requests are pipelined.
+ * <p>
+ * Once a node has failed to connect or reply, calls to it fail at once
+ * until the retry interval has passed, so an unavailable node does not hold
+ * up every request which refers to its sessions.
+ * </p>
+ *
+ */
+class SessionNodeClient {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(SessionNodeClient.class);
+
+    private final NioSocketConnector connector = new NioSocketConnector();
+
+    private final ConcurrentMap<InetSocketAddress, IoSession> connections = new ConcurrentHashMap<InetSocketAddress, IoSession>();
+
+    private final ConcurrentMap<Long, PendingCall> pendingCalls = new ConcurrentHashMap<Long, PendingCall>();
+
+    private final ConcurrentMap<InetSocketAddress, Long> failures = new ConcurrentHashMap<InetSocketAddress, Long>();
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    private final SessionCodecFactory codec;
+
+    private volatile long timeout;
+
+    private volatile long retryInterval;
+
+    /**
+     * @param timeout        The time to wait for a connection or reply (in ms)
+     * @param retryInterval  The time for which calls to a failed node fail
+     *                       at once (in ms)
+     * @param codec          The codec of messages exchanged with nodes
+     */
+    SessionNodeClient(long timeout, long retryInterval,
+            SessionCodecFactory codec) {
+        this.codec = codec;
+        this.retryInterval = retryInterval;
+        connector.getFilterChain().addLast("codec",
+                new ProtocolCodecFilter(codec));
+        connector.setHandler(new ReplyHandler());
+        setTimeout(timeout);
+    }
+
+    void setRetryInterval(long retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    void setTimeout(long timeout) {
+        this.timeout = timeout;
+        connector.setConnectTimeoutMillis(timeout);
+    }
+
+    /**
+     * Performs an operation on a session held by another node
+     *
+     * @param address     The address of the node
+     * @param operation   The operation
+     * @param sessionKey  The session key
+     * @param name        The name of the session value operated on, if any
+     * @param value       The value set, if any
+     * @return The result of the operation
+     * @throws IOException If the node can not be reached, does not reply
+     *                     in time, or has failed within the retry interval
+     */
+    Object call(InetSocketAddress address, int operation, String sessionKey,
+            String name, Object value) throws IOException {
+        byte[] serialized = SessionCodecFactory.serializeValue(value);
+        Long failedAt = failures.get(address);
+        if (failedAt != null
+                && System.currentTimeMillis() - failedAt < retryInterval) {
+            throw new IOException("Session node " + address
+                    + " recently failed");
+        }
+
+        SessionReply reply;
+        try {
+            reply = send(address, new SessionRequest(nextId
+                    .incrementAndGet(), operation, sessionKey, name,
+                    serialized));
+        } catch (IOException e) {
+            if (failures.put(address, System.currentTimeMillis()) == null) {
+                LOG.warn("Session node " + address + " failed: " + e);
+            }
+            throw e;
+        }
+        failures.remove(address);
+        if (reply.getError() != null) {
+            throw new IllegalStateException("Session operation failed on "
+                    + address + ": " + reply.getError());
+        }
+        return codec.deserializeValue(reply.getResult());
+    }
+
+    private SessionReply send(InetSocketAddress address,
+            SessionRequest request) throws IOException {
+        IoSession connection = connect(address);
+        PendingCall call = new PendingCall(connection);
+        pendingCalls.put(request.getId(), call);
+        try {
+            // frames are authenticated in the order they are written
+            synchronized (connection) {
+                connection.write(request);
+            }
+            SessionReply reply = call.await(timeout);
+            if (reply == null) {
+                throw new IOException("No reply from " + address);
+            }
+            return reply;
+        } finally {
+            pendingCalls.remove(request.getId());
+        }
+    }
+
+    /**
+     * Closes all connections
+     */
+    void dispose() {
+        connector.dispose();
+        connections.clear();
+    }
+
+    private IoSession connect(InetSocketAddress address) throws IOException {
+        IoSession connection = connections.get(address);
+        if (connection != null && connection.isConnected()) {
+            return connection;
+        }
+        synchronized (this) {
+            connection = connections.get(address);
+            if (connection != null && connection.isConnected()) {
+                return connection;
+            }
+            ConnectFuture future = connector.connect(address);
+            future.awaitUninterruptibly(timeout);
+            if (!future.isConnected()) {
+                future.cancel();
+                throw new IOException("Unable to connect to " + address);
+            }
+            connection = future.getSession();
+            if (!codec.awaitOpen(connection, timeout)) {
+                connection.close(true);
+                throw new IOException("Session node " + address
+                        + " did not open the connection");
+            }
+            connections.put(address, connection);
+            LOG.info("Connected to session node " + address);
+            return connection;
+        }
+    }
+
+    /**
+     * A request awaiting its reply
+     */
+    private static class PendingCall {
+
+        private final IoSession connection;
+
+        private SessionReply reply;
+
+        private boolean isFailed;
+
+        PendingCall(IoSession connection) {
+            this.connection = connection;
+        }
+
+        synchronized void complete(SessionReply reply) {
+            this.reply = reply;
+            notifyAll();
+        }
+
+        synchronized void fail() {
+            isFailed = true;
+            notifyAll();
+        }
+
+        /**
+         * @return The reply, or <code>null</code> if the connection closed or
+         *         no reply arrived in time
+         */
+        synchronized SessionReply await(long timeout)
+                throws InterruptedIOException {
+            long deadline = System.currentTimeMillis() + timeout;
+            long remaining = timeout;
+            while (reply == null && !isFailed && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return reply;
+        }
+    }
+
+    private class ReplyHandler extends IoHandlerAdapter {
+
+        @Override
+        public void sessionOpened(IoSession session) {
+            codec.open(session);
+        }
+
+        @Override
+        public void messageReceived(IoSession session, Object message) {
+            SessionReply reply = (SessionReply) message;
+            PendingCall call = pendingCalls.get(reply.getId());
+            if (call != null) {
+                call.complete(reply);
+            }
+        }
+
+        @Override
+        public void sessionClosed(IoSession session) {
+            connections.remove(session.getRemoteAddress(), session);
+            for (PendingCall call : pendingCalls.values()) {
+                if (call.connection == session) {
+                    call.fail();
+                }
+            }
+        }
+
+        @Override
+        public void exceptionCaught(IoSession session, Throwable cause) {
+            LOG.warn("Closing connection to session node "
+                    + session.getRemoteAddress(), cause);
+            session.close(true);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.session.ChangeTrackingSessionStore;
+import org.apache.asyncweb.server.session.HttpSessionStore;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the sessions held by a node's local store to the other nodes of a
+ * cluster, on behalf of their <code>ClusteredSessionStore</code>s.
+ * <p>
+ * Every message is authenticated with a secret shared by the nodes of the
+ * cluster, and session values may only refer to allowed classes - see
+ * {@link ClusteredSessionStore}. The server must be bound to an explicit
+ * address, which should be on a network reserved to the cluster.
+ * </p>
+ * <p>
+ * Operations are performed on the I/O thread which receives them, as the
+ * local store is expected not to block.
+ * </p>
+ *
+ */
+public class SessionNodeServer {
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(SessionNodeServer.class);
+
+    private final HttpSessionStore store;
+
+    private final SessionCodecFactory codec;
+
+    private NioSocketAcceptor acceptor;
+
+    /**
+     * @param store         The local store served
+     * @param sharedSecret  The secret shared by all nodes of the cluster -
+     *                      at least 16 bytes
+     */
+    public SessionNodeServer(HttpSessionStore store, byte[] sharedSecret) {
+        this.store = store;
+        this.codec = new SessionCodecFactory(sharedSecret);
+    }
+
+    /**
+     * Allows session values set by other nodes to refer to a class.
+     * Every class in the serialized form of a value must be allowed
+     *
+     * @param valueClass  The class
+     */
+    public void addValueClass(Class<?> valueClass) {
+        codec.addValueClass(valueClass.getName());
+    }
+
+    /**
+     * Starts serving on the specified address
+     *
+     * @param address  The address to bind to, which must name an interface
+     *                 rather than the wildcard address
+     * @throws IOException If the address can not be bound
+     */
+    public synchronized void bind(InetSocketAddress address)
+            throws IOException {
+        if (acceptor != null) {
+            throw new IllegalStateException("Already bound");
+        }
+        if (address.getAddress() == null
+                || address.getAddress().isAnyLocalAddress()) {
+            throw new IllegalArgumentException(
+                    "A cluster interface address is required: " + address);
+        }
+        NioSocketAcceptor created = new NioSocketAcceptor();
+        created.setReuseAddress(true);
+        created.getFilterChain().addLast("codec",
+                new ProtocolCodecFilter(codec));
+        created.setHandler(new RequestHandler());
+        try {
+            created.bind(address);
+        } catch (IOException e) {
+            created.dispose();
+            throw e;
+        }
+        acceptor = created;
+        LOG.info("Serving sessions on " + getLocalAddress());
+    }
+
+    /**
+     * @return The address served on, or <code>null</code> if not bound
+     */
+    public synchronized InetSocketAddress getLocalAddress() {
+        return acceptor == null ? null : acceptor.getLocalAddress();
+    }
+
+    /**
+     * Stops serving
+     */
+    public synchronized void unbind() {
+        if (acceptor != null) {
+            acceptor.unbind();
+            acceptor.dispose();
+            acceptor = null;
+        }
+    }
+
+    /**
+     * @return The serialized result of the request
+     */
+    private byte[] execute(SessionRequest request) {
+        String key = request.getSessionKey();
+        switch (request.getOperation()) {
+        case SessionRequest.CREATE:
+            return result(Boolean.valueOf(store.createSession(key) != null));
+        case SessionRequest.LOCATE:
+            return result(Boolean.valueOf(store.locateSession(key) != null));
+        default:
+            break;
+        }
+
+        HttpSession session = store.locateSession(key);
+        switch (request.getOperation()) {
+        case SessionRequest.IS_VALID:
+            return result(Boolean.valueOf(session != null
+                    && session.isValid()));
+        case SessionRequest.GET_VALUE:
+            return session == null ? null : result(session.getValue(request
+                    .getName()));
+        case SessionRequest.SET_VALUE:
+            if (session != null) {
+                session.setValue(request.getName(), codec
+                        .deserializeValue(request.getValue()));
+            }
+            return null;
+        case SessionRequest.REMOVE_VALUE:
+            return session == null ? null : result(session
+                    .removeValue(request.getName()));
+        case SessionRequest.DESTROY:
+            if (session != null) {
+                session.destroy();
+            }
+            return null;
+        case SessionRequest.REQUEST_COMPLETED:
+            if (session != null
+                    && store instanceof ChangeTrackingSessionStore) {
+                ((ChangeTrackingSessionStore) store).requestCompleted(session);
+            }
+            return null;
+        default:
+            throw new IllegalArgumentException("Unknown operation: "
+                    + request.getOperation());
+        }
+    }
+
+    private static byte[] result(Object value) {
+        return SessionCodecFactory.serializeValue(value);
+    }
+
+    private class RequestHandler extends IoHandlerAdapter {
+
+        @Override
+        public void sessionOpened(IoSession session) {
+            codec.open(session);
+        }
+
+        @Override
+        public void messageReceived(IoSession session, Object message) {
+            SessionRequest request = (SessionRequest) message;
+            SessionReply reply;
+            try {
+                reply = new SessionReply(request.getId(), execute(request),
+                        null);
+            } catch (RuntimeException e) {
+                LOG.warn("Session operation failed", e);
+                reply = new SessionReply(request.getId(), null, e.toString());
+            }
+            session.write(reply);
+        }
+
+        @Override
+        public void exceptionCaught(IoSession session, Throwable cause) {
+            LOG.warn("Closing session node connection from "
+                    + session.getRemoteAddress(), cause);
+            session.close(true);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+/**
+ * The outcome of a <code>SessionRequest</code>. Any result is carried in
+ * serialized form
+ *
+ */
+class SessionReply {
+
+    private final long id;
+
+    private final byte[] result;
+
+    private final String error;
+
+    /**
+     * @param id      The id of the request replied to
+     * @param result  The serialized result of the operation, if successful
+     * @param error   A description of the failure, if unsuccessful
+     */
+    SessionReply(long id, byte[] result, String error) {
+        this.id = id;
+        this.result = result;
+        this.error = error;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    byte[] getResult() {
+        return result;
+    }
+
+    String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+/**
+ * A request for an operation on a session, sent to the node which owns it.
+ * Any session value is carried in serialized form
+ *
+ */
+class SessionRequest {
+
+    static final int CREATE = 1;
+
+    static final int LOCATE = 2;
+
+    static final int GET_VALUE = 3;
+
+    static final int SET_VALUE = 4;
+
+    static final int REMOVE_VALUE = 5;
+
+    static final int IS_VALID = 6;
+
+    static final int DESTROY = 7;
+
+    static final int REQUEST_COMPLETED = 8;
+
+    private final long id;
+
+    private final int operation;
+
+    private final String sessionKey;
+
+    private final String name;
+
+    private final byte[] value;
+
+    SessionRequest(long id, int operation, String sessionKey, String name,
+            byte[] value) {
+        this.id = id;
+        this.operation = operation;
+        this.sessionKey = sessionKey;
+        this.name = name;
+        this.value = value;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    int getOperation() {
+        return operation;
+    }
+
+    String getSessionKey() {
+        return sessionKey;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    byte[] getValue() {
+        return value;
+    }
+}
@@ -25,6 +25,7 @@ import java.net.InetSocketAddress;
 
 import org.apache.mina.core.write.DefaultWriteRequest;
 import org.apache.mina.core.session.IdleStatus;
+import org.apache.mina.core.file.FileRegion;
 import org.apache.mina.core.filterchain.IoFilterAdapter;
 import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.session.IoSession;
@@ -419,6 +420,20 @@ public class SingleHttpSessionIoHandler implements SingleSessionIoHandler
         {
             currentContext = null;
             WriteFuture future = session.write( this );
+            HttpResponse committed = getCommittedResponse();
+            final FileContentResponse response = committed instanceof FileContentResponse
+                ? ( FileContentResponse ) committed : null;
+            if ( response != null && response.getFileContent() != null )
+            {
+                // Release the file once it has been sent - or has failed to be
+                future.addListener( new IoFutureListener<WriteFuture>()
+                {
+                    public void operationComplete( WriteFuture future )
+                    {
+                        closeFileContent( response );
+                    }
+                } );
+            }
             if ( requiresClosure )
             {
                 LOG.debug( "Added CLOSE future listener." );
@@ -427,6 +442,23 @@ public class SingleHttpSessionIoHandler implements SingleSessionIoHandler
         }
 
 
+        private void closeFileContent( FileContentResponse response )
+        {
+            FileRegion fileContent = response.getFileContent();
+            if ( fileContent != null )
+            {
+                try
+                {
+                    fileContent.getFileChannel().close();
+                }
+                catch ( IOException e )
+                {
+                    LOG.debug( "Failed to close file content", e );
+                }
+            }
+        }
+
+
         public void fireClientIdle( long idleTime, int idleCount )
         {
             super.fireClientIdle( idleTime, idleCount );
@@ -0,0 +1,41 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+import java.util.List;
+
+/**
+ * A <code>PermitExpirationListener</code> which can be notified of a number
+ * of expired permits at once. Issuers which expire permits in batches
+ * notify such listeners once per batch rather than once per permit.
+ *
+ */
+public interface BatchPermitExpirationListener extends
+        PermitExpirationListener {
+
+    /**
+     * Invoked when the permits associated with the specified objects expire
+     *
+     * @param targets     The objects for which associated permits have expired
+     * @param expiryTime  The time by which all of the permits were due to expire
+     */
+    public void permitsExpired(List<Object> targets, long expiryTime);
+
+}
@@ -0,0 +1,127 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * A bounded cache of encoded (for example gzip compressed) content, so that
+ * identical content is only encoded once.
+ * <p>
+ * Content is cached against an identity - such as a resource path and its
+ * entity tag, or a digest of the unencoded content - and the name of its
+ * encoding, so several encodings of the same content may be held.
+ * </p>
+ * <p>
+ * The cache is a {@link SegmentedLruCache} weighing content by its size:
+ * each segment holds at most an equal share of the total byte budget and
+ * evicts its least recently used entries to stay within it. Content larger
+ * than a segment budget is never cached.
+ * </p>
+ *
+ */
+public class CompressedContentCache {
+
+    /**
+     * The default byte budget - 32MB
+     */
+    private static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private final SegmentedLruCache<String, IoBuffer> cache;
+
+    /**
+     * Constructs with the default byte budget
+     */
+    public CompressedContentCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Constructs with a specified byte budget
+     *
+     * @param maxBytes  The maximum number of content bytes held
+     */
+    public CompressedContentCache(long maxBytes) {
+        cache = new SegmentedLruCache<String, IoBuffer>(maxBytes) {
+            @Override
+            protected long weigh(IoBuffer content) {
+                return content.remaining();
+            }
+        };
+    }
+
+    /**
+     * Locates cached content
+     *
+     * @param identity  The identity of the unencoded content
+     * @param encoding  The encoding applied
+     * @return A buffer over the cached encoded content, which may be read
+     *         independently of other users - or <code>null</code> if the
+     *         content is not cached
+     */
+    public IoBuffer get(String identity, String encoding) {
+        IoBuffer content = cache.get(key(identity, encoding));
+        return content == null ? null : content.duplicate();
+    }
+
+    /**
+     * Caches encoded content. The remaining content of the specified buffer
+     * is cached: the buffer must not be modified afterwards
+     *
+     * @param identity  The identity of the unencoded content
+     * @param encoding  The encoding applied
+     * @param content   The encoded content
+     */
+    public void put(String identity, String encoding, IoBuffer content) {
+        cache.put(key(identity, encoding), content.duplicate());
+    }
+
+    /**
+     * Discards all cached content
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return The number of lookups which located cached content
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return The number of lookups which did not locate cached content
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * @return The number of content bytes currently held
+     */
+    public long getSize() {
+        return cache.getWeight();
+    }
+
+    private static String key(String identity, String encoding) {
+        return encoding + ' ' + identity;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Compresses buffers into the gzip format.
+ * <p>
+ * A bounded pool of <code>Deflater</code> instances - each with its own
+ * scratch buffers - is shared between compressing threads, so compressing
+ * does not allocate native compression state or large temporary arrays per
+ * call. Heap buffers are compressed in place, and other buffers (for example
+ * direct or mapped buffers) are fed to the deflater through a scratch array.
+ * </p>
+ *
+ */
+public class GZipCompressor {
+
+    /**
+     * Default maximum number of pooled deflaters
+     */
+    private static final int DEFAULT_MAX_POOLED = 32;
+
+    /**
+     * Size of the scratch arrays held by each pooled deflater
+     */
+    private static final int SCRATCH_SIZE = 8192;
+
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED,
+            0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private static final int TRAILER_SIZE = 8;
+
+    private final int level;
+
+    private final int maxPooled;
+
+    private final Queue<Compressor> pool = new ConcurrentLinkedQueue<Compressor>();
+
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    /**
+     * Constructs with the default compression level
+     */
+    public GZipCompressor() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructs with a specified compression level
+     *
+     * @param level  The compression level (<code>0</code> - <code>9</code>,
+     *               or <code>-1</code> for the default)
+     */
+    public GZipCompressor(int level) {
+        this(level, DEFAULT_MAX_POOLED);
+    }
+
+    /**
+     * Constructs with a specified compression level and pool size
+     *
+     * @param level      The compression level (<code>0</code> - <code>9</code>,
+     *                   or <code>-1</code> for the default)
+     * @param maxPooled  The maximum number of idle deflaters retained
+     */
+    public GZipCompressor(int level, int maxPooled) {
+        if (level < Deflater.DEFAULT_COMPRESSION
+                || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid level: " + level);
+        }
+        this.level = level;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Compresses the remaining content of the specified buffer.
+     * The position of the buffer is not changed
+     *
+     * @param content  The buffer to compress
+     * @return A new buffer holding the gzip encoded content, ready to be read
+     */
+    public IoBuffer compress(IoBuffer content) {
+        Compressor compressor = acquire();
+        try {
+            return compressor.compress(content);
+        } finally {
+            release(compressor);
+        }
+    }
+
+    private Compressor acquire() {
+        Compressor compressor = pool.poll();
+        if (compressor == null) {
+            return new Compressor(level);
+        }
+        pooledCount.decrementAndGet();
+        return compressor;
+    }
+
+    private void release(Compressor compressor) {
+        if (pooledCount.incrementAndGet() <= maxPooled) {
+            compressor.reset();
+            pool.offer(compressor);
+        } else {
+            pooledCount.decrementAndGet();
+            compressor.end();
+        }
+    }
+
+    /**
+     * A deflater, checksum and scratch buffers employed by one thread at a
+     * time
+     */
+    private static class Compressor {
+
+        private final Deflater deflater;
+
+        private final CRC32 crc = new CRC32();
+
+        private final byte[] input = new byte[SCRATCH_SIZE];
+
+        private final byte[] output = new byte[SCRATCH_SIZE];
+
+        Compressor(int level) {
+            deflater = new Deflater(level, true);
+        }
+
+        IoBuffer compress(IoBuffer content) {
+            int length = content.remaining();
+            IoBuffer out = IoBuffer.allocate(
+                    HEADER.length + length / 2 + 64 + TRAILER_SIZE)
+                    .setAutoExpand(true);
+            out.put(HEADER);
+            if (content.hasArray()) {
+                int offset = content.arrayOffset() + content.position();
+                crc.update(content.array(), offset, length);
+                deflater.setInput(content.array(), offset, length);
+                drain(out);
+            } else {
+                IoBuffer source = content.duplicate();
+                while (source.hasRemaining()) {
+                    int n = Math.min(input.length, source.remaining());
+                    source.get(input, 0, n);
+                    crc.update(input, 0, n);
+                    deflater.setInput(input, 0, n);
+                    drain(out);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(output);
+                out.put(output, 0, n);
+            }
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt((int) crc.getValue());
+            out.putInt(length);
+            out.order(ByteOrder.BIG_ENDIAN);
+            out.flip();
+            return out;
+        }
+
+        /**
+         * Deflates the current input into the specified buffer
+         */
+        private void drain(IoBuffer out) {
+            while (!deflater.needsInput()) {
+                int n = deflater.deflate(output);
+                out.put(output, 0, n);
+            }
+        }
+
+        void reset() {
+            deflater.reset();
+            crc.reset();
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+}
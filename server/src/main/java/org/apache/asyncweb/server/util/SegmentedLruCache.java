@@ -0,0 +1,271 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache which evicts its least recently used entries, for use by
+ * many threads at once.
+ * <p>
+ * Entries are split between a number of segments, each of which is locked
+ * independently and holds at most an equal share of the capacity - so
+ * threads looking up different keys rarely contend. By default each entry
+ * takes one unit of the capacity. Subclasses may weigh entries instead
+ * (for example by their size in bytes). An entry weighing more than the
+ * share of a segment is never held.
+ * </p>
+ * <p>
+ * Lookups made with <code>get</code> are counted as hits or misses. A cache
+ * which decides for itself whether an entry it finds is still current can
+ * look entries up with <code>peek</code>, and record the outcome.
+ * </p>
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ */
+public class SegmentedLruCache<K, V> {
+
+    /**
+     * The largest number of independently locked segments
+     */
+    private static final int MAX_SEGMENT_COUNT = 16;
+
+    private final List<Segment> segments;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param capacity  The maximum total weight of the entries held. With
+     *                  the default weight, the maximum number of entries
+     */
+    public SegmentedLruCache(long capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be >= 1");
+        }
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENT_COUNT && segmentCount * 2 <= capacity) {
+            segmentCount *= 2;
+        }
+        segments = new ArrayList<Segment>(segmentCount);
+        for (int i = 0; i < segmentCount; ++i) {
+            segments.add(new Segment(capacity / segmentCount));
+        }
+    }
+
+    /**
+     * Looks up an entry, counting the lookup as a hit or a miss
+     *
+     * @return The value, or <code>null</code> if no entry is held for the key
+     */
+    public V get(K key) {
+        V value = peek(key);
+        if (value == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Looks up an entry without counting the lookup
+     *
+     * @return The value, or <code>null</code> if no entry is held for the key
+     */
+    public V peek(K key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Holds an entry, evicting the least recently used entries of its
+     * segment as required. If the entry weighs more than the share of a
+     * segment, it is not held - and any entry previously held for the key is
+     * removed
+     */
+    public void put(K key, V value) {
+        long weight = weigh(value);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            if (weight > segment.capacity) {
+                segment.discard(key);
+            } else {
+                segment.add(key, value, weight);
+            }
+        }
+    }
+
+    /**
+     * Removes an entry
+     *
+     * @return The value removed, or <code>null</code> if no entry was held
+     */
+    public V remove(K key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.discard(key);
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+                segment.weight = 0;
+            }
+        }
+    }
+
+    /**
+     * @return A copy of all entries held
+     */
+    public Map<K, V> snapshot() {
+        Map<K, V> snapshot = new LinkedHashMap<K, V>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                snapshot.putAll(segment);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Counts a lookup which found a current entry
+     */
+    public void recordHit() {
+        hitCount.incrementAndGet();
+    }
+
+    /**
+     * Counts a lookup which found no current entry
+     */
+    public void recordMiss() {
+        missCount.incrementAndGet();
+    }
+
+    /**
+     * @return The number of lookups counted as hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The number of lookups counted as misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return The number of entries held
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The total weight of the entries held
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Determines the share of the capacity taken by a value.
+     * The default is 1
+     *
+     * @param value  The value
+     * @return The weight of the value
+     */
+    protected long weigh(V value) {
+        return 1;
+    }
+
+    private Segment segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments.get(h & (segments.size() - 1));
+    }
+
+    /**
+     * An access ordered map which evicts its eldest entries once it holds
+     * more than its capacity. Instances are guarded by their own monitor
+     */
+    private class Segment extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long capacity;
+
+        private long weight;
+
+        Segment(long capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        void add(K key, V value, long valueWeight) {
+            V replaced = put(key, value);
+            if (replaced != null) {
+                weight -= weigh(replaced);
+            }
+            weight += valueWeight;
+            Iterator<V> eldest = values().iterator();
+            while (weight > capacity) {
+                weight -= weigh(eldest.next());
+                eldest.remove();
+            }
+        }
+
+        V discard(K key) {
+            V removed = remove(key);
+            if (removed != null) {
+                weight -= weigh(removed);
+            }
+            return removed;
+        }
+    }
+}
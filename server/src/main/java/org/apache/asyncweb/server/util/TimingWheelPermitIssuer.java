@@ -0,0 +1,343 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A <code>TimedPermitIssuer</code> which schedules permit expiry on a hashed
+ * timing wheel.
+ * <p>
+ * Time is divided into ticks of a fixed duration, and the wheel holds one
+ * bucket of permits per tick - enough buckets to cover a whole permit
+ * lifetime. A permit is placed in the bucket for the tick in which it is due
+ * to expire. Once per tick, a single sweeper thread examines the bucket for
+ * that tick: cancelled permits are dropped, expired permits are notified, and
+ * permits which have been renewed since they were placed are moved to the
+ * bucket for their new expiry time.
+ * </p>
+ * <p>
+ * Renewing a permit only records its new expiry time, and issuing or
+ * cancelling a permit does not take a lock either - so unlike
+ * {@link LinkedPermitIssuer}, threads renewing permits do not contend with
+ * each other or with the sweeper. The price is precision: a permit is
+ * expired up to one tick after its lifetime elapses.
+ * </p>
+ */
+public class TimingWheelPermitIssuer implements TimedPermitIssuer
+{
+
+    private static final Logger LOG = LoggerFactory
+            .getLogger(TimingWheelPermitIssuer.class);
+
+    /**
+     * The default number of ticks per permit lifetime
+     */
+    private static final int DEFAULT_TICKS_PER_LIFETIME = 64;
+
+    private static final int ACTIVE = 0;
+
+    private static final int CANCELLED = 1;
+
+    private static final int EXPIRED = 2;
+
+    /**
+     * The lifetime given to new permits, and permit renewals
+     */
+    private final long lifetime;
+
+    private final long tickDuration;
+
+    private final Queue<PermitEntry>[] buckets;
+
+    private final List<PermitExpirationListener> listeners = new CopyOnWriteArrayList<PermitExpirationListener>();
+
+    /**
+     * The tick currently being swept, or next to be swept
+     */
+    private volatile long currentTick;
+
+    private final Object lock = new Object();
+
+    private volatile boolean isClosed;
+
+    /**
+     * Creates a <code>TimingWheelPermitIssuer</code> with a specified lifetime
+     * given to new permits, and a tick duration of 1/64th of the lifetime.
+     *
+     * @param lifetime  The lifetime to be used for new permits, and permit renewals
+     */
+    public TimingWheelPermitIssuer(long lifetime) {
+        this(lifetime, Math.max(1, lifetime / DEFAULT_TICKS_PER_LIFETIME));
+    }
+
+    /**
+     * Creates a <code>TimingWheelPermitIssuer</code> with a specified lifetime
+     * given to new permits, and a specified tick duration. Permits expire up
+     * to one tick duration after their lifetime elapses.
+     *
+     * @param lifetime      The lifetime to be used for new permits, and permit
+     *                      renewals
+     * @param tickDuration  The interval (in ms) between sweeps of the wheel
+     */
+    public TimingWheelPermitIssuer(long lifetime, long tickDuration) {
+        if (lifetime <= 0) {
+            throw new IllegalArgumentException("lifetime must be >0");
+        }
+        if (tickDuration <= 0 || tickDuration > lifetime) {
+            throw new IllegalArgumentException(
+                    "tickDuration must be >0 and <= lifetime");
+        }
+        this.lifetime = lifetime;
+        this.tickDuration = tickDuration;
+        int wheelSize = (int) ((lifetime + tickDuration - 1) / tickDuration) + 1;
+        // Arrays of a generic type cannot be created, so the wheel is
+        // created raw. Only PermitEntry queues are ever stored in it
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Queue<PermitEntry>[] wheel = new Queue[wheelSize];
+        buckets = wheel;
+        for (int i = 0; i < wheelSize; ++i) {
+            buckets[i] = new ConcurrentLinkedQueue<PermitEntry>();
+        }
+        currentTick = System.currentTimeMillis() / tickDuration;
+        Thread sweeper = new Thread(new Sweeper(), "TimingWheelPermitIssuer");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    /**
+     * Issues a new <code>TimedPermit</code> for the target object.
+     * Unless <code>renew</code>ed, the permit expires after this
+     * issuers imposed lifetime. Upon renewal, the permit becomes valid
+     * for this issuers configured lifetime from the time of the renewal.
+     *
+     * @param o The target object
+     */
+    public TimedPermit issuePermit(Object o) {
+        PermitEntry permit = new PermitEntry(o);
+        schedule(permit);
+        return permit;
+    }
+
+    /**
+     * Adds a <code>PermitExpirationListener</code> to this issuer
+     *
+     * @param listener the listener
+     */
+    public void addPermitExpirationListener(PermitExpirationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Closes this issuer. No further expiry notifications are made
+     */
+    public void close() {
+        synchronized (lock) {
+            isClosed = true;
+            lock.notify();
+            LOG.debug("Marked as closed");
+        }
+    }
+
+    /**
+     * Places a permit in the bucket for the tick in which it expires.
+     * A permit is never placed in the bucket currently being swept. If the
+     * sweeper is running behind, a permit may expire beyond the span of the
+     * wheel - in which case it is placed in the furthest bucket, and moved
+     * on when that bucket is swept.
+     * <p>
+     * The sweeper may move on while we place the permit, so that the bucket
+     * we chose has already been swept, and would not be swept again for a
+     * whole revolution. So once the permit is placed we check the tick
+     * again: if the sweeper has reached the chosen tick and the permit is
+     * still in its bucket, we take it out and place it again.
+     * </p>
+     */
+    private void schedule(PermitEntry permit) {
+        while (true) {
+            long tick = permit.expiryTime / tickDuration;
+            long sweepTick = currentTick;
+            if (tick <= sweepTick) {
+                tick = sweepTick + 1;
+            } else if (tick >= sweepTick + buckets.length) {
+                tick = sweepTick + buckets.length - 1;
+            }
+            Queue<PermitEntry> bucket = buckets[(int) (tick % buckets.length)];
+            bucket.add(permit);
+            if (currentTick < tick || !bucket.remove(permit)) {
+                // Either the bucket is still to be swept, or the sweeper
+                // has already taken the permit from it
+                return;
+            }
+        }
+    }
+
+    /**
+     * Notifies all listeners of the expiry of the permits of a batch of
+     * target objects. Batch listeners are notified once for the batch, and
+     * other listeners once per target
+     *
+     * @param targets     The expired target objects
+     * @param expiryTime  The time by which the permits were due to expire
+     */
+    private void notifyExpiry(List<Object> targets, long expiryTime) {
+        for (PermitExpirationListener listener : listeners) {
+            try {
+                if (listener instanceof BatchPermitExpirationListener) {
+                    ((BatchPermitExpirationListener) listener).permitsExpired(
+                            targets, expiryTime);
+                } else {
+                    for (Object target : targets) {
+                        listener.permitExpired(target);
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOG.error("Unexpected exception from expiration listener", e);
+            }
+        }
+    }
+
+    /**
+     * A permit placed on the wheel
+     */
+    private class PermitEntry implements TimedPermit {
+
+        private final Object o;
+
+        private final AtomicInteger state = new AtomicInteger(ACTIVE);
+
+        private volatile long expiryTime;
+
+        PermitEntry(Object o) {
+            this.o = o;
+            expiryTime = System.currentTimeMillis() + lifetime;
+        }
+
+        /**
+         * Renews this permit. The new expiry time is only recorded here: the
+         * sweeper moves us on the wheel when it next encounters us
+         */
+        public void renew() {
+            if (state.get() == ACTIVE) {
+                expiryTime = System.currentTimeMillis() + lifetime;
+            }
+        }
+
+        /**
+         * Cancels this permit, unless it has already expired or been
+         * cancelled. The sweeper discards us when it next encounters us
+         */
+        public boolean cancel() {
+            return state.compareAndSet(ACTIVE, CANCELLED);
+        }
+
+        /**
+         * @return <code>true</code> if we were active and are now marked as
+         *         expired
+         */
+        boolean expire() {
+            return state.compareAndSet(ACTIVE, EXPIRED);
+        }
+
+        boolean isActive() {
+            return state.get() == ACTIVE;
+        }
+    }
+
+    /**
+     * Sweeps the bucket for each tick as it elapses
+     */
+    private class Sweeper implements Runnable {
+
+        public void run() {
+            LOG.debug("Sweeper starting");
+            try {
+                while (awaitTick()) {
+                    sweep(currentTick);
+                    currentTick++;
+                }
+            } catch (RuntimeException e) {
+                LOG.error("Unexpected exception on sweeper", e);
+            }
+            LOG.debug("Sweeper closing");
+        }
+
+        /**
+         * Waits until the current tick has elapsed
+         *
+         * @return <code>false</code> if we are closed while waiting
+         */
+        private boolean awaitTick() {
+            long deadline = (currentTick + 1) * tickDuration;
+            synchronized (lock) {
+                long now = System.currentTimeMillis();
+                while (!isClosed && now < deadline) {
+                    try {
+                        lock.wait(deadline - now);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException("Unexpected interrupt");
+                    }
+                    now = System.currentTimeMillis();
+                }
+                return !isClosed;
+            }
+        }
+
+        /**
+         * Examines each permit in the bucket for the specified tick.
+         * Renewed permits are always rescheduled into a later bucket, so
+         * this terminates once the bucket has been drained. Listeners are
+         * notified of all permits expired by the sweep at once.
+         */
+        private void sweep(long tick) {
+            Queue<PermitEntry> bucket = buckets[(int) (tick % buckets.length)];
+            long now = System.currentTimeMillis();
+            List<Object> expired = null;
+            PermitEntry permit;
+            while (!isClosed && (permit = bucket.poll()) != null) {
+                if (!permit.isActive()) {
+                    continue;
+                }
+                if (permit.expiryTime <= now) {
+                    if (permit.expire()) {
+                        if (expired == null) {
+                            expired = new ArrayList<Object>();
+                        }
+                        expired.add(permit.o);
+                    }
+                } else {
+                    schedule(permit);
+                }
+            }
+            if (expired != null) {
+                notifyExpiry(expired, (tick + 1) * tickDuration);
+            }
+        }
+    }
+
+}
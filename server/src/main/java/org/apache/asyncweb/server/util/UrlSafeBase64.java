@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+/**
+ * Encodes and decodes the URL and filename safe Base64 alphabet of
+ * RFC 4648, without padding. Encoded values may be used in URLs and
+ * cookies without escaping.
+ *
+ */
+public class UrlSafeBase64 {
+
+    private static final char[] ALPHABET = ("ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "abcdefghijklmnopqrstuvwxyz0123456789-_").toCharArray();
+
+    private static final int[] VALUES = new int[128];
+
+    static {
+        for (int i = 0; i < VALUES.length; ++i) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < ALPHABET.length; ++i) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private UrlSafeBase64() {
+    }
+
+    /**
+     * Encodes the specified bytes
+     *
+     * @param data  The bytes to encode
+     * @return The encoded string
+     */
+    public static String encode(byte[] data) {
+        return encode(data, 0, data.length);
+    }
+
+    /**
+     * Encodes a range of the specified bytes
+     *
+     * @param data    The bytes to encode
+     * @param offset  The offset of the first byte to encode
+     * @param length  The number of bytes to encode
+     * @return The encoded string
+     */
+    public static String encode(byte[] data, int offset, int length) {
+        char[] out = new char[(length * 4 + 2) / 3];
+        int end = offset + length;
+        int o = 0;
+        int i = offset;
+        while (end - i >= 3) {
+            int bits = (data[i++] & 0xff) << 16 | (data[i++] & 0xff) << 8
+                    | (data[i++] & 0xff);
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            out[o++] = ALPHABET[(bits >>> 6) & 0x3f];
+            out[o++] = ALPHABET[bits & 0x3f];
+        }
+        int remaining = end - i;
+        if (remaining > 0) {
+            int bits = (data[i++] & 0xff) << 16;
+            if (remaining == 2) {
+                bits |= (data[i] & 0xff) << 8;
+            }
+            out[o++] = ALPHABET[bits >>> 18];
+            out[o++] = ALPHABET[(bits >>> 12) & 0x3f];
+            if (remaining == 2) {
+                out[o++] = ALPHABET[(bits >>> 6) & 0x3f];
+            }
+        }
+        return new String(out);
+    }
+
+    /**
+     * Decodes the specified string
+     *
+     * @param encoded  The encoded string
+     * @return The decoded bytes, or <code>null</code> if the string is not
+     *         validly encoded
+     */
+    public static byte[] decode(String encoded) {
+        int length = encoded.length();
+        if (length % 4 == 1) {
+            return null;
+        }
+        byte[] out = new byte[length * 3 / 4];
+        int o = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < length; ++i) {
+            char c = encoded.charAt(i);
+            int value = c < VALUES.length ? VALUES[c] : -1;
+            if (value < 0) {
+                return null;
+            }
+            bits = bits << 6 | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[o++] = (byte) (bits >>> bitCount);
+            }
+        }
+        return out;
+    }
+}
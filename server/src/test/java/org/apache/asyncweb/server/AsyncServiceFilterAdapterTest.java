@@ -0,0 +1,143 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.common.DefaultHttpRequest;
+import org.apache.asyncweb.common.HttpResponseStatus;
+import org.apache.asyncweb.common.MutableHttpRequest;
+import org.apache.asyncweb.server.util.MockHttpServiceContext;
+import org.apache.asyncweb.server.util.MockNextFilter;
+
+/**
+ * Tests <code>AsyncServiceFilterAdapter</code>
+ *
+ */
+public class AsyncServiceFilterAdapterTest extends TestCase {
+
+    private MockFilter filter;
+
+    private AsyncServiceFilterAdapter adapter;
+
+    private MockHttpServiceContext context;
+
+    private MockNextFilter next;
+
+    @Override
+    protected void setUp() throws Exception {
+        filter = new MockFilter();
+        adapter = new AsyncServiceFilterAdapter(filter);
+        MutableHttpRequest request = new DefaultHttpRequest();
+        request.setRequestUri(new URI("/"));
+        context = new MockHttpServiceContext(request);
+        next = new MockNextFilter();
+    }
+
+    /**
+     * Tests that a completed future continues the chain immediately
+     */
+    public void testCompletedProceed() throws Exception {
+        filter.result = FilterFuture.proceed();
+        adapter.handleRequest(next, context);
+        next.assertInvocationCount(1);
+    }
+
+    /**
+     * Tests that the chain continues only once an outstanding future completes
+     */
+    public void testDeferredProceed() throws Exception {
+        filter.result = new FilterFuture();
+        adapter.handleRequest(next, context);
+        next.assertInvocationCount(0);
+        filter.result.complete(true);
+        next.assertInvocationCount(1);
+    }
+
+    /**
+     * Tests that a deferred continuation is run on the configured executor
+     */
+    public void testDeferredProceedOnExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        adapter.setExecutor(new Executor() {
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        filter.result = new FilterFuture();
+        adapter.handleRequest(next, context);
+        filter.result.complete(true);
+        next.assertInvocationCount(0);
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        next.assertInvocationCount(1);
+    }
+
+    /**
+     * Tests that a failed future results in an error response
+     */
+    public void testFailure() throws Exception {
+        filter.result = new FilterFuture();
+        adapter.handleRequest(next, context);
+        filter.result.fail(new Exception("Lookup failed"));
+        next.assertInvocationCount(0);
+        assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR, context
+                .getCommittedResponse().getStatus());
+    }
+
+    /**
+     * Tests that a halting filter's own response is retained
+     */
+    public void testHalt() throws Exception {
+        context.commitResponse(HttpResponseStatus.FORBIDDEN);
+        filter.result = FilterFuture.halt();
+        adapter.handleRequest(next, context);
+        next.assertInvocationCount(0);
+        assertEquals(HttpResponseStatus.FORBIDDEN, context
+                .getCommittedResponse().getStatus());
+    }
+
+    /**
+     * A filter which returns a preset future
+     */
+    private static class MockFilter implements AsyncHttpServiceFilter {
+
+        private FilterFuture result;
+
+        public FilterFuture handleRequest(HttpServiceContext context) {
+            return result;
+        }
+
+        public FilterFuture handleResponse(HttpServiceContext context) {
+            return FilterFuture.proceed();
+        }
+
+        public void start() {
+        }
+
+        public void stop() {
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.common.DefaultHttpRequest;
+import org.apache.asyncweb.common.HttpHeaderConstants;
+import org.apache.asyncweb.common.HttpResponseStatus;
+import org.apache.asyncweb.common.MutableHttpRequest;
+import org.apache.asyncweb.server.resolver.FixedServiceResolver;
+import org.apache.asyncweb.server.util.MockHttpServiceContext;
+import org.apache.asyncweb.server.util.MockNextFilter;
+
+/**
+ * Tests <code>HttpServiceHandler</code>
+ *
+ */
+public class HttpServiceHandlerTest extends TestCase {
+
+    private HttpServiceHandler handler;
+
+    @Override
+    protected void setUp() {
+        handler = new HttpServiceHandler();
+        FixedServiceResolver resolver = new FixedServiceResolver();
+        resolver.setService("service");
+        handler.setServiceResolver(resolver);
+    }
+
+    /**
+     * Tests that requests are dispatched to the registered service
+     */
+    public void testDispatch() throws Exception {
+        MockService service = new MockService();
+        handler.addHttpService("service", service);
+        handler.start();
+        assertEquals(1, service.startCount);
+
+        MockNextFilter next = new MockNextFilter();
+        handler.handleRequest(next, newContext());
+        assertEquals(1, service.requestCount);
+        next.assertInvocationCount(1);
+    }
+
+    /**
+     * Tests that unmapped requests receive a <code>404</code> response
+     */
+    public void testUnmapped() throws Exception {
+        handler.start();
+        MockHttpServiceContext context = newContext();
+        handler.handleRequest(new MockNextFilter(), context);
+        assertEquals(HttpResponseStatus.NOT_FOUND, context
+                .getCommittedResponse().getStatus());
+    }
+
+    /**
+     * Tests that a replaced service is started and the old one
+     * stopped only once its outstanding request completes
+     */
+    public void testHotSwapDrainsOldService() throws Exception {
+        MockService oldService = new MockService();
+        handler.addHttpService("service", oldService);
+        handler.start();
+
+        MockHttpServiceContext pending = newContext();
+        handler.handleRequest(new MockNextFilter(), pending);
+
+        MockService newService = new MockService();
+        handler.addHttpService("service", newService);
+        assertEquals(1, newService.startCount);
+        assertEquals("Old service stopped while busy", 0,
+                oldService.stopCount);
+
+        handler.handleRequest(new MockNextFilter(), newContext());
+        assertEquals(1, oldService.requestCount);
+        assertEquals(1, newService.requestCount);
+
+        pending.commitResponse(HttpResponseStatus.OK);
+        handler.handleResponse(new MockNextFilter(), pending);
+        assertEquals(1, oldService.stopCount);
+
+        handler.stop();
+        assertEquals(1, oldService.stopCount);
+        assertEquals(1, newService.stopCount);
+    }
+
+    /**
+     * Tests that a removed service is stopped when its client disconnects
+     */
+    public void testRemoveDrainsOnDisconnect() throws Exception {
+        MockService service = new MockService();
+        handler.addHttpService("service", service);
+        handler.start();
+
+        MockHttpServiceContext pending = newContext();
+        handler.handleRequest(new MockNextFilter(), pending);
+        handler.removeHttpService("service");
+        assertEquals(0, service.stopCount);
+
+        pending.fireClientDisconnected();
+        assertEquals(1, service.stopCount);
+    }
+
+    /**
+     * Tests that a service removed after the handler has been restarted
+     * is stopped again
+     */
+    public void testRemoveAfterRestart() throws Exception {
+        MockService service = new MockService();
+        handler.addHttpService("service", service);
+        handler.start();
+        handler.stop();
+        handler.start();
+        assertEquals(2, service.startCount);
+        assertEquals(1, service.stopCount);
+
+        handler.removeHttpService("service");
+        assertEquals(2, service.stopCount);
+    }
+
+    /**
+     * Tests that requests beyond a service's concurrency limit are queued,
+     * and those beyond its queue limit are rejected
+     */
+    public void testConcurrencyLimit() throws Exception {
+        MockService service = new MockService();
+        handler.addHttpService("service", service, 1, 1);
+        handler.start();
+
+        MockHttpServiceContext running = newContext();
+        MockNextFilter runningNext = new MockNextFilter();
+        handler.handleRequest(runningNext, running);
+        MockHttpServiceContext queued = newContext();
+        MockNextFilter queuedNext = new MockNextFilter();
+        handler.handleRequest(queuedNext, queued);
+        MockHttpServiceContext rejected = newContext();
+        handler.handleRequest(new MockNextFilter(), rejected);
+
+        assertEquals(1, service.requestCount);
+        runningNext.assertInvocationCount(1);
+        queuedNext.assertInvocationCount(0);
+        assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, rejected
+                .getCommittedResponse().getStatus());
+        assertEquals("1", rejected.getCommittedResponse().getHeader(
+                HttpHeaderConstants.KEY_RETRY_AFTER));
+
+        running.commitResponse(HttpResponseStatus.OK);
+        handler.handleResponse(new MockNextFilter(), running);
+        assertEquals(2, service.requestCount);
+        queuedNext.assertInvocationCount(1);
+    }
+
+    /**
+     * Tests that a queued request whose client disconnects gives up its
+     * place in the queue
+     */
+    public void testQueuedDisconnect() throws Exception {
+        MockService service = new MockService();
+        handler.addHttpService("service", service, 1, 1);
+        handler.start();
+
+        MockHttpServiceContext running = newContext();
+        handler.handleRequest(new MockNextFilter(), running);
+        MockHttpServiceContext queued = newContext();
+        handler.handleRequest(new MockNextFilter(), queued);
+        queued.fireClientDisconnected();
+
+        MockHttpServiceContext next = newContext();
+        handler.handleRequest(new MockNextFilter(), next);
+        assertFalse(next.isResponseCommitted());
+
+        running.commitResponse(HttpResponseStatus.OK);
+        handler.handleResponse(new MockNextFilter(), running);
+        assertEquals(2, service.requestCount);
+    }
+
+    /**
+     * Tests that a queued request is not dispatched until the response
+     * which frees its slot has been passed on
+     */
+    public void testQueuedDispatchFollowsResponse() throws Exception {
+        final MockNextFilter responseNext = new MockNextFilter();
+        MockService service = new MockService() {
+            @Override
+            public void handleRequest(HttpServiceContext context) {
+                super.handleRequest(context);
+                if (getRequestCount() == 2) {
+                    responseNext.assertInvocationCount(1);
+                }
+            }
+        };
+        handler.addHttpService("service", service, 1, 1);
+        handler.start();
+
+        MockHttpServiceContext running = newContext();
+        handler.handleRequest(new MockNextFilter(), running);
+        handler.handleRequest(new MockNextFilter(), newContext());
+
+        running.commitResponse(HttpResponseStatus.OK);
+        handler.handleResponse(responseNext, running);
+        assertEquals(2, service.requestCount);
+    }
+
+    /**
+     * Tests that queued requests are handed to the dispatch executor
+     */
+    public void testDispatchExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        handler.setDispatchExecutor(new Executor() {
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        MockService service = new MockService();
+        handler.addHttpService("service", service, 1, 1);
+        handler.start();
+
+        MockHttpServiceContext running = newContext();
+        handler.handleRequest(new MockNextFilter(), running);
+        MockNextFilter queuedNext = new MockNextFilter();
+        handler.handleRequest(queuedNext, newContext());
+
+        running.commitResponse(HttpResponseStatus.OK);
+        handler.handleResponse(new MockNextFilter(), running);
+        assertEquals(1, service.requestCount);
+        assertEquals(1, tasks.size());
+
+        tasks.get(0).run();
+        assertEquals(2, service.requestCount);
+        queuedNext.assertInvocationCount(1);
+    }
+
+    private MockHttpServiceContext newContext() throws Exception {
+        MutableHttpRequest request = new DefaultHttpRequest();
+        request.setRequestUri(new URI("/service"));
+        return new MockHttpServiceContext(request);
+    }
+
+    /**
+     * A service which does not commit a response, and records its
+     * lifecycle events
+     */
+    private static class MockService implements HttpService {
+
+        private int startCount;
+
+        private int stopCount;
+
+        private int requestCount;
+
+        public void handleRequest(HttpServiceContext context) {
+            ++requestCount;
+        }
+
+        int getRequestCount() {
+            return requestCount;
+        }
+
+        public void start() {
+            ++startCount;
+        }
+
+        public void stop() {
+            ++stopCount;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.context;
+
+import java.net.InetSocketAddress;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.common.DefaultHttpRequest;
+import org.apache.asyncweb.common.HttpResponseStatus;
+import org.apache.asyncweb.common.MutableHttpResponse;
+import org.apache.asyncweb.server.BasicServiceContainer;
+import org.apache.asyncweb.server.HttpServiceContext;
+import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.session.BasicSessionStore;
+import org.apache.asyncweb.server.session.CookieSessionAccessor;
+import org.apache.asyncweb.server.session.HttpSessionAccessor;
+
+/**
+ * Tests <code>AbstractHttpServiceContext</code>
+ *
+ */
+public class HttpServiceContextTest extends TestCase {
+
+    private BasicServiceContainer container;
+
+    @Override
+    protected void setUp() {
+        container = new BasicServiceContainer();
+    }
+
+    /**
+     * Tests that store backed sessions are looked up for every request, and
+     * have their identifiers added to every response
+     */
+    public void testStoreSessionLookedUp() {
+        CountingAccessor accessor = new CountingAccessor();
+        container.setSessionAccessor(accessor);
+        TestContext context = new TestContext(container);
+        assertEquals(1, accessor.lookups);
+        context.commitResponse(HttpResponseStatus.OK);
+        assertEquals(1, accessor.identifiersAdded);
+    }
+
+    /**
+     * Tests that requests which do not use a cookie session do not touch it
+     */
+    public void testCookieSessionUnused() {
+        CountingCookieAccessor accessor = new CountingCookieAccessor();
+        container.setSessionAccessor(accessor);
+        TestContext context = new TestContext(container);
+        context.commitResponse(HttpResponseStatus.OK);
+        assertEquals(0, accessor.lookups);
+        assertEquals(0, accessor.identifiersAdded);
+    }
+
+    /**
+     * Tests that the identifier of a cookie session used by a request is
+     * added to its response
+     */
+    public void testCookieSessionUsed() {
+        CountingCookieAccessor accessor = new CountingCookieAccessor();
+        container.setSessionAccessor(accessor);
+        TestContext context = new TestContext(container);
+        assertNotNull(context.getSession());
+        assertSame(context.getSession(), context.getSession(false));
+        context.commitResponse(HttpResponseStatus.OK);
+        assertEquals(1, accessor.lookups);
+        assertEquals(1, accessor.identifiersAdded);
+    }
+
+    /**
+     * Tests that no identifier is added when no cookie session was found
+     */
+    public void testCookieSessionNotFound() {
+        CountingCookieAccessor accessor = new CountingCookieAccessor();
+        container.setSessionAccessor(accessor);
+        TestContext context = new TestContext(container);
+        assertNull(context.getSession(false));
+        context.commitResponse(HttpResponseStatus.OK);
+        assertEquals(0, accessor.identifiersAdded);
+    }
+
+    private static class TestContext extends AbstractHttpServiceContext {
+
+        TestContext(BasicServiceContainer container) {
+            super(new InetSocketAddress("localhost", 80),
+                    new InetSocketAddress("localhost", 1234),
+                    new DefaultHttpRequest(), container);
+        }
+
+        @Override
+        protected void doWrite(boolean requiresClosure) {
+        }
+    }
+
+    private static class CountingAccessor implements HttpSessionAccessor {
+
+        private final BasicSessionStore store = new BasicSessionStore();
+
+        private int lookups;
+
+        private int identifiersAdded;
+
+        public HttpSession getSession(HttpServiceContext context,
+                boolean create) {
+            ++lookups;
+            return create ? store.createSession("key" + lookups) : null;
+        }
+
+        public void addSessionIdentifier(HttpServiceContext context,
+                MutableHttpResponse response) {
+            ++identifiersAdded;
+        }
+
+        public void init() {
+        }
+
+        public void dispose() {
+            store.close();
+        }
+    }
+
+    private static class CountingCookieAccessor extends CookieSessionAccessor {
+
+        private int lookups;
+
+        private int identifiersAdded;
+
+        CountingCookieAccessor() {
+            setSecret("secret");
+        }
+
+        @Override
+        public HttpSession getSession(HttpServiceContext context,
+                boolean create) {
+            ++lookups;
+            return super.getSession(context, create);
+        }
+
+        @Override
+        public void addSessionIdentifier(HttpServiceContext context,
+                MutableHttpResponse response) {
+            ++identifiersAdded;
+            super.addSessionIdentifier(context, response);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.zip.GZIPInputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.common.DefaultHttpRequest;
+import org.apache.asyncweb.common.DefaultHttpResponse;
+import org.apache.asyncweb.common.HttpHeaderConstants;
+import org.apache.asyncweb.common.HttpResponse;
+import org.apache.asyncweb.common.MutableHttpRequest;
+import org.apache.asyncweb.common.MutableHttpResponse;
+import org.apache.asyncweb.server.util.CompressedContentCache;
+import org.apache.asyncweb.server.util.MockHttpServiceContext;
+import org.apache.asyncweb.server.util.MockNextFilter;
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Tests <code>GZipFilter</code>
+ *
+ */
+public class GZipFilterTest extends TestCase {
+
+    private static final String TEXT;
+
+    static {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; ++i) {
+            text.append("line ").append(i).append('\n');
+        }
+        TEXT = text.toString();
+    }
+
+    private GZipFilter filter;
+
+    @Override
+    protected void setUp() {
+        filter = new GZipFilter();
+    }
+
+    /**
+     * Tests that heap and direct content is compressed
+     */
+    public void testCompression() throws Exception {
+        for (boolean direct : new boolean[] { false, true }) {
+            IoBuffer content = IoBuffer.allocate(TEXT.length() + 10, direct);
+            content.put(new byte[10]).put(TEXT.getBytes("US-ASCII")).flip();
+            content.position(10);
+            HttpResponse response = filter("gzip, deflate", "text/plain",
+                    content);
+            assertEquals("gzip", response
+                    .getHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING));
+            assertEquals(HttpHeaderConstants.KEY_ACCEPT_ENCODING, response
+                    .getHeader(HttpHeaderConstants.KEY_VARY));
+            assertEquals(String.valueOf(response.getContent().remaining()),
+                    response.getHeader(HttpHeaderConstants.KEY_CONTENT_LENGTH));
+            assertEquals(TEXT, gunzip(response.getContent()));
+        }
+    }
+
+    /**
+     * Tests that small content and content types outside the allow-list
+     * are not compressed
+     */
+    public void testThresholds() throws Exception {
+        HttpResponse response = filter("gzip", "text/plain", IoBuffer
+                .wrap(new byte[100]));
+        assertNull(response.getHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING));
+        assertNull(response.getHeader(HttpHeaderConstants.KEY_VARY));
+
+        response = filter("gzip", "image/png", IoBuffer.wrap(TEXT.getBytes()));
+        assertNull(response.getHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING));
+
+        response = filter("gzip", "application/json; charset=UTF-8", IoBuffer
+                .wrap(TEXT.getBytes()));
+        assertEquals("gzip", response
+                .getHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING));
+    }
+
+    /**
+     * Tests that compressible responses vary on the accepted encoding even
+     * when the client refuses gzip
+     */
+    public void testRefused() throws Exception {
+        HttpResponse response = filter("gzip;q=0, identity", "text/html",
+                IoBuffer.wrap(TEXT.getBytes()));
+        assertNull(response.getHeader(HttpHeaderConstants.KEY_CONTENT_ENCODING));
+        assertEquals(HttpHeaderConstants.KEY_ACCEPT_ENCODING, response
+                .getHeader(HttpHeaderConstants.KEY_VARY));
+        assertEquals(TEXT.length(), response.getContent().remaining());
+    }
+
+    /**
+     * Tests that identical content is only compressed once when a cache is
+     * configured - and that entity tags are adjusted
+     */
+    public void testCache() throws Exception {
+        CompressedContentCache cache = new CompressedContentCache();
+        filter.setCompressedContentCache(cache);
+        for (int i = 0; i < 3; ++i) {
+            HttpResponse response = filter("gzip", "text/plain", IoBuffer
+                    .wrap(TEXT.getBytes()));
+            assertEquals(TEXT, gunzip(response.getContent()));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+
+        MutableHttpRequest request = new DefaultHttpRequest();
+        request.setRequestUri(new URI("/app.js"));
+        request.setHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING, "gzip");
+        for (int i = 0; i < 2; ++i) {
+            MutableHttpResponse response = new DefaultHttpResponse();
+            response.setHeader(HttpHeaderConstants.KEY_CONTENT_TYPE,
+                    "application/javascript");
+            response.setHeader(HttpHeaderConstants.KEY_ETAG, "\"v1\"");
+            response.setContent(IoBuffer.wrap(TEXT.getBytes()));
+            filter(request, response);
+            assertEquals("\"v1-gzip\"", response
+                    .getHeader(HttpHeaderConstants.KEY_ETAG));
+            assertEquals(TEXT, gunzip(response.getContent()));
+        }
+        assertEquals(2, cache.getMissCount());
+        assertEquals(3, cache.getHitCount());
+    }
+
+    /**
+     * Tests that cached content of the same path and entity tag is kept
+     * apart for different hosts
+     */
+    public void testCacheSeparatesHosts() throws Exception {
+        filter.setCompressedContentCache(new CompressedContentCache());
+        String[] hosts = { "a.example.com", "b.example.com" };
+        for (int i = 0; i < 2; ++i) {
+            for (String host : hosts) {
+                MutableHttpRequest request = new DefaultHttpRequest();
+                request.setRequestUri(new URI("/app.js"));
+                request.setHeader(HttpHeaderConstants.KEY_HOST, host);
+                request.setHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING,
+                        "gzip");
+                MutableHttpResponse response = new DefaultHttpResponse();
+                response.setHeader(HttpHeaderConstants.KEY_CONTENT_TYPE,
+                        "application/javascript");
+                response.setHeader(HttpHeaderConstants.KEY_ETAG, "\"v1\"");
+                response.setContent(IoBuffer.wrap((host + TEXT).getBytes()));
+                filter(request, response);
+                assertEquals(host + TEXT, gunzip(response.getContent()));
+            }
+        }
+    }
+
+    /**
+     * Tests that cached compressed content is kept apart for requests whose
+     * query differs
+     */
+    public void testCacheSeparatesQueries() throws Exception {
+        filter.setCompressedContentCache(new CompressedContentCache());
+        String[] queries = { "lang=en", "lang=fr" };
+        for (int i = 0; i < 2; ++i) {
+            for (String query : queries) {
+                MutableHttpRequest request = new DefaultHttpRequest();
+                request.setRequestUri(new URI("/app.js?" + query));
+                request.setHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING,
+                        "gzip");
+                MutableHttpResponse response = new DefaultHttpResponse();
+                response.setHeader(HttpHeaderConstants.KEY_CONTENT_TYPE,
+                        "application/javascript");
+                response.setHeader(HttpHeaderConstants.KEY_ETAG, "\"v1\"");
+                response.setContent(IoBuffer.wrap((query + TEXT).getBytes()));
+                filter(request, response);
+                assertEquals(query + TEXT, gunzip(response.getContent()));
+            }
+        }
+    }
+
+    /**
+     * Tests parsing of <code>Accept-Encoding</code> quality values
+     */
+    public void testAcceptsGzip() {
+        assertTrue(GZipFilter.acceptsGzip("gzip"));
+        assertTrue(GZipFilter.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(GZipFilter.acceptsGzip("x-gzip"));
+        assertTrue(GZipFilter.acceptsGzip("*"));
+        assertFalse(GZipFilter.acceptsGzip(null));
+        assertFalse(GZipFilter.acceptsGzip("deflate"));
+        assertFalse(GZipFilter.acceptsGzip("gzip;q=0"));
+        assertFalse(GZipFilter.acceptsGzip("gzip; q=0.0, *"));
+        assertFalse(GZipFilter.acceptsGzip("*;q=0"));
+        assertFalse(GZipFilter.acceptsGzip("gzip;q=bad"));
+    }
+
+    private HttpResponse filter(String acceptEncoding, String contentType,
+            IoBuffer content) throws Exception {
+        MutableHttpRequest request = new DefaultHttpRequest();
+        request.setHeader(HttpHeaderConstants.KEY_ACCEPT_ENCODING,
+                acceptEncoding);
+        MutableHttpResponse response = new DefaultHttpResponse();
+        response.setHeader(HttpHeaderConstants.KEY_CONTENT_TYPE, contentType);
+        response.setContent(content);
+        return filter(request, response);
+    }
+
+    private HttpResponse filter(MutableHttpRequest request,
+            MutableHttpResponse response) throws Exception {
+        MockHttpServiceContext context = new MockHttpServiceContext(request);
+        context.commitResponse(response);
+        MockNextFilter next = new MockNextFilter();
+        filter.handleResponse(next, context);
+        next.assertInvocationCount(1);
+        return context.getCommittedResponse();
+    }
+
+    private static String gunzip(IoBuffer content) throws Exception {
+        byte[] compressed = new byte[content.remaining()];
+        content.get(compressed);
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(
+                compressed));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toString("US-ASCII");
+    }
+}
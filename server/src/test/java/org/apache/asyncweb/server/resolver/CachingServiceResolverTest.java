@@ -0,0 +1,108 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.resolver;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.common.DefaultHttpRequest;
+import org.apache.asyncweb.common.HttpMethod;
+import org.apache.asyncweb.common.HttpRequest;
+import org.apache.asyncweb.common.MutableHttpRequest;
+
+/**
+ * Tests <code>CachingServiceResolver</code>
+ *
+ */
+public class CachingServiceResolverTest extends TestCase {
+
+    private CountingResolver delegate;
+
+    private CachingServiceResolver resolver;
+
+    @Override
+    protected void setUp() {
+        delegate = new CountingResolver();
+        delegate.addURIMapping("/a", "serviceA");
+        resolver = new CachingServiceResolver(32);
+        resolver.setResolver(delegate);
+    }
+
+    /**
+     * Tests that a resolution is only made once by the decorated resolver
+     */
+    public void testResolutionCached() throws Exception {
+        assertEquals("serviceA", resolver.resolveService(request("/a")));
+        assertEquals("serviceA", resolver.resolveService(request("/a")));
+        assertEquals(1, delegate.count);
+    }
+
+    /**
+     * Tests that failed resolutions are cached
+     */
+    public void testNegativeCaching() throws Exception {
+        assertNull(resolver.resolveService(request("/b")));
+        assertNull(resolver.resolveService(request("/b")));
+        assertEquals(1, delegate.count);
+    }
+
+    /**
+     * Tests that clearing the cache makes new mappings visible
+     */
+    public void testClear() throws Exception {
+        assertNull(resolver.resolveService(request("/b")));
+        delegate.addURIMapping("/b", "serviceB");
+        resolver.clear();
+        assertEquals("serviceB", resolver.resolveService(request("/b")));
+        assertEquals(2, delegate.count);
+    }
+
+    /**
+     * Tests that the cache does not grow beyond its configured size
+     */
+    public void testEviction() throws Exception {
+        for (int i = 0; i < 1000; ++i) {
+            resolver.resolveService(request("/x" + i));
+        }
+        delegate.count = 0;
+        resolver.resolveService(request("/x0"));
+        assertEquals(1, delegate.count);
+    }
+
+    private HttpRequest request(String uri) throws URISyntaxException {
+        MutableHttpRequest request = new DefaultHttpRequest();
+        request.setMethod(HttpMethod.GET);
+        request.setRequestUri(new URI(uri));
+        return request;
+    }
+
+    private static class CountingResolver extends ExactMatchURIServiceResolver {
+
+        private int count;
+
+        @Override
+        public String resolveService(HttpRequest request) {
+            ++count;
+            return super.resolveService(request);
+        }
+    }
+}
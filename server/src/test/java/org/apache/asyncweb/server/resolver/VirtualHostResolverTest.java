@@ -0,0 +1,106 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.resolver;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.common.DefaultHttpRequest;
+import org.apache.asyncweb.common.HttpHeaderConstants;
+import org.apache.asyncweb.common.HttpRequest;
+import org.apache.asyncweb.common.MutableHttpRequest;
+
+/**
+ * Tests <code>VirtualHostResolver</code>
+ *
+ */
+public class VirtualHostResolverTest extends TestCase {
+
+    private VirtualHostResolver resolver;
+
+    @Override
+    protected void setUp() {
+        resolver = new VirtualHostResolver();
+        resolver.addHostResolver("www.example.com", fixed("www"));
+        resolver.addHostResolver("*.example.com", fixed("any"));
+        resolver.addHostResolver("*.api.example.com", fixed("api"));
+    }
+
+    /**
+     * Tests that an exact host match is preferred over wildcards
+     */
+    public void testExactMatch() throws Exception {
+        assertResolved("www.example.com", "/", "www");
+        assertResolved("WWW.Example.COM:8080", "/", "www");
+    }
+
+    /**
+     * Tests that the most specific wildcard is applied
+     */
+    public void testWildcardMatch() throws Exception {
+        assertResolved("shop.example.com", "/", "any");
+        assertResolved("a.b.example.com", "/", "any");
+        assertResolved("v1.api.example.com", "/", "api");
+        assertResolved("example.com", "/", null);
+    }
+
+    /**
+     * Tests that unmatched hosts fall back to the default resolver
+     */
+    public void testDefaultResolver() throws Exception {
+        assertResolved("other.org", "/", null);
+        resolver.setDefaultResolver(fixed("default"));
+        assertResolved("other.org", "/", "default");
+        assertResolved(null, "/", "default");
+    }
+
+    /**
+     * Tests that requests with an absolute URI are resolved on the URI host,
+     * and that child resolvers see the path only
+     */
+    public void testAbsoluteURI() throws Exception {
+        ExactMatchURIServiceResolver paths = new ExactMatchURIServiceResolver();
+        paths.addURIMapping("/app", "app");
+        resolver.addHostResolver("tenant.org", paths);
+        assertResolved(null, "http://tenant.org:8080/app?x=1", "app");
+        assertResolved("www.example.com", "http://tenant.org/app", "app");
+    }
+
+    private void assertResolved(String host, String uri, String expected)
+            throws URISyntaxException {
+        MutableHttpRequest request = new DefaultHttpRequest();
+        request.setRequestUri(new URI(uri));
+        if (host != null) {
+            request.setHeader(HttpHeaderConstants.KEY_HOST, host);
+        }
+        assertEquals("Unexpected service", expected, resolver
+                .resolveService(request));
+    }
+
+    private static ServiceResolver fixed(final String service) {
+        return new ServiceResolver() {
+            public String resolveService(HttpRequest request) {
+                return service;
+            }
+        };
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.util.TimingWheelPermitIssuer;
+
+/**
+ * Tests <code>BasicSessionStore</code>
+ *
+ */
+public class BasicSessionStoreTest extends TestCase {
+
+    private static final int TIMEOUT = 100;
+
+    private BasicSessionStore store;
+
+    private RecordingListener listener;
+
+    @Override
+    protected void setUp() {
+        store = new BasicSessionStore(new TimingWheelPermitIssuer(TIMEOUT, 10));
+        listener = new RecordingListener();
+        store.addSessionListener(listener);
+    }
+
+    @Override
+    protected void tearDown() {
+        store.close();
+    }
+
+    /**
+     * Tests that sessions can be created and located, and that duplicate
+     * keys are refused
+     */
+    public void testCreateAndLocate() {
+        HttpSession session = store.createSession("key");
+        assertNotNull(session);
+        assertNull(store.createSession("key"));
+        assertSame(session, store.locateSession("key"));
+        assertNull(store.locateSession("other"));
+        assertEquals(Collections.singletonList("created:key"), listener.events);
+    }
+
+    /**
+     * Tests that a destroyed session is removed from the store
+     */
+    public void testDestroy() {
+        HttpSession session = store.createSession("key");
+        session.destroy();
+        assertFalse(session.isValid());
+        assertNull(store.locateSession("key"));
+        assertEquals("destroyed:key", listener.events.get(1));
+    }
+
+    /**
+     * Tests that an idle session expires
+     */
+    public void testExpiry() throws Exception {
+        HttpSession session = store.createSession("key");
+        Thread.sleep(TIMEOUT * 3);
+        assertFalse(session.isValid());
+        assertNull(store.locateSession("key"));
+        assertEquals("expired:key", listener.events.get(1));
+    }
+
+    /**
+     * Tests that expired sessions are removed straight away, and that
+     * their listeners are notified on the expiry executor
+     */
+    public void testExpiryExecutor() throws Exception {
+        final List<Runnable> tasks = Collections
+                .synchronizedList(new ArrayList<Runnable>());
+        store.setExpiryExecutor(new Executor() {
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        HttpSession a = store.createSession("a");
+        HttpSession b = store.createSession("b");
+        Thread.sleep(TIMEOUT * 3);
+        assertFalse(a.isValid());
+        assertFalse(b.isValid());
+        assertNull(store.locateSession("a"));
+        assertEquals(2, store.getExpiredCount());
+        assertEquals(2, listener.events.size());
+        assertEquals(tasks.size(), store.getPendingExpiryCount());
+
+        for (Runnable task : new ArrayList<Runnable>(tasks)) {
+            task.run();
+        }
+        assertEquals(0, store.getPendingExpiryCount());
+        assertTrue(listener.events.contains("expired:a"));
+        assertTrue(listener.events.contains("expired:b"));
+        assertTrue(store.getMaxExpiryLag() >= store.getLastExpiryLag());
+    }
+
+    /**
+     * Tests that closing the store destroys all sessions, and that no
+     * sessions can be created afterwards
+     */
+    public void testClose() {
+        HttpSession session = store.createSession("key");
+        store.close();
+        assertFalse(session.isValid());
+        try {
+            store.createSession("other");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that only the changes made since the last completed request
+     * are published
+     */
+    public void testChangeTracking() {
+        final List<String> changes = new ArrayList<String>();
+        HttpSession session = store.createSession("key");
+        session.setValue("untracked", "value");
+        store.addSessionChangeListener(new HttpSessionChangeListener() {
+            public void sessionChanged(HttpSession session,
+                    Map<String, Object> changedValues, Set<String> removedKeys) {
+                changes.add(changedValues + " " + removedKeys);
+            }
+        });
+
+        session.setValue("a", "1");
+        session.setValue("b", "2");
+        session.removeValue("b");
+        session.removeValue("missing");
+        store.requestCompleted(session);
+        assertEquals(Collections.singletonList("{a=1} [b]"), changes);
+
+        store.requestCompleted(session);
+        assertEquals(1, changes.size());
+
+        session.removeValue("untracked");
+        session.setValue("b", "3");
+        store.requestCompleted(session);
+        assertEquals("{b=3} [untracked]", changes.get(1));
+    }
+
+    /**
+     * Tests that the change published for a value set concurrently is the
+     * value the session holds
+     */
+    public void testConcurrentChangeTracking() throws Exception {
+        final List<Object> changed = new ArrayList<Object>();
+        store.addSessionChangeListener(new HttpSessionChangeListener() {
+            public void sessionChanged(HttpSession session,
+                    Map<String, Object> changedValues, Set<String> removedKeys) {
+                changed.add(changedValues.get("key"));
+            }
+        });
+        store.createSession("key");
+        for (int round = 0; round < 100; ++round) {
+            // Renews the session, so it outlives the test
+            final HttpSession session = store.locateSession("key");
+            Thread[] writers = new Thread[4];
+            for (int i = 0; i < writers.length; ++i) {
+                final Integer value = Integer.valueOf(i);
+                writers[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < 100; ++j) {
+                            session.setValue("key", value);
+                        }
+                    }
+                };
+                writers[i].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            store.requestCompleted(session);
+            assertEquals(session.getValue("key"), changed.get(round));
+        }
+    }
+
+    private static class RecordingListener implements HttpSessionListener {
+
+        private final List<String> events = Collections
+                .synchronizedList(new ArrayList<String>());
+
+        public void sessionCreated(HttpSession session) {
+            events.add("created:" + session.getId());
+        }
+
+        public void sessionDestroyed(HttpSession session) {
+            events.add("destroyed:" + session.getId());
+        }
+
+        public void sessionExpired(HttpSession session) {
+            events.add("expired:" + session.getId());
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.io.Serializable;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.common.Cookie;
+import org.apache.asyncweb.common.DefaultCookie;
+import org.apache.asyncweb.common.DefaultHttpRequest;
+import org.apache.asyncweb.common.DefaultHttpResponse;
+import org.apache.asyncweb.common.MutableHttpRequest;
+import org.apache.asyncweb.common.MutableHttpResponse;
+import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.util.MockHttpServiceContext;
+
+/**
+ * Tests <code>CookieSessionAccessor</code>
+ *
+ */
+public class CookieSessionAccessorTest extends TestCase {
+
+    private CookieSessionAccessor accessor;
+
+    @Override
+    protected void setUp() {
+        accessor = new CookieSessionAccessor();
+        accessor.setSecret("secret");
+        accessor.init();
+    }
+
+    /**
+     * Tests that session values are carried by the cookie
+     */
+    public void testRoundTrip() {
+        SessionContext context = new SessionContext(null);
+        HttpSession session = context.getSession(true);
+        assertFalse(session.isAttached());
+        session.setValue("name", "value");
+        String cookie = commit(context);
+        assertNotNull(cookie);
+
+        context = new SessionContext(cookie);
+        session = context.getSession(false);
+        assertNotNull(session);
+        assertTrue(session.isAttached());
+        assertEquals("value", session.getValue("name"));
+        assertNull("Unchanged session re-issued", commit(context));
+    }
+
+    /**
+     * Tests that altered cookies are rejected
+     */
+    public void testTamperedCookie() {
+        SessionContext context = new SessionContext(null);
+        context.getSession(true).setValue("role", "user");
+        String cookie = commit(context);
+        String tampered = (cookie.charAt(0) == 'A' ? 'B' : 'A')
+                + cookie.substring(1);
+        assertNull(new SessionContext(tampered).getSession(false));
+    }
+
+    /**
+     * Tests that encrypted cookies do not reveal their values
+     */
+    public void testEncryption() {
+        accessor.setEncryptionKey(new byte[16]);
+        SessionContext context = new SessionContext(null);
+        context.getSession(true).setValue("name", "plaintext");
+        String cookie = commit(context);
+        String unencrypted = commitUnencrypted();
+        assertFalse(cookie.regionMatches(0, unencrypted, 0, 8));
+        assertEquals("plaintext", new SessionContext(cookie).getSession(false)
+                .getValue("name"));
+    }
+
+    /**
+     * Tests that destroying a session clears its cookie, and that it is not
+     * decoded again for the same request
+     */
+    public void testDestroy() {
+        SessionContext context = new SessionContext(null);
+        context.getSession(true).setValue("name", "value");
+        String cookie = commit(context);
+
+        context = new SessionContext(cookie);
+        context.getSession(false).destroy();
+        assertNull(context.getSession(false));
+        HttpSession created = context.getSession(true);
+        assertNull(created.getValue("name"));
+        created.destroy();
+        String cleared = commit(context);
+        assertNotNull(cleared);
+        assertNull(new SessionContext(cleared).getSession(false));
+    }
+
+    /**
+     * Tests that values are only read from a cookie if their classes have
+     * been allowed
+     */
+    public void testValueClasses() {
+        SessionContext context = new SessionContext(null);
+        context.getSession(true).setValue("point", new Point(2));
+        String cookie = commit(context);
+        assertNull(new SessionContext(cookie).getSession(false));
+
+        accessor.addValueClass(Point.class);
+        HttpSession session = new SessionContext(cookie).getSession(false);
+        assertEquals(2, ((Point) session.getValue("point")).x);
+    }
+
+    private String commitUnencrypted() {
+        CookieSessionAccessor encrypting = accessor;
+        accessor = new CookieSessionAccessor();
+        accessor.setSecret("secret");
+        try {
+            SessionContext context = new SessionContext(null);
+            context.getSession(true).setValue("name", "plaintext");
+            return commit(context);
+        } finally {
+            accessor = encrypting;
+        }
+    }
+
+    private String commit(SessionContext context) {
+        MutableHttpResponse response = new DefaultHttpResponse();
+        accessor.addSessionIdentifier(context, response);
+        Set<Cookie> cookies = response.getCookies();
+        return cookies.isEmpty() ? null : cookies.iterator().next()
+                .getValue();
+    }
+
+    /**
+     * Binds sessions through the accessor under test
+     */
+    private class SessionContext extends MockHttpServiceContext {
+
+        private HttpSession session;
+
+        SessionContext(String cookie) {
+            super(request(cookie));
+        }
+
+        @Override
+        public HttpSession getSession(boolean create) {
+            if (session != null && !session.isValid()) {
+                session = null;
+            }
+            if (session == null) {
+                session = accessor.getSession(this, create);
+            }
+            return session;
+        }
+    }
+
+    private static MutableHttpRequest request(String cookie) {
+        MutableHttpRequest request = new DefaultHttpRequest();
+        if (cookie != null) {
+            request.addCookie(new DefaultCookie("sessionKey", cookie));
+        }
+        return request;
+    }
+
+    private static class Point implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int x;
+
+        Point(int x) {
+            this.x = x;
+        }
+    }
+}
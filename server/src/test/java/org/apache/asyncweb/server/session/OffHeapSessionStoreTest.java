@@ -0,0 +1,217 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.util.TimingWheelPermitIssuer;
+
+/**
+ * Tests <code>OffHeapSessionStore</code>
+ *
+ */
+public class OffHeapSessionStoreTest extends TestCase {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private OffHeapSessionStore store;
+
+    private List<String> expired;
+
+    @Override
+    protected void setUp() {
+        store = new OffHeapSessionStore(new TimingWheelPermitIssuer(60000),
+                4 * BLOCK_SIZE, BLOCK_SIZE);
+        expired = Collections.synchronizedList(new ArrayList<String>());
+        store.addSessionListener(new HttpSessionListener() {
+            public void sessionCreated(HttpSession session) {
+            }
+
+            public void sessionDestroyed(HttpSession session) {
+            }
+
+            public void sessionExpired(HttpSession session) {
+                expired.add(session.getId());
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() {
+        store.close();
+    }
+
+    /**
+     * Tests that values are held by value, and that memory is only occupied
+     * while a session holds values
+     */
+    public void testValues() {
+        HttpSession session = store.createSession("key");
+        assertEquals(0, store.getUsedMemory());
+        StringBuilder value = new StringBuilder("a");
+        session.setValue("name", value);
+        value.append("b");
+        assertEquals("a", session.getValue("name").toString());
+        assertNotSame(session.getValue("name"), session.getValue("name"));
+        assertEquals(BLOCK_SIZE, store.getUsedMemory());
+
+        assertEquals("a", session.removeValue("name").toString());
+        assertNull(session.getValue("name"));
+        assertEquals(0, store.getUsedMemory());
+    }
+
+    /**
+     * Tests that reading or removing a value deserializes only that value
+     */
+    public void testValuesDeserializedIndividually() {
+        HttpSession session = store.createSession("key");
+        session.setValue("counted", new CountedValue());
+        session.setValue("name", "value");
+        CountedValue.readCount = 0;
+
+        assertEquals("value", session.getValue("name"));
+        assertEquals(0, CountedValue.readCount);
+        assertNull(session.getValue("missing"));
+        assertEquals("value", session.removeValue("name"));
+        session.setValue("other", "value");
+        assertEquals(0, CountedValue.readCount);
+
+        assertNotNull(session.getValue("counted"));
+        assertEquals(1, CountedValue.readCount);
+    }
+
+    /**
+     * Tests that values which can not be serialized are refused
+     */
+    public void testNotSerializable() {
+        HttpSession session = store.createSession("key");
+        try {
+            session.setValue("name", new Object());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            session.setValue("name", new byte[5 * BLOCK_SIZE]);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that memory is released when sessions are destroyed
+     */
+    public void testDestroyReleasesMemory() {
+        HttpSession session = store.createSession("key");
+        session.setValue("name", "value");
+        session.destroy();
+        assertEquals(0, store.getUsedMemory());
+        assertNull(session.getValue("name"));
+    }
+
+    /**
+     * Tests that expiry listeners of an evicted session may read its values
+     */
+    public void testEvictedValuesReadable() {
+        final List<Integer> lengths = Collections
+                .synchronizedList(new ArrayList<Integer>());
+        store.addSessionListener(new HttpSessionListener() {
+            public void sessionCreated(HttpSession session) {
+            }
+
+            public void sessionDestroyed(HttpSession session) {
+            }
+
+            public void sessionExpired(HttpSession session) {
+                lengths.add(((byte[]) session.getValue("data")).length);
+            }
+        });
+        for (int i = 0; i < 5; ++i) {
+            store.createSession("s" + i).setValue("data", new byte[600]);
+        }
+        assertEquals(Collections.singletonList("s0"), expired);
+        assertEquals(Collections.singletonList(600), lengths);
+        assertEquals(4 * BLOCK_SIZE, store.getUsedMemory());
+    }
+
+    /**
+     * Tests that a copy of the values of a session is deserialized from the
+     * memory holding them
+     */
+    public void testCopyValues() {
+        OffHeapSession session = (OffHeapSession) store.createSession("key");
+        assertTrue(session.copyValues().isEmpty());
+        session.setValue("name", "value");
+        session.setValue("count", Integer.valueOf(1));
+        Map<String, Object> values = session.copyValues();
+        assertEquals(2, values.size());
+        assertEquals("value", values.get("name"));
+        assertEquals(Integer.valueOf(1), values.get("count"));
+    }
+
+    /**
+     * Tests that sessions are evicted once memory is exhausted, and that
+     * recently accessed sessions are given a second chance
+     */
+    public void testEviction() {
+        HttpSession[] sessions = new HttpSession[5];
+        for (int i = 0; i < 4; ++i) {
+            sessions[i] = store.createSession("s" + i);
+            sessions[i].setValue("data", new byte[600]);
+        }
+        assertSame(sessions[0], store.locateSession("s0"));
+
+        sessions[4] = store.createSession("s4");
+        sessions[4].setValue("data", new byte[600]);
+        assertEquals(1, store.getEvictionCount());
+        assertEquals(Collections.singletonList("s1"), expired);
+        assertTrue(sessions[0].isValid());
+        assertFalse(sessions[1].isValid());
+        assertNull(store.locateSession("s1"));
+        assertEquals(600, ((byte[]) sessions[4].getValue("data")).length);
+        assertEquals(4 * BLOCK_SIZE, store.getUsedMemory());
+    }
+
+    /**
+     * A value which counts the times it is deserialized
+     */
+    private static class CountedValue implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static int readCount;
+
+        private void readObject(ObjectInputStream in) throws IOException,
+                ClassNotFoundException {
+            in.defaultReadObject();
+            ++readCount;
+        }
+    }
+}
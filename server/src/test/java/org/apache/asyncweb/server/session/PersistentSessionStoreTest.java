@@ -0,0 +1,239 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.util.LinkedPermitIssuer;
+
+/**
+ * Tests <code>PersistentSessionStore</code>
+ *
+ */
+public class PersistentSessionStoreTest extends TestCase {
+
+    private File logFile;
+
+    private PersistentSessionStore store;
+
+    @Override
+    protected void setUp() throws IOException {
+        logFile = File.createTempFile("sessions", ".log");
+        logFile.delete();
+        store = new PersistentSessionStore(logFile);
+    }
+
+    @Override
+    protected void tearDown() {
+        store.close();
+        logFile.delete();
+    }
+
+    /**
+     * Tests that sessions and their values are restored by a new store
+     */
+    public void testRestore() throws IOException {
+        HttpSession kept = store.createSession("kept");
+        kept.setValue("name", "value");
+        kept.setValue("removed", "value");
+        kept.removeValue("removed");
+        store.createSession("destroyed").destroy();
+        store.createSession("empty");
+
+        store = restart();
+        HttpSession restored = store.locateSession("kept");
+        assertNotNull(restored);
+        assertEquals("value", restored.getValue("name"));
+        assertNull(restored.getValue("removed"));
+        assertNotNull(store.locateSession("empty"));
+        assertNull(store.locateSession("destroyed"));
+    }
+
+    /**
+     * Tests that a torn record at the end of the log is discarded
+     */
+    public void testTornRecord() throws IOException {
+        store.createSession("key").setValue("name", "value");
+        FileOutputStream out = new FileOutputStream(logFile, true);
+        out.write(new byte[] { 0, 0, 0, 100, 1, 2, 3 });
+        out.close();
+
+        store = restart();
+        assertEquals("value", store.locateSession("key").getValue("name"));
+    }
+
+    /**
+     * Tests that compaction discards superseded records
+     */
+    public void testCompaction() throws IOException {
+        HttpSession session = store.createSession("key");
+        for (int i = 0; i < 100; ++i) {
+            session.setValue("count", Integer.valueOf(i));
+        }
+        long size = store.getLogSize();
+        store.compact();
+        assertTrue(store.getLogSize() < size / 10);
+        assertEquals(logFile.length(), store.getLogSize());
+
+        store = restart();
+        assertEquals(Integer.valueOf(99), store.locateSession("key").getValue(
+                "count"));
+    }
+
+    /**
+     * Tests that sessions may be changed while a snapshot is being written,
+     * and that the changes survive compaction
+     */
+    public void testChangesDuringCompaction() throws Exception {
+        final HttpSession session = store.createSession("key");
+        session.setValue("hook", new CompactionHook());
+        session.setValue("removed", "value");
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                session.setValue("added", "value");
+                session.removeValue("removed");
+            }
+        };
+        CompactionHook.writer = writer;
+        store.compact();
+        assertFalse(writer.isAlive());
+
+        store = restart();
+        HttpSession restored = store.locateSession("key");
+        assertEquals("value", restored.getValue("added"));
+        assertNull(restored.getValue("removed"));
+    }
+
+    /**
+     * Tests that values bound by a session listener on creation are
+     * recorded after the session in the log
+     */
+    public void testValueSetOnCreation() throws IOException {
+        store.addSessionListener(new HttpSessionListener() {
+            public void sessionCreated(HttpSession session) {
+                session.setValue("name", "value");
+            }
+
+            public void sessionDestroyed(HttpSession session) {
+            }
+
+            public void sessionExpired(HttpSession session) {
+            }
+        });
+        store.createSession("key");
+
+        // Read the log as left by a crash - without closing the store
+        File copy = File.createTempFile("sessions", ".log");
+        FileInputStream in = new FileInputStream(logFile);
+        FileOutputStream out = new FileOutputStream(copy);
+        byte[] buf = new byte[4096];
+        for (int n; (n = in.read(buf)) > 0;) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        out.close();
+        PersistentSessionStore recovered = new PersistentSessionStore(copy);
+        try {
+            assertEquals("value", recovered.locateSession("key").getValue(
+                    "name"));
+        } finally {
+            recovered.close();
+            copy.delete();
+        }
+    }
+
+    /**
+     * Tests that a store which fails to compact its log on construction
+     * stops its permit issuer
+     */
+    public void testCompactionFailure() throws IOException {
+        File snapshot = new File(logFile.getPath() + ".compact");
+        snapshot.mkdir();
+        final boolean[] closed = new boolean[1];
+        try {
+            new PersistentSessionStore(logFile, new LinkedPermitIssuer(60000) {
+                @Override
+                public void close() {
+                    closed[0] = true;
+                    super.close();
+                }
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            snapshot.delete();
+        }
+        assertTrue(closed[0]);
+    }
+
+    /**
+     * Tests that values which can not be serialized are refused
+     */
+    public void testNotSerializable() {
+        HttpSession session = store.createSession("key");
+        try {
+            session.setValue("name", new Object());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertNull(session.getValue("name"));
+    }
+
+    private PersistentSessionStore restart() throws IOException {
+        store.close();
+        return new PersistentSessionStore(logFile);
+    }
+
+    /**
+     * A value which, when next serialized, runs a writer thread to
+     * completion
+     */
+    private static class CompactionHook implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static Thread writer;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            Thread thread = writer;
+            writer = null;
+            if (thread != null) {
+                thread.start();
+                try {
+                    thread.join(5000);
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            out.defaultWriteObject();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests <code>StripedSecureRandomKeyFactory</code>
+ *
+ */
+public class StripedSecureRandomKeyFactoryTest extends TestCase {
+
+    /**
+     * Tests that keys are URL safe, of the expected length and unique
+     */
+    public void testKeys() {
+        StripedSecureRandomKeyFactory factory = new StripedSecureRandomKeyFactory();
+        factory.setKeyLength(18);
+        factory.start();
+        Set<String> keys = new HashSet<String>();
+        for (int i = 0; i < 1000; ++i) {
+            String key = factory.createSessionKey();
+            assertEquals(24, key.length());
+            assertTrue(key, key.matches("[A-Za-z0-9_-]+"));
+            assertTrue(keys.add(key));
+        }
+    }
+
+    /**
+     * Tests that keys are created concurrently from all threads
+     */
+    public void testConcurrentCreation() throws Exception {
+        final StripedSecureRandomKeyFactory factory = new StripedSecureRandomKeyFactory();
+        factory.setStripeCount(3);
+        factory.start();
+        final Set<String> keys = new HashSet<String>();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 500; ++j) {
+                        String key = factory.createSessionKey();
+                        synchronized (keys) {
+                            keys.add(key);
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length * 500, keys.size());
+    }
+
+    /**
+     * Tests that the factory can not be reconfigured once started
+     */
+    public void testConfigurationAfterStart() {
+        StripedSecureRandomKeyFactory factory = new StripedSecureRandomKeyFactory();
+        try {
+            factory.createSessionKey();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        factory.setAlgorithm("SHA1PRNG");
+        factory.start();
+        try {
+            factory.setAlgorithm("NativePRNG");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
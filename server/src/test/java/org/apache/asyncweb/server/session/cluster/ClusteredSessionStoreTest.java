@@ -0,0 +1,258 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+import junit.framework.TestCase;
+
+import org.apache.asyncweb.server.HttpSession;
+import org.apache.asyncweb.server.session.BasicSessionStore;
+import org.apache.asyncweb.server.session.HttpSessionKeyFactory;
+import org.apache.asyncweb.server.session.StripedSecureRandomKeyFactory;
+
+/**
+ * Tests <code>ClusteredSessionStore</code> with two nodes on loopback
+ *
+ */
+public class ClusteredSessionStoreTest extends TestCase {
+
+    private static final byte[] SECRET = "cluster-shared-secret".getBytes();
+
+    private Node a;
+
+    private Node b;
+
+    @Override
+    protected void setUp() throws Exception {
+        a = new Node("a");
+        b = new Node("b");
+        a.store.addNode("b", b.server.getLocalAddress());
+        b.store.addNode("a", a.server.getLocalAddress());
+    }
+
+    @Override
+    protected void tearDown() {
+        a.close();
+        b.close();
+    }
+
+    /**
+     * Tests that sessions are held by the node which created their key,
+     * and are reachable from other nodes
+     */
+    public void testNodeAffinity() {
+        String key = a.keyFactory.createSessionKey();
+        assertEquals("a", NodeKeyFactory.getNodeId(key));
+        HttpSession local = a.store.createSession(key);
+        local.setValue("name", "value");
+        assertNull(b.local.locateSession(key));
+
+        HttpSession remote = b.store.locateSession(key);
+        assertNotNull(remote);
+        assertTrue(remote.isAttached());
+        assertEquals("value", remote.getValue("name"));
+        remote.setValue("other", Integer.valueOf(1));
+        assertEquals(Integer.valueOf(1), local.getValue("other"));
+        assertEquals("value", remote.removeValue("name"));
+        assertNull(local.getValue("name"));
+
+        remote.destroy();
+        assertFalse(local.isValid());
+        assertFalse(remote.isValid());
+        assertNull(b.store.locateSession(key));
+    }
+
+    /**
+     * Tests that creation of a session owned by another node is forwarded
+     */
+    public void testForwardedCreation() {
+        String key = "b.forwarded";
+        HttpSession created = a.store.createSession(key);
+        assertNotNull(created);
+        assertFalse(created.isAttached());
+        assertNotNull(b.local.locateSession(key));
+        assertNull(a.local.locateSession(key));
+        assertNull("Duplicate key accepted", a.store.createSession(key));
+    }
+
+    /**
+     * Tests that keys without a node id are assigned consistently
+     */
+    public void testHashedKeys() {
+        for (int i = 0; i < 20; ++i) {
+            String key = "key" + i;
+            assertNotNull(a.store.createSession(key));
+            assertNotNull(b.store.locateSession(key));
+            boolean onA = a.local.locateSession(key) != null;
+            boolean onB = b.local.locateSession(key) != null;
+            assertTrue(onA != onB);
+        }
+    }
+
+    /**
+     * Tests that sessions of an unreachable node are treated as not found
+     */
+    public void testUnreachableNode() {
+        String key = b.keyFactory.createSessionKey();
+        b.store.createSession(key);
+        b.server.unbind();
+        a.store.setTimeout(500);
+        assertNull(a.store.locateSession(key));
+    }
+
+    /**
+     * Tests that a failed node is not waited on again within the retry
+     * interval
+     */
+    public void testRetryInterval() throws Exception {
+        String key = b.keyFactory.createSessionKey();
+        b.store.createSession(key);
+        InetSocketAddress address = b.server.getLocalAddress();
+        b.server.unbind();
+        a.store.setTimeout(500);
+        assertNull(a.store.locateSession(key));
+
+        b.server.bind(address);
+        assertNull("Failed node retried", a.store.locateSession(key));
+        a.store.setRetryInterval(0);
+        assertNotNull(a.store.locateSession(key));
+    }
+
+    /**
+     * Tests that nodes with another secret are not served
+     */
+    public void testUnauthenticatedNode() throws Exception {
+        String key = b.keyFactory.createSessionKey();
+        b.store.createSession(key);
+        ClusteredSessionStore intruder = new ClusteredSessionStore("c",
+                new BasicSessionStore(), "another-secret-value".getBytes());
+        try {
+            intruder.addNode("b", b.server.getLocalAddress());
+            intruder.setTimeout(500);
+            assertNull(intruder.locateSession(key));
+        } finally {
+            intruder.close();
+        }
+        assertNotNull(a.store.locateSession(key));
+    }
+
+    /**
+     * Tests that only allowed classes are accepted as session values
+     */
+    public void testValueClasses() {
+        String key = a.keyFactory.createSessionKey();
+        a.store.createSession(key).setValue("allowed", new String[] { "x" });
+        HttpSession remote = b.store.locateSession(key);
+        assertEquals("x", ((String[]) remote.getValue("allowed"))[0]);
+
+        try {
+            remote.setValue("point", new Point(1));
+            fail("Class not allowed was accepted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        a.server.addValueClass(Point.class);
+        remote.setValue("point", new Point(2));
+        try {
+            b.store.locateSession(key).getValue("point");
+            fail("Class not allowed was accepted");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        b.store.addValueClass(Point.class);
+        assertEquals(2, ((Point) b.store.locateSession(key).getValue("point")).x);
+    }
+
+    /**
+     * Tests that a located remote session reads each value from its owner
+     * once, and that the next lookup reads the current value
+     */
+    public void testValuesReadOnce() {
+        String key = a.keyFactory.createSessionKey();
+        HttpSession local = a.store.createSession(key);
+        local.setValue("name", "first");
+        HttpSession remote = b.store.locateSession(key);
+        assertEquals("first", remote.getValue("name"));
+        assertNull(remote.getValue("missing"));
+
+        local.setValue("name", "second");
+        local.setValue("missing", "found");
+        assertEquals("first", remote.getValue("name"));
+        assertNull(remote.getValue("missing"));
+        remote.setValue("name", "third");
+        assertEquals("third", remote.getValue("name"));
+
+        remote = b.store.locateSession(key);
+        assertEquals("third", remote.getValue("name"));
+        assertEquals("found", remote.getValue("missing"));
+    }
+
+    /**
+     * Tests that the server must be bound to an explicit interface
+     */
+    public void testWildcardBind() throws Exception {
+        SessionNodeServer server = new SessionNodeServer(
+                new BasicSessionStore(), SECRET);
+        try {
+            server.bind(new InetSocketAddress(0));
+            fail("Wildcard address accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static class Point implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int x;
+
+        Point(int x) {
+            this.x = x;
+        }
+    }
+
+    private static class Node {
+
+        private final BasicSessionStore local = new BasicSessionStore();
+
+        private final ClusteredSessionStore store;
+
+        private final SessionNodeServer server = new SessionNodeServer(local,
+                SECRET);
+
+        private final HttpSessionKeyFactory keyFactory;
+
+        Node(String id) throws Exception {
+            store = new ClusteredSessionStore(id, local, SECRET);
+            server.bind(new InetSocketAddress("127.0.0.1", 0));
+            StripedSecureRandomKeyFactory random = new StripedSecureRandomKeyFactory();
+            random.start();
+            keyFactory = new NodeKeyFactory(id, random);
+        }
+
+        void close() {
+            server.unbind();
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests <code>ConsistentHashRing</code>
+ *
+ */
+public class ConsistentHashRingTest extends TestCase {
+
+    private static final int KEY_COUNT = 10000;
+
+    /**
+     * Tests that keys are spread evenly between nodes
+     */
+    public void testDistribution() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        assertNull(ring.getNode("key"));
+        for (int i = 0; i < 4; ++i) {
+            ring.addNode("node" + i);
+        }
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < KEY_COUNT; ++i) {
+            String node = ring.getNode("key" + i);
+            Integer count = counts.get(node);
+            counts.put(node, count == null ? 1 : count + 1);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue("Uneven distribution: " + counts,
+                    count > KEY_COUNT / 8 && count < KEY_COUNT * 3 / 8);
+        }
+    }
+
+    /**
+     * Tests that only the keys of an added or removed node move
+     */
+    public void testMinimalMovement() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.addNode("a");
+        ring.addNode("b");
+        ring.addNode("c");
+        String[] before = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; ++i) {
+            before[i] = ring.getNode("key" + i);
+        }
+
+        ring.addNode("d");
+        for (int i = 0; i < KEY_COUNT; ++i) {
+            String after = ring.getNode("key" + i);
+            assertTrue(after.equals(before[i]) || after.equals("d"));
+        }
+
+        ring.removeNode("d");
+        for (int i = 0; i < KEY_COUNT; ++i) {
+            assertEquals(before[i], ring.getNode("key" + i));
+        }
+    }
+}
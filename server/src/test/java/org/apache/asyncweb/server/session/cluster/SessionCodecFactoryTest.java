@@ -0,0 +1,125 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.session.cluster;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolCodecSession;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.apache.mina.filter.codec.ProtocolEncoderException;
+
+/**
+ * Tests <code>SessionCodecFactory</code>
+ *
+ */
+public class SessionCodecFactoryTest extends TestCase {
+
+    private final SessionCodecFactory codec = new SessionCodecFactory(
+            "shared-secret-value".getBytes());
+
+    /**
+     * Tests that a frame is accepted once, and only on the connection it
+     * was sent on
+     */
+    public void testReplayRejected() throws Exception {
+        ProtocolCodecSession client = new ProtocolCodecSession();
+        ProtocolCodecSession server = new ProtocolCodecSession();
+        open(client, server);
+        IoBuffer frame = encode(client, request());
+        assertTrue(decode(server, frame.duplicate()) instanceof SessionRequest);
+        try {
+            decode(server, frame.duplicate());
+            fail("Replayed frame accepted");
+        } catch (ProtocolDecoderException e) {
+            // expected
+        }
+
+        ProtocolCodecSession other = new ProtocolCodecSession();
+        open(new ProtocolCodecSession(), other);
+        try {
+            decode(other, frame.duplicate());
+            fail("Frame accepted on another connection");
+        } catch (ProtocolDecoderException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that frames are accepted in the order they were sent
+     */
+    public void testSequence() throws Exception {
+        ProtocolCodecSession client = new ProtocolCodecSession();
+        ProtocolCodecSession server = new ProtocolCodecSession();
+        open(client, server);
+        for (int i = 0; i < 3; ++i) {
+            assertNotNull(decode(server, encode(client, request())));
+        }
+        IoBuffer skipped = encode(client, request());
+        IoBuffer next = encode(client, request());
+        try {
+            decode(server, next);
+            fail("Frame accepted out of order");
+        } catch (ProtocolDecoderException e) {
+            // expected
+        }
+        assertTrue(skipped.hasRemaining());
+    }
+
+    /**
+     * Tests that no message is sent until the peer has opened the connection
+     */
+    public void testUnopenedConnection() throws Exception {
+        try {
+            encode(new ProtocolCodecSession(), request());
+            fail("Message sent on an unopened connection");
+        } catch (ProtocolEncoderException e) {
+            // expected
+        }
+    }
+
+    private void open(ProtocolCodecSession client, ProtocolCodecSession server)
+            throws Exception {
+        assertNull(decode(server, encode(client,
+                SessionCodecFactory.HELLO_MESSAGE)));
+        assertNull(decode(client, encode(server,
+                SessionCodecFactory.HELLO_MESSAGE)));
+        assertTrue(codec.awaitOpen(client, 0));
+    }
+
+    private IoBuffer encode(ProtocolCodecSession session, Object message)
+            throws Exception {
+        codec.getEncoder(session).encode(session, message,
+                session.getEncoderOutput());
+        return (IoBuffer) session.getEncoderOutputQueue().poll();
+    }
+
+    private Object decode(ProtocolCodecSession session, IoBuffer frame)
+            throws Exception {
+        codec.getDecoder(session).decode(session, frame,
+                session.getDecoderOutput());
+        return session.getDecoderOutputQueue().poll();
+    }
+
+    private static SessionRequest request() {
+        return new SessionRequest(1, SessionRequest.GET_VALUE, "key", "name",
+                null);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.core.buffer.IoBuffer;
+
+/**
+ * Tests <code>CompressedContentCache</code>
+ *
+ */
+public class CompressedContentCacheTest extends TestCase {
+
+    /**
+     * Tests that content is cached per identity and encoding, and that
+     * each lookup may read the content independently
+     */
+    public void testGetAndPut() {
+        CompressedContentCache cache = new CompressedContentCache(1024);
+        cache.put("a", "gzip", IoBuffer.wrap(new byte[] { 1, 2, 3 }));
+        assertNull(cache.get("a", "deflate"));
+        assertNull(cache.get("b", "gzip"));
+
+        IoBuffer first = cache.get("a", "gzip");
+        assertEquals(1, first.get());
+        IoBuffer second = cache.get("a", "gzip");
+        assertEquals(3, second.remaining());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(3, cache.getSize());
+    }
+
+    /**
+     * Tests that the byte budget is respected, and that content larger than
+     * a segment budget is not cached
+     */
+    public void testEviction() {
+        CompressedContentCache cache = new CompressedContentCache(16 * 100);
+        cache.put("large", "gzip", IoBuffer.allocate(101));
+        assertNull(cache.get("large", "gzip"));
+        for (int i = 0; i < 1000; ++i) {
+            cache.put("key" + i, "gzip", IoBuffer.allocate(40));
+        }
+        assertTrue(cache.getSize() <= 16 * 100);
+        assertNotNull(cache.get("key999", "gzip"));
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get("key999", "gzip"));
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.asyncweb.common.DefaultHttpResponse;
+import org.apache.asyncweb.common.HttpRequest;
+import org.apache.asyncweb.common.HttpResponse;
+import org.apache.asyncweb.common.HttpResponseStatus;
+import org.apache.asyncweb.common.MutableHttpResponse;
+import org.apache.asyncweb.server.HttpClientListener;
+import org.apache.asyncweb.server.HttpServiceContext;
+import org.apache.asyncweb.server.HttpSession;
+
+/**
+ * A simple <code>HttpServiceContext</code> which records the response
+ * committed to it. No session support is provided
+ *
+ */
+public class MockHttpServiceContext implements HttpServiceContext {
+
+    private final HttpRequest request;
+
+    private HttpResponse committedResponse;
+
+    private final List<HttpClientListener> listeners = new ArrayList<HttpClientListener>();
+
+    public MockHttpServiceContext(HttpRequest request) {
+        this.request = request;
+    }
+
+    public InetSocketAddress getRemoteAddress() {
+        return new InetSocketAddress("localhost", 0);
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        return new InetSocketAddress("localhost", 0);
+    }
+
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    public synchronized boolean isResponseCommitted() {
+        return committedResponse != null;
+    }
+
+    public synchronized HttpResponse getCommittedResponse() {
+        return committedResponse;
+    }
+
+    public synchronized boolean commitResponse(HttpResponse response) {
+        if (committedResponse != null) {
+            return false;
+        }
+        committedResponse = response;
+        return true;
+    }
+
+    public boolean commitResponse(HttpResponseStatus status) {
+        MutableHttpResponse response = new DefaultHttpResponse();
+        response.setStatus(status);
+        return commitResponse(response);
+    }
+
+    public HttpSession getSession() {
+        return null;
+    }
+
+    public HttpSession getSession(boolean create) {
+        return null;
+    }
+
+    public boolean addClientListener(HttpClientListener listener) {
+        return listeners.add(listener);
+    }
+
+    public boolean removeClientListener(HttpClientListener listener) {
+        return listeners.remove(listener);
+    }
+
+    /**
+     * Notifies all listeners that the client has disconnected
+     */
+    public void fireClientDisconnected() {
+        for (HttpClientListener listener : new ArrayList<HttpClientListener>(
+                listeners)) {
+            listener.clientDisconnected(this);
+        }
+    }
+
+}
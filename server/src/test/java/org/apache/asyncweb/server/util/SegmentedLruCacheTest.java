@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests <code>SegmentedLruCache</code>
+ *
+ */
+public class SegmentedLruCacheTest extends TestCase {
+
+    /**
+     * Tests that lookups are counted, and that peeking is not
+     */
+    public void testCounts() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(
+                64);
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.peek("a"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+        assertEquals("1", cache.remove("a"));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Tests that the least recently used entries are evicted, and that small
+     * capacities are respected
+     */
+    public void testEviction() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(
+                2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        assertTrue(cache.size() <= 2);
+        assertEquals("3", cache.peek("c"));
+    }
+
+    /**
+     * Tests that weighed entries are bounded by their total weight, and
+     * that entries heavier than a segment share are not held
+     */
+    public void testWeight() {
+        SegmentedLruCache<String, String> cache = new SegmentedLruCache<String, String>(
+                16 * 10) {
+            @Override
+            protected long weigh(String value) {
+                return value.length();
+            }
+        };
+        cache.put("large", "12345678901");
+        assertNull(cache.peek("large"));
+        for (int i = 0; i < 100; ++i) {
+            cache.put("key" + i, "12345");
+        }
+        assertTrue(cache.getWeight() <= 16 * 10);
+        assertEquals(5 * cache.size(), cache.getWeight());
+
+        cache.clear();
+        assertEquals(0, cache.getWeight());
+        assertEquals(0, cache.snapshot().size());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests <code>TimingWheelPermitIssuer</code>
+ *
+ */
+public class TimingWheelPermitIssuerTest extends TestCase {
+
+    private static final int LIFETIME = 200;
+
+    private static final int TICK = 10;
+
+    private TimingWheelPermitIssuer issuer;
+
+    private List<Object> expired;
+
+    @Override
+    protected void setUp() throws Exception {
+        issuer = new TimingWheelPermitIssuer(LIFETIME, TICK);
+        expired = Collections.synchronizedList(new ArrayList<Object>());
+        issuer.addPermitExpirationListener(new PermitExpirationListener() {
+            public void permitExpired(Object o) {
+                expired.add(o);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        issuer.close();
+    }
+
+    /**
+     * Tests that an unrenewed permit expires once its lifetime elapses
+     */
+    public void testExpiry() {
+        issuer.issuePermit("permit");
+        sleep(LIFETIME / 2);
+        assertTrue(expired.isEmpty());
+        sleep(LIFETIME);
+        assertEquals(Collections.singletonList("permit"), expired);
+    }
+
+    /**
+     * Tests that a cancelled permit does not expire, and that
+     * cancellation is only reported once
+     */
+    public void testCancel() {
+        TimedPermit permit = issuer.issuePermit("permit");
+        assertTrue("Expected cancellation", permit.cancel());
+        assertFalse("Unexpected cancellation", permit.cancel());
+        sleep(LIFETIME * 2);
+        assertTrue(expired.isEmpty());
+    }
+
+    /**
+     * Tests that an expired permit can not be cancelled
+     */
+    public void testCancelAfterExpiry() {
+        TimedPermit permit = issuer.issuePermit("permit");
+        sleep(LIFETIME * 2);
+        assertFalse(permit.cancel());
+    }
+
+    /**
+     * Tests that closing the issuer aborts expiry notifications
+     */
+    public void testCloseAbortsExpiry() {
+        issuer.issuePermit("permit");
+        issuer.close();
+        sleep(LIFETIME * 2);
+        assertTrue(expired.isEmpty());
+    }
+
+    /**
+     * Tests that renewing a permit extends its lifetime, while other
+     * permits expire as normal
+     */
+    public void testRenewal() {
+        issuer.issuePermit("permit1");
+        TimedPermit permit2 = issuer.issuePermit("permit2");
+        sleep(LIFETIME / 2);
+        permit2.renew();
+        sleep(3 * LIFETIME / 4);
+        assertEquals(Collections.singletonList("permit1"), expired);
+        sleep(LIFETIME);
+        assertEquals(2, expired.size());
+        assertEquals("permit2", expired.get(1));
+    }
+
+    private static void sleep(long delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
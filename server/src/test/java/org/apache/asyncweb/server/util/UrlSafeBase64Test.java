@@ -0,0 +1,62 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.asyncweb.server.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests <code>UrlSafeBase64</code>
+ *
+ */
+public class UrlSafeBase64Test extends TestCase {
+
+    /**
+     * Tests encoding against the RFC 4648 test vectors
+     */
+    public void testEncode() throws Exception {
+        String[] expected = { "", "Zg", "Zm8", "Zm9v", "Zm9vYg", "Zm9vYmE",
+                "Zm9vYmFy" };
+        for (int i = 0; i < expected.length; ++i) {
+            byte[] data = "foobar".substring(0, i).getBytes("US-ASCII");
+            assertEquals(expected[i], UrlSafeBase64.encode(data));
+        }
+        assertEquals("-_8", UrlSafeBase64.encode(new byte[] { (byte) 0xfb,
+                (byte) 0xff }));
+    }
+
+    /**
+     * Tests that random data survives a round trip, and that invalid
+     * encodings are rejected
+     */
+    public void testDecode() {
+        Random random = new Random(0);
+        for (int length = 0; length < 64; ++length) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            assertTrue(Arrays.equals(data, UrlSafeBase64.decode(UrlSafeBase64
+                    .encode(data))));
+        }
+        assertNull(UrlSafeBase64.decode("Zm9v+"));
+        assertNull(UrlSafeBase64.decode("Zm9vY"));
+    }
+}